@@ -0,0 +1,182 @@
+package com.github.nicorac.plugins.audioplayer;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.media.AudioDeviceInfo;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the output device switch latency of MediaPlayerEx: time from the switch request
+ * until the player is playing again on the new device, with live routing and with player re-initialization.
+ * Median/max latencies (ms) are reported as instrumentation status.
+ * (the first switch of the routing run re-initializes the player anyway, because a player created for the
+ * loudspeaker is never routed to the earpiece, see MediaPlayerEx.routeToDevice())
+ */
+@RunWith(AndroidJUnit4.class)
+public class OutputDeviceSwitchBenchmark {
+
+  private static final int SWITCHES = 10;
+  private static final long TIMEOUT_MS = 10_000;
+
+  // test file: 10 minutes of 16 bit mono PCM
+  private static final int SAMPLE_RATE = 8000;
+  private static final int DURATION_SECS = 10 * 60;
+
+  private Instrumentation instrumentation;
+  private File audioFile;
+  private MediaPlayerEx player;
+
+  private final OnEventListener listener = new OnEventListener() {
+    @Override public void onPrepared(MediaPlayerEx mp) { }
+    @Override public void onUpdate(MediaPlayerEx mp) { }
+    @Override public void onSilenceSkipped(MediaPlayerEx mp) { }
+    @Override public void onCompletion(MediaPlayerEx mp) { }
+  };
+
+  @Before
+  public void setUp() throws Exception {
+
+    instrumentation = InstrumentationRegistry.getInstrumentation();
+    Context context = instrumentation.getTargetContext();
+    audioFile = createWavFile(new File(context.getCacheDir(), "benchmark.wav"));
+
+    // MediaPlayer callbacks are delivered on the main thread
+    instrumentation.runOnMainSync(() -> player = new MediaPlayerEx(
+      context, Uri.fromFile(audioFile), "benchmark", "", listener, OutputDeviceEnum.Loudspeaker
+    ));
+    waitFor(() -> player.isPrepared());
+    instrumentation.runOnMainSync(() -> {
+      player.seekTo(DURATION_SECS * 1000 / 2);
+      player.start();
+    });
+    waitFor(() -> player.isPlaying());
+
+  }
+
+  @After
+  public void tearDown() {
+    if (player != null) {
+      instrumentation.runOnMainSync(() -> player.release());
+    }
+    if (audioFile != null) {
+      audioFile.delete();
+    }
+  }
+
+  @Test
+  public void switchLatency() throws Exception {
+
+    var status = new Bundle();
+    report(status, "reinitialize", measure(false));
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+      report(status, "routing", measure(true));
+    }
+    instrumentation.sendStatus(0, status);
+
+  }
+
+  /**
+   * Switch device SWITCHES times and return the latency of each switch (ms)
+   */
+  private long[] measure(boolean allowRouting) throws Exception {
+
+    var res = new long[SWITCHES];
+    for (int i = 0; i < SWITCHES; i++) {
+      var device = i % 2 == 0 ? OutputDeviceEnum.Earpiece : OutputDeviceEnum.Loudspeaker;
+      var deviceType = device == OutputDeviceEnum.Earpiece
+        ? AudioDeviceInfo.TYPE_BUILTIN_EARPIECE
+        : AudioDeviceInfo.TYPE_BUILTIN_SPEAKER;
+
+      var start = SystemClock.elapsedRealtimeNanos();
+      instrumentation.runOnMainSync(() -> player.setOutputDevice(device, allowRouting));
+      waitFor(() -> player.isPlaying() && isRoutedTo(deviceType));
+      res[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000;
+    }
+    return res;
+
+  }
+
+  private boolean isRoutedTo(int deviceType) {
+    var type = player.getRoutedDeviceType();
+    // (routed device is not available on old releases)
+    return type == deviceType || type == AudioDeviceInfo.TYPE_UNKNOWN;
+  }
+
+  private static void report(Bundle status, String name, long[] latencies) {
+    var sorted = latencies.clone();
+    Arrays.sort(sorted);
+    status.putLong(name + "_median_ms", sorted[sorted.length / 2]);
+    status.putLong(name + "_max_ms", sorted[sorted.length - 1]);
+  }
+
+  /**
+   * Wait until the given condition (evaluated on the main thread) is met
+   */
+  private void waitFor(Callable<Boolean> condition) throws Exception {
+    var end = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+    var result = new boolean[1];
+    while (SystemClock.elapsedRealtime() < end) {
+      instrumentation.runOnMainSync(() -> {
+        try {
+          result[0] = condition.call();
+        }
+        catch (Exception e) {
+          result[0] = false;
+        }
+      });
+      if (result[0]) return;
+      SystemClock.sleep(2);
+    }
+    throw new TimeoutException("Condition not met within " + TIMEOUT_MS + "ms");
+  }
+
+  /**
+   * Write a WAV file with a low volume tone
+   */
+  private static File createWavFile(File file) throws IOException {
+
+    var dataSize = SAMPLE_RATE * DURATION_SECS * 2;
+    var header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+    header.put("RIFF".getBytes()).putInt(36 + dataSize).put("WAVE".getBytes());
+    header.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+      .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16);
+    header.put("data".getBytes()).putInt(dataSize);
+
+    try (var os = new FileOutputStream(file)) {
+      os.write(header.array());
+      var second = ByteBuffer.allocate(SAMPLE_RATE * 2).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < SAMPLE_RATE; i++) {
+        second.putShort((short) (500 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE)));
+      }
+      for (int s = 0; s < DURATION_SECS; s++) {
+        os.write(second.array());
+      }
+    }
+    assertTrue(file.length() > dataSize);
+    return file;
+
+  }
+
+}
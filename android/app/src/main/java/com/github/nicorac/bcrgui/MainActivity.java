@@ -6,8 +6,11 @@ import com.getcapacitor.BridgeActivity;
 
 import com.github.nicorac.plugins.androiddatetimesettings.AndroidDateTimeSettingsPlugin;
 import com.github.nicorac.plugins.androidsaf.AndroidSAFPlugin;
+import com.github.nicorac.plugins.androidsaf.SafWebViewClient;
 import com.github.nicorac.plugins.audioplayer.AudioPlayerPlugin;
 import com.github.nicorac.plugins.bcrgui.BcrGuiPlugin;
+import com.github.nicorac.plugins.metrics.MetricsPlugin;
+import com.github.nicorac.plugins.recordingsdb.RecordingsDbPlugin;
 
 public class MainActivity extends BridgeActivity {
 
@@ -17,7 +20,12 @@ public class MainActivity extends BridgeActivity {
     registerPlugin(AndroidDateTimeSettingsPlugin.class);
     registerPlugin(AudioPlayerPlugin.class);
     registerPlugin(BcrGuiPlugin.class);
+    registerPlugin(RecordingsDbPlugin.class);
+    registerPlugin(MetricsPlugin.class);
     super.onCreate(savedInstanceState);
+
+    // serve SAF documents to the WebView
+    bridge.setWebViewClient(new SafWebViewClient(bridge));
   }
 
 }
@@ -6,16 +6,21 @@ import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.github.nicorac.plugins.metrics.PluginMetrics;
 
 @CapacitorPlugin(name = "AndroidDateTimeSettings")
 public class AndroidDateTimeSettingsPlugin extends Plugin {
 
+  private final PluginMetrics metrics = new PluginMetrics("AndroidDateTimeSettings");
+
   /**
    * Return true if time is currently set to 12-hours
    * (both by setting a culture that uses this format and/or by forcing it)
    */
   @PluginMethod()
-  public void is12Hours(PluginCall call) {
+  public void is12Hours(PluginCall call) { metrics.timed(call, "is12Hours", this::is12Hours); }
+
+  private void is12Hours(PluginCall call, PluginMetrics.Span span) {
 
     var ret = new JSObject();
     ret.put("is12Hours", !DateFormat.is24HourFormat(getContext()));
@@ -3,6 +3,9 @@ package com.github.nicorac.plugins.androidsaf;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.DocumentsContract;
 import android.util.Base64;
@@ -14,6 +17,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.documentfile.provider.DocumentFile;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -21,16 +25,28 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.ActivityCallback;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
-import java.io.ByteArrayOutputStream;
+import com.github.nicorac.plugins.metrics.PluginMetrics;
+
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.PatternSyntaxException;
 
 @CapacitorPlugin(name = "AndroidSAF")
 public class AndroidSAFPlugin extends Plugin {
@@ -43,6 +59,65 @@ public class AndroidSAFPlugin extends Plugin {
   private static final String ERR_IO_EXCEPTION = "ERR_IO_EXCEPTION";
   private static final String ERR_UNKNOWN = "ERR_UNKNOWN";
 
+  // statuses of deleteFiles() items
+  private static final String DELETE_STATUS_DELETED = "deleted";
+  private static final String DELETE_STATUS_NOT_FOUND = "notFound";
+  private static final String DELETE_STATUS_ERROR = "error";
+
+  // default chunk size of streamed reads
+  private static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+  private static final StreamUtils.Base64Encoder BASE64_ENCODER = (data, offset, length) -> Base64.encodeToString(data, offset, length, Base64.NO_WRAP);
+  private static final StreamUtils.Base64Decoder BASE64_DECODER = (data, offset, length) -> Base64.decode(data, offset, length, Base64.NO_WRAP);
+
+  // max size of a single read (to keep it in a byte[])
+  private static final int MAX_READ_SIZE = Integer.MAX_VALUE - 8;
+
+  // Cursors kept open between listFiles() pages are closed if the next page is not requested within this time
+  private static final long PAGED_LISTING_TIMEOUT_MS = 30_000;
+
+  // max number of files read (or deleted) in parallel by batch methods
+  private static final int MAX_PARALLEL_READS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  private final PluginMetrics metrics = new PluginMetrics("AndroidSAF");
+
+  private RecordingsScanner recordingsScanner;
+  private DurationProber durationProber;
+  private ClipExtractor clipExtractor;
+
+  // active directory watchers, keyed by directory URI
+  private final HashMap<String, DirectoryWatcher> watchers = new HashMap<>();
+  private ExecutorService ioExecutor;
+
+  // Cursors kept open between listFiles() pages, keyed by page token
+  private final HashMap<String, PagedListing> pagedListings = new HashMap<>();
+  private int lastPageToken = 0;
+  private final Handler pagedListingsHandler = new Handler(Looper.getMainLooper());
+
+  @Override
+  public void load() {
+    recordingsScanner = new RecordingsScanner(getContext(), RecordingsScanner.CONSUMER_APP);
+    durationProber = new DurationProber(getContext());
+    clipExtractor = new ClipExtractor(getContext());
+    ioExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_READS);
+  }
+
+  @Override
+  public void handleOnDestroy() {
+    ioExecutor.shutdownNow();
+    for (var w : watchers.values()) {
+      w.stop();
+    }
+    watchers.clear();
+    pagedListingsHandler.removeCallbacksAndMessages(null);
+    synchronized (pagedListings) {
+      for (var l : pagedListings.values()) {
+        l.cursor.close();
+      }
+      pagedListings.clear();
+    }
+  }
+
   /**
    * Allow client to select a directory and get access to contained files and subdirectorys
    */
@@ -142,18 +217,43 @@ public class AndroidSAFPlugin extends Plugin {
 
   /**
    * Return the JSON serialized version of IDocumentFile items contained in the given directory Uri
+   *
+   * @param call
+   *  call.directoryUri: URI of the directory
+   *  call.offset: index of the first item to return (optional, default 0)
+   *  call.limit: max number of items to return (optional, default 0 = no limit)
+   *  call.columns: true to return items as parallel column arrays (IDocumentColumns) (optional, default false)
+   *  call.pageToken: page token returned with the previous page (optional)
    */
   @PluginMethod()
-  public void listFiles(PluginCall call) {
+  public void listFiles(PluginCall call) { metrics.timed(call, "listFiles", this::listFiles); }
+
+  private void listFiles(PluginCall call, PluginMetrics.Span span) {
 
     // get directory param
     var directoryDF = getDirectoryDfFromCall(call);
     if (directoryDF == null) return;
 
+    // get paging params
+    var offset = Math.max(0, call.getInt("offset", 0));
+    var limit = Math.max(0, call.getInt("limit", 0));
+    var columns = call.getBoolean("columns", false);
+    var pageToken = call.getString("pageToken");
+
     // return files list
     try {
+      var page = this.listFileFaster(directoryDF.getUri(), offset, limit, columns, pageToken, span);
+      if (page == null) {
+        call.reject("Error retrieving files list", ERR_IO_EXCEPTION);
+        return;
+      }
       var res = new JSObject();
-      res.put("itemsJson", this.listFileFaster(directoryDF.getUri()));
+      res.put("itemsJson", page.itemsJson);
+      if (page.nextOffset >= 0) {
+        res.put("nextOffset", page.nextOffset);
+        res.put("pageToken", page.nextPageToken);
+      }
+      span.addBytes(page.itemsJson.length());
       call.resolve(res);
     }
     catch (Exception e) {
@@ -162,11 +262,281 @@ public class AndroidSAFPlugin extends Plugin {
 
   }
 
+  /**
+   * Release the Cursor kept open for the next page of a listFiles() call
+   * (needed only if paging is abandoned before the last page)
+   *
+   * @param call
+   *  call.pageToken: page token returned by listFiles()
+   */
+  @PluginMethod()
+  public void closeListing(PluginCall call) {
+
+    var pageToken = call.getString("pageToken", "");
+    PagedListing listing;
+    synchronized (pagedListings) {
+      listing = pagedListings.remove(pageToken);
+    }
+    if (listing != null) {
+      listing.cursor.close();
+    }
+    call.resolve();
+
+  }
+
+  /**
+   * Scan the given directory for recordings (audio files paired with their optional JSON metadata file)
+   * and return only the ones added, changed or removed since the given generation token.
+   * If token is missing or doesn't match the last scan, the full directory content is returned as "added".
+   *
+   * @param call
+   *  call.directoryUri: URI of the directory to scan
+   *  call.supportedTypes: array of supported audio MIME types
+   *  call.generation: generation token returned by the previous scan (optional)
+   *  call.filenamePattern: filename pattern used to extract metadata of recordings without a JSON metadata file (optional)
+   */
+  @PluginMethod()
+  public void scanRecordings(PluginCall call) { metrics.timed(call, "scanRecordings", this::scanRecordings); }
+
+  private void scanRecordings(PluginCall call, PluginMetrics.Span span) {
+
+    // get directory param
+    var directoryDF = getDirectoryDfFromCall(call);
+    if (directoryDF == null) return;
+
+    // get supported audio types
+    var supportedTypesArr = call.getArray("supportedTypes", null);
+    if (supportedTypesArr == null) {
+      call.reject("Invalid or missing supportedTypes", ERR_INVALID_CONTENT);
+      return;
+    }
+    var supportedTypes = new HashSet<String>();
+    for (int i = 0; i < supportedTypesArr.length(); i++) {
+      supportedTypes.add(supportedTypesArr.optString(i));
+    }
+    var generation = call.getData().optLong("generation", 0);
+    var filenameParser = getFilenameParser(call.getString("filenamePattern", null));
+
+    // scan directory and return delta
+    try {
+      var directoryUri = directoryDF.getUri();
+      var result = span.phase("scan", () -> recordingsScanner.scan(directoryUri, supportedTypes, generation));
+      span.addRows(result.added.size() + result.changed.size() + result.removed.size());
+
+      // parse filenames of recordings without metadata file
+      HashMap<String, Metadata> filenameMetadata = null;
+      if (filenameParser != null) {
+        var filenames = new ArrayList<String>();
+        for (var list : Arrays.asList(result.added, result.changed)) {
+          for (var e : list) {
+            if (e.metadata == null) {
+              filenames.add(e.audio.displayName);
+            }
+          }
+        }
+        var parsed = span.phase("parse", () -> filenameParser.parseAll(filenames, ioExecutor, MAX_PARALLEL_READS));
+        filenameMetadata = new HashMap<>(filenames.size() * 2);
+        for (int i = 0; i < filenames.size(); i++) {
+          filenameMetadata.put(filenames.get(i), parsed.get(i));
+        }
+      }
+
+      String deltaJson;
+      try (var ignored = span.phase("serialize")) {
+        deltaJson = RecordingsScanner.toJson(directoryUri, result, filenameMetadata);
+      }
+      span.addBytes(deltaJson.length());
+
+      var res = new JSObject();
+      res.put("generation", result.generation);
+      res.put("reset", result.reset);
+      res.put("deltaJson", deltaJson);
+      call.resolve(res);
+    }
+    catch (Exception e) {
+      call.reject("Error scanning recordings", ERR_IO_EXCEPTION, e);
+    }
+
+  }
+
+  /**
+   * Extract metadata from the given filenames (in parallel) and return a string containing
+   * the serialized array of the results, in the same order of the given filenames.
+   *
+   * @param call
+   *  call.filenamePattern: filename pattern
+   *  call.filenames: array of filenames to parse
+   */
+  @PluginMethod()
+  public void parseFilenames(PluginCall call) { metrics.timed(call, "parseFilenames", this::parseFilenames); }
+
+  private void parseFilenames(PluginCall call, PluginMetrics.Span span) {
+
+    var filenamesArr = call.getArray("filenames", null);
+    if (filenamesArr == null) {
+      call.reject("Invalid or missing filenames", ERR_INVALID_CONTENT);
+      return;
+    }
+    var filenameParser = getFilenameParser(call.getString("filenamePattern", null));
+    if (filenameParser == null) {
+      call.reject("Invalid or missing filenamePattern", ERR_INVALID_CONTENT);
+      return;
+    }
+
+    var filenames = new ArrayList<String>(filenamesArr.length());
+    for (int i = 0; i < filenamesArr.length(); i++) {
+      filenames.add(filenamesArr.optString(i));
+    }
+
+    try (
+      var sw = new StringWriter();
+      var jw = new JsonWriter(sw);
+    ) {
+      var parsed = span.phase("parse", () -> filenameParser.parseAll(filenames, ioExecutor, MAX_PARALLEL_READS));
+      span.addRows(parsed.size());
+
+      jw.beginArray();
+      for (var m : parsed) {
+        MetadataReader.write(jw, m);
+      }
+      jw.endArray();
+      jw.close();
+
+      var ret = new JSObject();
+      var itemsJson = sw.toString();
+      span.addBytes(itemsJson.length());
+      ret.put("itemsJson", itemsJson);
+      call.resolve(ret);
+    }
+    catch (Exception e) {
+      call.reject("Error parsing filenames", ERR_IO_EXCEPTION, e);
+    }
+
+  }
+
+  /**
+   * Return the (cached) parser of the given filename pattern (null if missing or invalid)
+   */
+  @Nullable
+  private static FilenameParser getFilenameParser(@Nullable String filenamePattern) {
+    if (filenamePattern == null || filenamePattern.isEmpty()) {
+      return null;
+    }
+    try {
+      return FilenameParser.get(filenamePattern);
+    }
+    catch (PatternSyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Start watching the given directory: any change to its content is notified with a "directoryChanged" event
+   * (changes are coalesced, so a burst of changes is notified once).
+   *
+   * @param call
+   *  call.directoryUri: URI of the directory to watch
+   */
+  @PluginMethod()
+  public void watchDirectory(PluginCall call) {
+
+    var directoryDF = getDirectoryDfFromCall(call);
+    if (directoryDF == null) return;
+
+    var directoryUri = call.getString("directoryUri");
+    var watcher = new DirectoryWatcher(getContext(), directoryDF.getUri(), uri -> {
+      var data = new JSObject();
+      data.put("directoryUri", directoryUri);
+      notifyListeners("directoryChanged", data);
+    });
+
+    // directory is queried in background, while watchers are started/stopped on the main thread,
+    // where they receive notifications
+    ioExecutor.execute(() -> {
+      try {
+        watcher.open();
+      }
+      catch (Exception e) {
+        call.reject("Error watching directory", ERR_IO_EXCEPTION, e);
+        return;
+      }
+      getActivity().runOnUiThread(() -> {
+        var old = watchers.remove(directoryUri);
+        if (old != null) {
+          old.stop();
+        }
+        watcher.start();
+        watchers.put(directoryUri, watcher);
+        call.resolve();
+      });
+    });
+
+  }
+
+  /**
+   * Stop watching the given directory
+   *
+   * @param call
+   *  call.directoryUri: URI of the watched directory
+   */
+  @PluginMethod()
+  public void unwatchDirectory(PluginCall call) {
+
+    var directoryUri = call.getString("directoryUri", "");
+    getActivity().runOnUiThread(() -> {
+      var watcher = watchers.remove(directoryUri);
+      if (watcher != null) {
+        watcher.stop();
+      }
+      call.resolve();
+    });
+
+  }
+
+  /**
+   * Enable/disable background indexing of the given directory: when new files appear in it,
+   * recordings are indexed in background (when device is idle) and saved to the recordings DB.
+   *
+   * @param call
+   *  call.directoryUri: URI of the recordings directory
+   *  call.supportedTypes: array of supported audio MIME types
+   *  call.filenamePattern: filename pattern used to extract metadata of recordings without a JSON metadata file (optional)
+   *  call.enabled: true to enable (default), false to disable
+   */
+  @PluginMethod()
+  public void setBackgroundIndexing(PluginCall call) {
+
+    if (!call.getBoolean("enabled", true)) {
+      RecordingsIndexWorker.cancel(getContext());
+      call.resolve();
+      return;
+    }
+
+    var directoryDF = getDirectoryDfFromCall(call);
+    if (directoryDF == null) return;
+
+    var supportedTypesArr = call.getArray("supportedTypes", null);
+    if (supportedTypesArr == null) {
+      call.reject("Invalid or missing supportedTypes", ERR_INVALID_CONTENT);
+      return;
+    }
+    var supportedTypes = new String[supportedTypesArr.length()];
+    for (int i = 0; i < supportedTypes.length; i++) {
+      supportedTypes[i] = supportedTypesArr.optString(i);
+    }
+
+    RecordingsIndexWorker.schedule(getContext(), call.getString("directoryUri"), supportedTypes, call.getString("filenamePattern", null));
+    call.resolve();
+
+  }
+
   /**
    * Return the last modified time of the given directory URI
    */
   @PluginMethod()
-  public void getLastModified(PluginCall call) {
+  public void getLastModified(PluginCall call) { metrics.timed(call, "getLastModified", this::getLastModified); }
+
+  private void getLastModified(PluginCall call, PluginMetrics.Span span) {
 
     // get directory param
     var DF = getDirectoryDfFromCall(call);
@@ -190,13 +560,18 @@ public class AndroidSAFPlugin extends Plugin {
   }
 
   /**
-   * Load and return file content
+   * Load and return file content (or a range of it)
    *
    * @param call
-   *  call.uri: URI of the file to read
+   *  call.fileUri: URI of the file to read
+   *  call.encoding: content encoding (optional, BASE64 if missing)
+   *  call.offset: offset of the first byte to read (optional, default 0)
+   *  call.length: number of bytes to read (optional, up to end of file if missing)
    */
   @PluginMethod()
-  public void readFile(PluginCall call) {
+  public void readFile(PluginCall call) { metrics.timed(call, "readFile", this::readFile); }
+
+  private void readFile(PluginCall call, PluginMetrics.Span span) {
 
     // Get a DocumentFile from the given "directory" and "filename" params
     var fileDF = getFileDfFromCall(call);
@@ -207,17 +582,19 @@ public class AndroidSAFPlugin extends Plugin {
     var encoding = call.getString("encoding", null);
     var charset = getEncoding(encoding);
 
+    // get range params
+    var offset = Math.max(0, call.getData().optLong("offset", 0));
+    var length = call.getInt("length", -1);
+
     // load file content
     String content;
-    try (
-      var is = getContext().getContentResolver().openInputStream(fileDF.getUri())
-    ) {
-      if (charset != null) {
-        assert is != null;
-        content = readFileAsString(is, charset.name());
-      } else {
-        content = readFileAsBase64EncodedData(is);
-      }
+    long fileSize;
+    try {
+      var range = span.phase("read", () -> readFileRange(fileDF.getUri(), offset, length));
+      content = span.phase("encode", () -> charset != null
+        ? new String(range.data, charset)
+        : Base64.encodeToString(range.data, Base64.NO_WRAP));
+      fileSize = range.fileSize;
     }
     catch (FileNotFoundException e) {
       call.reject(e.toString(), ERR_NOT_FOUND);
@@ -228,13 +605,202 @@ public class AndroidSAFPlugin extends Plugin {
     }
 
     // return file content
+    span.addBytes(content.length());
     var ret = new JSObject();
     ret.put("encoding", encoding);
     ret.put("content", content);
+    if (fileSize >= 0) {
+      ret.put("size", fileSize);
+    }
     call.resolve(ret);
 
   }
 
+  /**
+   * Read file content in chunks, sending each of them to JS as a "readFileChunk" event.
+   * Binary chunks are BASE64 encoded and can be concatenated (their size is a multiple of 3 bytes).
+   * The call is resolved when the whole file has been read.
+   *
+   * @param call
+   *  call.fileUri: URI of the file to read
+   *  call.encoding: content encoding (optional, BASE64 if missing)
+   *  call.chunkSize: size of each chunk, in bytes (or chars for text files) (optional)
+   */
+  @PluginMethod()
+  public void readFileChunks(PluginCall call) { metrics.timed(call, "readFileChunks", this::readFileChunks); }
+
+  private void readFileChunks(PluginCall call, PluginMetrics.Span span) {
+
+    var fileDF = getFileDfFromCall(call);
+    if (fileDF == null) return;
+
+    var fileUri = fileDF.getUri();
+    var encoding = call.getString("encoding", null);
+    var charset = getEncoding(encoding);
+    var chunkSize = Math.max(3, call.getInt("chunkSize", DEFAULT_CHUNK_SIZE));
+
+    long total;
+    try (
+      var is = getContext().getContentResolver().openInputStream(fileUri)
+    ) {
+      if (is == null) {
+        throw new FileNotFoundException(fileUri.toString());
+      }
+      total = charset != null
+        ? StreamUtils.readTextChunks(new InputStreamReader(is, charset), chunkSize, (offset, content) -> sendFileChunk(fileUri, encoding, offset, content))
+        : StreamUtils.readBase64Chunks(is, chunkSize, BASE64_ENCODER, (offset, content) -> sendFileChunk(fileUri, null, offset, content));
+    }
+    catch (FileNotFoundException e) {
+      call.reject(e.toString(), ERR_NOT_FOUND);
+      return;
+    } catch (IOException e) {
+      call.reject(e.toString(), ERR_IO_EXCEPTION);
+      return;
+    }
+
+    span.addBytes(total);
+    var ret = new JSObject();
+    ret.put("size", total);
+    call.resolve(ret);
+
+  }
+
+  private void sendFileChunk(Uri fileUri, @Nullable String encoding, long offset, String content) {
+    var data = new JSObject();
+    data.put("fileUri", fileUri.toString());
+    data.put("encoding", encoding);
+    data.put("offset", offset);
+    data.put("content", content);
+    notifyListeners("readFileChunk", data);
+  }
+
+  /**
+   * Read a batch of BCR JSON metadata files in parallel and return a JSON array
+   * with the extracted fields of each file (null items for unreadable files), in the same order of "uris".
+   * Only the fields used by the app are returned.
+   *
+   * @param call
+   *  call.uris: array of URIs of the metadata files to read
+   */
+  @PluginMethod()
+  public void readMetadataBatch(PluginCall call) { metrics.timed(call, "readMetadataBatch", this::readMetadataBatch); }
+
+  private void readMetadataBatch(PluginCall call, PluginMetrics.Span span) {
+
+    var urisArr = call.getArray("uris", null);
+    if (urisArr == null) {
+      call.reject("Invalid or missing uris", ERR_INVALID_URI);
+      return;
+    }
+
+    // read files in parallel
+    var tasks = new ArrayList<Callable<Metadata>>(urisArr.length());
+    for (int i = 0; i < urisArr.length(); i++) {
+      var uri = urisArr.optString(i, null);
+      tasks.add(() -> {
+        if (uri == null) return null;
+        try (
+          var is = getContext().getContentResolver().openInputStream(Uri.parse(uri))
+        ) {
+          return is != null ? MetadataReader.read(is) : null;
+        }
+        catch (Exception e) {
+          // missing or malformed file
+          return null;
+        }
+      });
+    }
+
+    // collect results
+    try (
+      var sw = new StringWriter();
+      var jw = new JsonWriter(sw);
+    ) {
+      var results = span.phase("read", () -> ioExecutor.invokeAll(tasks));
+      span.addRows(results.size());
+
+      jw.beginArray();
+      for (var f : results) {
+        var m = f.get();
+        if (m != null) {
+          MetadataReader.write(jw, m);
+        }
+        else {
+          jw.nullValue();
+        }
+      }
+      jw.endArray();
+      jw.close();
+
+      var ret = new JSObject();
+      var itemsJson = sw.toString();
+      span.addBytes(itemsJson.length());
+      ret.put("itemsJson", itemsJson);
+      call.resolve(ret);
+    }
+    catch (Exception e) {
+      call.reject("Error reading metadata files", ERR_IO_EXCEPTION, e);
+    }
+
+  }
+
+  /**
+   * Probe the durations of a batch of audio files in parallel and return a JSON array
+   * with the duration of each file in seconds (null items for unreadable files), in the same order of "uris".
+   * Durations are read from container headers when possible (WAV, FLAC, OGG) and are cached,
+   * so unchanged files are not probed again.
+   *
+   * @param call
+   *  call.uris: array of URIs of the audio files to probe
+   */
+  @PluginMethod()
+  public void probeDurations(PluginCall call) { metrics.timed(call, "probeDurations", this::probeDurations); }
+
+  private void probeDurations(PluginCall call, PluginMetrics.Span span) {
+
+    var urisArr = call.getArray("uris", null);
+    if (urisArr == null) {
+      call.reject("Invalid or missing uris", ERR_INVALID_URI);
+      return;
+    }
+
+    var uris = new ArrayList<String>(urisArr.length());
+    for (int i = 0; i < urisArr.length(); i++) {
+      uris.add(urisArr.optString(i, null));
+    }
+
+    // collect results
+    try (
+      var sw = new StringWriter();
+      var jw = new JsonWriter(sw);
+    ) {
+      var durations = span.phase("probe", () -> durationProber.probeAll(uris, ioExecutor));
+      span.addRows(durations.size());
+
+      jw.beginArray();
+      for (var durationMs : durations) {
+        if (durationMs != null) {
+          jw.value(durationMs / 1000.0);
+        }
+        else {
+          jw.nullValue();
+        }
+      }
+      jw.endArray();
+      jw.close();
+
+      var ret = new JSObject();
+      var itemsJson = sw.toString();
+      span.addBytes(itemsJson.length());
+      ret.put("itemsJson", itemsJson);
+      call.resolve(ret);
+    }
+    catch (Exception e) {
+      call.reject("Error probing durations", ERR_IO_EXCEPTION, e);
+    }
+
+  }
+
   /**
    * Create a new file and write content
    *
@@ -244,7 +810,9 @@ public class AndroidSAFPlugin extends Plugin {
    *
    */
   @PluginMethod()
-  public void createFile(PluginCall call) {
+  public void createFile(PluginCall call) { metrics.timed(call, "createFile", this::createFile); }
+
+  private void createFile(PluginCall call, PluginMetrics.Span span) {
 
     // get fileUri param
     var dirDF = getDirectoryDfFromCall(call);
@@ -268,6 +836,91 @@ public class AndroidSAFPlugin extends Plugin {
 
   }
 
+  /**
+   * Extract a clip of an audio file into a new file, without re-encoding
+   * (compressed samples are copied as they are, so even clips of long files are extracted in a few ms).
+   * The new file extension depends on the source codec (m4a, ogg, webm, 3gp or wav).
+   *
+   * @param call
+   *  call.fileUri: URI of the source audio file
+   *  call.startMs: clip start (ms)
+   *  call.endMs: clip end (ms)
+   *  call.directoryUri: URI of the directory that will contain the new file
+   *  call.name: name of the new file, without extension (optional, defaults to source name + clip range)
+   */
+  @PluginMethod()
+  public void extractClip(PluginCall call) { metrics.timed(call, "extractClip", this::extractClip); }
+
+  private void extractClip(PluginCall call, PluginMetrics.Span span) {
+
+    var srcDf = getFileDfFromCall(call);
+    if (srcDf == null) return;
+    var dirDf = getDirectoryDfFromCall(call);
+    if (dirDf == null) return;
+
+    var startMs = call.getLong("startMs");
+    var endMs = call.getLong("endMs");
+    if (startMs == null || endMs == null || startMs < 0 || endMs <= startMs) {
+      call.reject("Invalid clip range", ERR_INVALID_CONTENT);
+      return;
+    }
+
+    ClipExtractor.OutputFormat format;
+    try {
+      format = clipExtractor.getOutputFormat(srcDf.getUri());
+    }
+    catch (IOException e) {
+      call.reject("Error reading audio file", ERR_IO_EXCEPTION, e);
+      return;
+    }
+    if (format == null) {
+      call.reject("Unsupported audio format", ERR_INVALID_CONTENT);
+      return;
+    }
+
+    // create destination file
+    var name = call.getString("name", null);
+    if (name == null || name.isBlank()) {
+      name = getClipName(srcDf.getName(), startMs, endMs);
+    }
+    var filename = name + "." + format.extension;
+    var fileDF = dirDf.createFile(getMimeType(filename), filename);
+    if (fileDF == null) {
+      call.reject("Error creating file", ERR_IO_EXCEPTION);
+      return;
+    }
+
+    try {
+      long duration;
+      try (var ignored = span.phase("extract")) {
+        duration = clipExtractor.extract(srcDf.getUri(), format, startMs, endMs, fileDF.getUri());
+      }
+      var ret = new JSObject();
+      ret.put("fileUri", fileDF.getUri());
+      ret.put("duration", duration);
+      call.resolve(ret);
+    }
+    catch (Exception e) {
+      fileDF.delete();
+      call.reject("Error extracting clip", ERR_IO_EXCEPTION, e);
+    }
+
+  }
+
+  /**
+   * Build the default name of a clip: source name (without extension) + range, like "name_01m30s-02m00s"
+   */
+  private static String getClipName(@Nullable String srcName, long startMs, long endMs) {
+    var base = srcName != null ? srcName : "clip";
+    var dot = base.lastIndexOf('.');
+    if (dot > 0) {
+      base = base.substring(0, dot);
+    }
+    var start = startMs / 1000;
+    var end = endMs / 1000;
+    return String.format(Locale.ROOT, "%s_%02dm%02ds-%02dm%02ds", base, start / 60, start % 60, end / 60, end % 60);
+  }
+
   /**
    * Write content to an existing file or create a new file
    *
@@ -276,7 +929,9 @@ public class AndroidSAFPlugin extends Plugin {
    *
    */
   @PluginMethod()
-  public void writeFile(PluginCall call) {
+  public void writeFile(PluginCall call) { metrics.timed(call, "writeFile", this::writeFile); }
+
+  private void writeFile(PluginCall call, PluginMetrics.Span span) {
 
     var fileDF = getFileDfFromCall(call);
     if (fileDF == null) return;
@@ -327,11 +982,8 @@ public class AndroidSAFPlugin extends Plugin {
         }
       }
       else {
-        // remove header from dataURL
-        if (content.contains(",")) {
-          content = content.split(",")[1];
-        }
-        os.write(Base64.decode(content, Base64.NO_WRAP));
+        // (header of dataURL is skipped)
+        os.write(StreamUtils.decodeBase64(content, BASE64_DECODER));
       }
     }
   }
@@ -341,7 +993,9 @@ public class AndroidSAFPlugin extends Plugin {
    * No error is emitted in case file does not exist.
    */
   @PluginMethod()
-  public void deleteFile(PluginCall call) {
+  public void deleteFile(PluginCall call) { metrics.timed(call, "deleteFile", this::deleteFile); }
+
+  private void deleteFile(PluginCall call, PluginMetrics.Span span) {
 
     // get file from "fileUri" param
     var fileDF = getFileDfFromCall(call);
@@ -355,12 +1009,94 @@ public class AndroidSAFPlugin extends Plugin {
     }
   }
 
+  /**
+   * Delete a batch of files in parallel, sending a "deleteFilesProgress" event as each of them is deleted,
+   * and return a JSON array with the status of each file ("deleted", "notFound" or "error"),
+   * in the same order of "uris".
+   * Documents are deleted directly by their provider, without checking them with DocumentFile.
+   *
+   * @param call
+   *  call.uris: array of URIs of the files to delete
+   */
+  @PluginMethod()
+  public void deleteFiles(PluginCall call) { metrics.timed(call, "deleteFiles", this::deleteFiles); }
+
+  private void deleteFiles(PluginCall call, PluginMetrics.Span span) {
+
+    var urisArr = call.getArray("uris", null);
+    if (urisArr == null) {
+      call.reject("Invalid or missing uris", ERR_INVALID_URI);
+      return;
+    }
+    var total = urisArr.length();
+    span.addRows(total);
+
+    // delete files in parallel, notifying them as they complete
+    var statuses = new String[total];
+    var completion = new ExecutorCompletionService<Integer>(ioExecutor);
+    int deleted = 0;
+    try (var ignored = span.phase("delete")) {
+      for (int i = 0; i < total; i++) {
+        final var index = i;
+        final var uri = urisArr.optString(i, null);
+        completion.submit(() -> {
+          statuses[index] = deleteDocument(uri);
+          return index;
+        });
+      }
+      for (int done = 1; done <= total; done++) {
+        int index = completion.take().get();
+        if (statuses[index].equals(DELETE_STATUS_DELETED)) {
+          deleted++;
+        }
+        var data = new JSObject();
+        data.put("uri", urisArr.optString(index, null));
+        data.put("status", statuses[index]);
+        data.put("done", done);
+        data.put("total", total);
+        notifyListeners("deleteFilesProgress", data);
+      }
+    }
+    catch (Exception e) {
+      call.reject("Error deleting files", ERR_IO_EXCEPTION, e);
+      return;
+    }
+
+    var ret = new JSObject();
+    ret.put("itemsJson", new JSArray(Arrays.asList(statuses)).toString());
+    ret.put("deleted", deleted);
+    call.resolve(ret);
+
+  }
+
+  /**
+   * Delete the given document and return its deleteFiles() status
+   */
+  private String deleteDocument(@Nullable String uri) {
+    if (uri == null || uri.isBlank()) {
+      return DELETE_STATUS_ERROR;
+    }
+    try {
+      return DocumentsContract.deleteDocument(getContext().getContentResolver(), Uri.parse(uri))
+        ? DELETE_STATUS_DELETED
+        : DELETE_STATUS_ERROR;
+    }
+    catch (FileNotFoundException e) {
+      return DELETE_STATUS_NOT_FOUND;
+    }
+    catch (Exception e) {
+      return DELETE_STATUS_ERROR;
+    }
+  }
+
   /**
    * Get the URI of a single file searching it by DisplayName in the given directory.
    * Returns a null uri in case file is not available.
    */
   @PluginMethod()
-  public void getFileUri(PluginCall call) {
+  public void getFileUri(PluginCall call) { metrics.timed(call, "getFileUri", this::getFileUri); }
+
+  private void getFileUri(PluginCall call, PluginMetrics.Span span) {
 
     // get directory params
     var dirDf = getDirectoryDfFromCall(call);
@@ -420,59 +1156,182 @@ public class AndroidSAFPlugin extends Plugin {
     }
     return null;
   }
+  /**
+   * A page of directory content
+   */
+  private static class FilesPage {
+    // JSON serialized array of IDocumentFile items (or IDocumentColumns object)
+    String itemsJson;
+    // offset of the next page (-1 if this is the last one)
+    int nextOffset = -1;
+    // token of the Cursor kept open for the next page (null if this is the last one)
+    @Nullable String nextPageToken;
+  }
+
+  /**
+   * A Cursor kept open between listFiles() pages
+   */
+  private static class PagedListing {
+    final Cursor cursor;
+    final Uri directoryUri;
+    final long created = SystemClock.elapsedRealtime();
+
+    PagedListing(Cursor cursor, Uri directoryUri) {
+      this.cursor = cursor;
+      this.directoryUri = directoryUri;
+    }
+  }
+
   /**
    * More efficient method to retrieve directory content, avoiding calls to
    * slow DocumentFile methods like .getDisplayName()
    *
+   * When a limit is given, the Cursor is kept open to serve the next pages without querying the provider again
+   * (rows are windowed by the Cursor itself, so memory usage only depends on page size).
+   * It's kept under a page token (returned with the page) until the next page is requested, closeListing() is called
+   * or PAGED_LISTING_TIMEOUT_MS elapses.
+   *
    * @see "https://stackoverflow.com/questions/42186820/why-is-documentfile-so-slow-and-what-should-i-use-instead"
    *
    * @param directoryUri URI of the directory to be searched
+   * @param offset index of the first item to return
+   * @param limit max number of items to return (0 means no limit)
+   * @param columns true to serialize items as parallel column arrays (see ListingWriter.writeColumns())
+   * @param pageToken token of the Cursor kept open by the previous page (if any)
+   * @param span metrics of the calling method (query and serialization phases, rows)
    *
-   * @return JSArray of JSObject items, ready to be returned to JS
+   * @return page of JSON serialized items, ready to be returned to JS
    */
   @Nullable
-  private String listFileFaster(Uri directoryUri) {
-
-    final var childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(directoryUri, DocumentsContract.getDocumentId(directoryUri));
+  private FilesPage listFileFaster(Uri directoryUri, int offset, int limit, boolean columns, @Nullable String pageToken, PluginMetrics.Span span) {
 
-    // load all of the needed data in a single shot
-    try (
-      Cursor c = getContext().getContentResolver().query(childrenUri, new String[] {
-        DocumentsContract.Document.COLUMN_DOCUMENT_ID,    // 0
-        DocumentsContract.Document.COLUMN_DISPLAY_NAME,   // 1
-        DocumentsContract.Document.COLUMN_MIME_TYPE,      // 2
-        DocumentsContract.Document.COLUMN_FLAGS,          // 3
-        DocumentsContract.Document.COLUMN_SIZE,           // 4
-        DocumentsContract.Document.COLUMN_LAST_MODIFIED,  // 5
-      }, null, null, null);
-      var sw = new StringWriter();
-      var jw = new JsonWriter(sw);
-    ) {
+    Cursor c = null;
+    try {
+      c = span.phase("query", () -> getListingCursor(directoryUri, offset, pageToken));
       if (c == null) return null;
 
-      final var recordCount = c.getCount();
-      // to avoid multiple resizes, pre-allocate space assuming 600 bytes x /record
-      sw.getBuffer().ensureCapacity(recordCount * 600);
-
-      jw.beginArray();
-      while (c.moveToNext()) {
-        final var mimeType = c.getString(2);
-        jw.beginObject();
-        jw.name("displayName").value(c.getString(1));  // displayName
-        jw.name("uri").value(DocumentsContract.buildDocumentUriUsingTree(directoryUri, c.getString(0)).toString());  // file URI
-        jw.name("type").value(mimeType);               // mime type
-        jw.name("isDirectory").value(mimeType == DocumentsContract.Document.MIME_TYPE_DIR);  // true if it's a sub-directory
-        jw.name("size").value(c.getLong(4));           // size
-        jw.name("lastModified").value(c.getLong(5));   // last modified timestamp
-        jw.endObject();
+      final var pageCount = Math.max(0, limit > 0 ? Math.min(limit, c.getCount() - offset) : c.getCount() - offset);
+      // to avoid multiple resizes, pre-allocate space
+      var sb = new StringBuilder(pageCount * (columns ? ListingWriter.COLUMNS_ITEM_SIZE_HINT : ListingWriter.ITEM_SIZE_HINT));
+
+      final var cursor = c;
+      var rows = new ListingWriter.Rows() {
+        @Override public boolean moveToNext() { return cursor.moveToNext(); }
+        @Override public String getString(int column) { return cursor.getString(column); }
+        @Override public long getLong(int column) { return cursor.getLong(column); }
+      };
+      int written;
+      try (var ignored = span.phase("serialize")) {
+        if (columns) {
+          // (document URIs only differ by their last, encoded, path segment)
+          var uri = DocumentsContract.buildDocumentUriUsingTree(directoryUri, "_").toString();
+          written = ListingWriter.writeColumns(rows, uri.substring(0, uri.length() - 1), Uri::encode, limit, sb);
+        }
+        else {
+          written = ListingWriter.write(
+            rows,
+            documentId -> DocumentsContract.buildDocumentUriUsingTree(directoryUri, documentId).toString(),
+            limit,
+            sb
+          );
+        }
       }
-      jw.endArray();
-      jw.close();
-      return sw.toString();
+      span.addRows(written);
+
+      var res = new FilesPage();
+      res.itemsJson = sb.toString();
+      if (!c.isLast() && !c.isAfterLast() && c.getCount() > 0) {
+        // keep cursor open for the next page
+        res.nextOffset = offset + written;
+        res.nextPageToken = keepListing(c, directoryUri);
+        c = null;
+      }
+      return res;
     }
     catch (Exception ignored) {
       return null;
     }
+    finally {
+      if (c != null) {
+        c.close();
+      }
+    }
+  }
+
+  /**
+   * Keep the given Cursor open for the next page and return its page token
+   */
+  private String keepListing(Cursor c, Uri directoryUri) {
+
+    String pageToken;
+    synchronized (pagedListings) {
+      pageToken = Integer.toString(++lastPageToken);
+      pagedListings.put(pageToken, new PagedListing(c, directoryUri));
+    }
+    pagedListingsHandler.postDelayed(this::closeExpiredListings, PAGED_LISTING_TIMEOUT_MS);
+    return pageToken;
+
+  }
+
+  /**
+   * Close the Cursors whose next page has not been requested in time (paging abandoned)
+   */
+  private void closeExpiredListings() {
+
+    var now = SystemClock.elapsedRealtime();
+    synchronized (pagedListings) {
+      var it = pagedListings.values().iterator();
+      while (it.hasNext()) {
+        var l = it.next();
+        if (now - l.created >= PAGED_LISTING_TIMEOUT_MS) {
+          l.cursor.close();
+          it.remove();
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Return a Cursor on the given directory content, positioned before the item at the given offset.
+   * If the previous page of the same directory left an open Cursor (with the given page token), it's reused.
+   */
+  @Nullable
+  private Cursor getListingCursor(Uri directoryUri, int offset, @Nullable String pageToken) {
+
+    // reuse the Cursor kept open by the previous page (if any)
+    if (pageToken != null) {
+      PagedListing listing;
+      synchronized (pagedListings) {
+        listing = pagedListings.remove(pageToken);
+      }
+      if (listing != null) {
+        var c = listing.cursor;
+        if (offset > 0 && directoryUri.equals(listing.directoryUri) && !c.isClosed() && c.moveToPosition(offset - 1)) {
+          return c;
+        }
+        c.close();
+      }
+    }
+
+    final var childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(directoryUri, DocumentsContract.getDocumentId(directoryUri));
+
+    // load all of the needed data in a single shot
+    // (columns order matches ListingWriter.COL_*)
+    var c = getContext().getContentResolver().query(childrenUri, new String[] {
+      DocumentsContract.Document.COLUMN_DOCUMENT_ID,    // 0
+      DocumentsContract.Document.COLUMN_DISPLAY_NAME,   // 1
+      DocumentsContract.Document.COLUMN_MIME_TYPE,      // 2
+      DocumentsContract.Document.COLUMN_FLAGS,          // 3
+      DocumentsContract.Document.COLUMN_SIZE,           // 4
+      DocumentsContract.Document.COLUMN_LAST_MODIFIED,  // 5
+    }, null, null, null);
+    if (c != null && offset > 0 && !c.moveToPosition(offset - 1)) {
+      // offset is beyond the last item: move after it
+      c.moveToLast();
+      c.moveToNext();
+    }
+    return c;
   }
 
   /****************************************************************************
@@ -491,33 +1350,49 @@ public class AndroidSAFPlugin extends Plugin {
   }
 
   /**
-   * Utility function to read file content as string (with the given encoding)
+   * A range of file content
    */
-  private String readFileAsString(InputStream is, String encoding) throws IOException {
-    var outputStream = new ByteArrayOutputStream();
-    byte[] buffer = new byte[1024];
-    int length = 0;
-
-    while ((length = is.read(buffer)) != -1) {
-      outputStream.write(buffer, 0, length);
-    }
-    return outputStream.toString(encoding);
+  private static class FileRange {
+    byte[] data;
+    // total file size (-1 if unknown)
+    long fileSize = -1;
   }
 
   /**
-   * Utility function to read file content as BASE64 string
+   * Utility function to read a range of file content.
+   * Seekable files are read with positional reads on their FileChannel, directly into a buffer of the needed size;
+   * other ones (like pipes) are read sequentially.
+   *
+   * @param length number of bytes to read (-1 to read up to end of file)
    */
-  private String readFileAsBase64EncodedData(InputStream is) throws IOException {
-    var fileInputStreamReader = (FileInputStream) is;
-    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-    byte[] buffer = new byte[1024];
-    int c;
+  private FileRange readFileRange(Uri uri, long offset, int length) throws IOException {
+
+    var pfd = getContext().getContentResolver().openFileDescriptor(uri, "r");
+    if (pfd == null) {
+      throw new FileNotFoundException(uri.toString());
+    }
 
-    while ((c = fileInputStreamReader.read(buffer)) != -1) {
-      byteStream.write(buffer, 0, c);
+    try (
+      pfd;
+      var fis = new FileInputStream(pfd.getFileDescriptor());
+    ) {
+      var res = new FileRange();
+      res.fileSize = pfd.getStatSize();
+      if (res.fileSize >= 0) {
+        var available = Math.max(0, res.fileSize - offset);
+        var toRead = (int) Math.min(length < 0 ? available : Math.min(length, available), MAX_READ_SIZE);
+        var buffer = ByteBuffer.allocate(toRead);
+        var channel = fis.getChannel();
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) ;
+        res.data = buffer.position() == toRead ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+      }
+      else {
+        StreamUtils.skipFully(fis, offset);
+        res.data = StreamUtils.readBytes(fis, length);
+      }
+      return res;
     }
-    fileInputStreamReader.close();
-    return Base64.encodeToString(byteStream.toByteArray(), Base64.NO_WRAP);
+
   }
 
   /**
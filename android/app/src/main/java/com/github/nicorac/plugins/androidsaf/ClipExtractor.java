@@ -0,0 +1,306 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lossless extraction of audio clips.
+ *
+ * Compressed samples of the clip range are copied as they are (MediaExtractor + MediaMuxer), without
+ * decoding or re-encoding, so only a single sample buffer is kept in memory. WAV clips are a plain copy
+ * of the PCM data range. Clips start at the sync sample preceding the requested start
+ * (that is the requested start for most audio codecs, where every sample is a sync one).
+ */
+class ClipExtractor {
+
+  // muxer format of WAV clips (copied without MediaMuxer)
+  private static final int FORMAT_WAV = -1;
+
+  private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+  /**
+   * Output container of a clip
+   */
+  static class OutputFormat {
+    // MediaMuxer output format
+    final int muxerFormat;
+    final String extension;
+
+    OutputFormat(int muxerFormat, String extension) {
+      this.muxerFormat = muxerFormat;
+      this.extension = extension;
+    }
+  }
+
+  private final Context context;
+
+  ClipExtractor(Context context) {
+    this.context = context.getApplicationContext();
+  }
+
+  /**
+   * Return the clips output format of the given audio file (null if its codec can't be remuxed)
+   */
+  @Nullable
+  OutputFormat getOutputFormat(Uri uri) throws IOException {
+
+    var extractor = new MediaExtractor();
+    try {
+      extractor.setDataSource(context, uri, null);
+      var track = selectAudioTrack(extractor);
+      if (track < 0) {
+        return null;
+      }
+      var mime = extractor.getTrackFormat(track).getString(MediaFormat.KEY_MIME);
+      switch (mime != null ? mime : "") {
+        case MediaFormat.MIMETYPE_AUDIO_AAC:
+          return new OutputFormat(MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4, "m4a");
+        case MediaFormat.MIMETYPE_AUDIO_OPUS:
+          return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+            ? new OutputFormat(MediaMuxer.OutputFormat.MUXER_OUTPUT_OGG, "ogg")
+            : new OutputFormat(MediaMuxer.OutputFormat.MUXER_OUTPUT_WEBM, "webm");
+        case MediaFormat.MIMETYPE_AUDIO_VORBIS:
+          return new OutputFormat(MediaMuxer.OutputFormat.MUXER_OUTPUT_WEBM, "webm");
+        case MediaFormat.MIMETYPE_AUDIO_AMR_NB:
+        case MediaFormat.MIMETYPE_AUDIO_AMR_WB:
+          return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+            ? new OutputFormat(MediaMuxer.OutputFormat.MUXER_OUTPUT_3GPP, "3gp")
+            : null;
+        case MediaFormat.MIMETYPE_AUDIO_RAW:
+          return new OutputFormat(FORMAT_WAV, "wav");
+        default:
+          // (like FLAC, not supported by MediaMuxer)
+          return null;
+      }
+    }
+    finally {
+      extractor.release();
+    }
+
+  }
+
+  /**
+   * Extract the given range of an audio file into an existing (empty) document
+   *
+   * @return duration of the extracted clip (ms)
+   */
+  long extract(Uri srcUri, OutputFormat format, long startMs, long endMs, Uri destUri) throws IOException {
+    return format.muxerFormat == FORMAT_WAV
+      ? copyWav(srcUri, startMs, endMs, destUri)
+      : remux(srcUri, format, startMs, endMs, destUri);
+  }
+
+  /**
+   * Copy the compressed samples of the given range into a new container
+   */
+  private long remux(Uri srcUri, OutputFormat format, long startMs, long endMs, Uri destUri) throws IOException {
+
+    // MediaMuxer writes to file descriptors since Android 8, before that a temporary file is needed
+    File tmpFile = null;
+    var destPfd = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+      ? context.getContentResolver().openFileDescriptor(destUri, "rw")
+      : null;
+
+    var extractor = new MediaExtractor();
+    MediaMuxer muxer = null;
+    try {
+      if (destPfd != null) {
+        muxer = new MediaMuxer(destPfd.getFileDescriptor(), format.muxerFormat);
+      }
+      else {
+        tmpFile = File.createTempFile("clip", "." + format.extension, context.getCacheDir());
+        muxer = new MediaMuxer(tmpFile.getPath(), format.muxerFormat);
+      }
+
+      extractor.setDataSource(context, srcUri, null);
+      var track = selectAudioTrack(extractor);
+      if (track < 0) {
+        throw new IOException("No audio track found in " + srcUri);
+      }
+      var trackFormat = extractor.getTrackFormat(track);
+      var outTrack = muxer.addTrack(trackFormat);
+      muxer.start();
+
+      // copy samples (timestamps are shifted to clip start)
+      var endUs = endMs * 1000;
+      extractor.seekTo(startMs * 1000, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+      var buffer = ByteBuffer.allocate(trackFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+        ? trackFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+        : DEFAULT_BUFFER_SIZE
+      );
+      var info = new MediaCodec.BufferInfo();
+      long firstUs = -1;
+      long lastUs = 0;
+      long sampleTime;
+      while ((sampleTime = extractor.getSampleTime()) >= 0 && sampleTime < endUs) {
+        var size = extractor.readSampleData(buffer, 0);
+        if (size < 0) break;
+        if (firstUs < 0) {
+          firstUs = sampleTime;
+        }
+        var flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+        info.set(0, size, sampleTime - firstUs, flags);
+        muxer.writeSampleData(outTrack, buffer, info);
+        lastUs = sampleTime;
+        extractor.advance();
+      }
+      if (firstUs < 0) {
+        throw new IOException("No audio in the clip range");
+      }
+      muxer.stop();
+      muxer.release();
+      muxer = null;
+
+      // copy temporary file to destination
+      if (tmpFile != null) {
+        try (
+          var is = new FileInputStream(tmpFile);
+          var os = context.getContentResolver().openOutputStream(destUri, "wt");
+        ) {
+          if (os == null) {
+            throw new IOException("Can't write to " + destUri);
+          }
+          var buf = new byte[DEFAULT_BUFFER_SIZE];
+          int n;
+          while ((n = is.read(buf)) > 0) {
+            os.write(buf, 0, n);
+          }
+        }
+      }
+
+      return (lastUs - firstUs) / 1000;
+    }
+    catch (IllegalStateException | IllegalArgumentException e) {
+      // MediaMuxer errors
+      throw new IOException("Error extracting clip from " + srcUri, e);
+    }
+    finally {
+      if (muxer != null) {
+        muxer.release();
+      }
+      extractor.release();
+      if (destPfd != null) {
+        destPfd.close();
+      }
+      if (tmpFile != null) {
+        //noinspection ResultOfMethodCallIgnored
+        tmpFile.delete();
+      }
+    }
+
+  }
+
+  /**
+   * Copy the PCM data of the given range into a new WAV file (with the same format chunk)
+   */
+  private long copyWav(Uri srcUri, long startMs, long endMs, Uri destUri) throws IOException {
+
+    var srcPfd = context.getContentResolver().openFileDescriptor(srcUri, "r");
+    var destPfd = context.getContentResolver().openFileDescriptor(destUri, "w");
+    if (srcPfd == null || destPfd == null) {
+      throw new IOException("Can't open " + (srcPfd == null ? srcUri : destUri));
+    }
+
+    try (
+      srcPfd;
+      destPfd;
+      var fis = new FileInputStream(srcPfd.getFileDescriptor());
+      var in = fis.getChannel();
+      var fos = new FileOutputStream(destPfd.getFileDescriptor());
+      var out = fos.getChannel();
+    ) {
+      // search format and data chunks
+      ByteBuffer fmt = null;
+      long pos = 12;
+      var size = in.size();
+      while (pos + 8 <= size) {
+        var header = DurationProber.read(in, pos, 8);
+        if (header.remaining() < 8) break;
+        var chunkSize = header.getInt(4) & 0xFFFFFFFFL;
+        if (DurationProber.tagAt(header, 0, "fmt ") && chunkSize >= 16) {
+          fmt = DurationProber.read(in, pos, (int) (8 + chunkSize));
+        }
+        else if (DurationProber.tagAt(header, 0, "data") && fmt != null) {
+          // fmt fields: format (2), channels (2), sample rate (4), byte rate (4), block align (2), ...
+          var byteRate = fmt.getInt(8 + 8) & 0xFFFFFFFFL;
+          var blockAlign = Math.max(1, fmt.getShort(8 + 12) & 0xFFFF);
+          // (streamed files could have a missing data size)
+          var dataSize = chunkSize == 0 || chunkSize == 0xFFFFFFFFL || pos + 8 + chunkSize > size
+            ? size - pos - 8
+            : chunkSize;
+
+          // clip range, aligned to sample frames
+          var start = Math.min(dataSize, startMs * byteRate / 1000) / blockAlign * blockAlign;
+          var end = Math.min(dataSize, endMs * byteRate / 1000) / blockAlign * blockAlign;
+          if (byteRate == 0 || end <= start) {
+            throw new IOException("No audio in the clip range");
+          }
+
+          // write header and data
+          var clipSize = end - start;
+          var riff = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+          riff.put("RIFF".getBytes()).putInt((int) (4 + fmt.remaining() + 8 + clipSize)).put("WAVE".getBytes()).flip();
+          var data = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+          data.put("data".getBytes()).putInt((int) clipSize).flip();
+          writeFully(out, riff);
+          writeFully(out, fmt);
+          writeFully(out, data);
+          transferFully(in, pos + 8 + start, clipSize, out);
+
+          return clipSize * 1000 / byteRate;
+        }
+        // chunks are word aligned
+        pos += 8 + chunkSize + (chunkSize & 1);
+      }
+      throw new IOException("Invalid WAV file " + srcUri);
+    }
+
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+    while (count > 0) {
+      var n = in.transferTo(position, count, out);
+      if (n <= 0) {
+        throw new IOException("Unexpected end of file");
+      }
+      position += n;
+      count -= n;
+    }
+  }
+
+  /**
+   * Select the first audio track and return its index (-1 if missing)
+   */
+  private static int selectAudioTrack(MediaExtractor extractor) {
+    for (int i = 0; i < extractor.getTrackCount(); i++) {
+      var mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith("audio/")) {
+        extractor.selectTrack(i);
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
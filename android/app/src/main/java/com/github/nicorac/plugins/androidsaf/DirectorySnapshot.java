@@ -0,0 +1,179 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Snapshot of the recordings (audio files + optional JSON metadata files) found in a directory
+ * during the last scan, used to compute the delta returned by AndroidSAFPlugin.scanRecordings().
+ *
+ * Each snapshot is persisted to app storage, so deltas survive app restarts.
+ */
+class DirectorySnapshot {
+
+  private static final int FILE_VERSION = 1;
+
+  // URI of the scanned directory
+  final String directoryUri;
+
+  // generation token of this snapshot (changes each time content changes)
+  long generation = 0;
+
+  // recordings collection, keyed by audio file document ID
+  HashMap<String, RecordingEntry> entries = new HashMap<>();
+
+  DirectorySnapshot(String directoryUri) {
+    this.directoryUri = directoryUri;
+  }
+
+  /**
+   * Single file data, as returned by DocumentsProvider
+   */
+  static class FileEntry {
+
+    final String documentId;
+    final String displayName;
+    final String mimeType;
+    final long size;
+    final long lastModified;
+
+    FileEntry(String documentId, String displayName, String mimeType, long size, long lastModified) {
+      this.documentId = documentId;
+      this.displayName = displayName != null ? displayName : "";
+      this.mimeType = mimeType != null ? mimeType : "";
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    boolean sameAs(@Nullable FileEntry o) {
+      return o != null
+        && size == o.size
+        && lastModified == o.lastModified
+        && documentId.equals(o.documentId)
+        && displayName.equals(o.displayName)
+        && mimeType.equals(o.mimeType);
+    }
+
+  }
+
+  /**
+   * A recording: audio file paired with its (optional) JSON metadata file
+   */
+  static class RecordingEntry {
+
+    final FileEntry audio;
+    @Nullable final FileEntry metadata;
+
+    // true if the metadata file was added, changed or removed since the previous scan (set by RecordingsScanner)
+    boolean metadataChanged = false;
+
+    RecordingEntry(FileEntry audio, @Nullable FileEntry metadata) {
+      this.audio = audio;
+      this.metadata = metadata;
+    }
+
+    boolean sameAs(RecordingEntry o) {
+      return audio.sameAs(o.audio) && sameMetadataAs(o);
+    }
+
+    boolean sameMetadataAs(RecordingEntry o) {
+      return metadata == null ? o.metadata == null : metadata.sameAs(o.metadata);
+    }
+
+  }
+
+  /**
+   * Load a snapshot from the given file.
+   * Returns an empty snapshot if file is missing, unreadable or belongs to another directory.
+   */
+  static DirectorySnapshot load(File file, String directoryUri) {
+
+    var res = new DirectorySnapshot(directoryUri);
+    if (!file.exists()) {
+      return res;
+    }
+
+    try (
+      var is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    ) {
+      if (is.readInt() != FILE_VERSION || !directoryUri.equals(is.readUTF())) {
+        return res;
+      }
+      var generation = is.readLong();
+      var count = is.readInt();
+      var entries = new HashMap<String, RecordingEntry>(count * 2);
+      for (int i = 0; i < count; i++) {
+        var audio = readFileEntry(is);
+        var metadata = is.readBoolean() ? readFileEntry(is) : null;
+        entries.put(audio.documentId, new RecordingEntry(audio, metadata));
+      }
+      res.generation = generation;
+      res.entries = entries;
+    }
+    catch (IOException ignored) {
+      // corrupted snapshot, start from scratch
+    }
+    return res;
+
+  }
+
+  /**
+   * Save the snapshot to the given file.
+   * Content is written to a temp file first, then renamed, so a crash never leaves a partial snapshot.
+   */
+  void save(File file) throws IOException {
+
+    var dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Can't create directory " + dir);
+    }
+
+    var tmpFile = new File(file.getPath() + ".tmp");
+    try (
+      var os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    ) {
+      os.writeInt(FILE_VERSION);
+      os.writeUTF(directoryUri);
+      os.writeLong(generation);
+      os.writeInt(entries.size());
+      for (var e : entries.values()) {
+        writeFileEntry(os, e.audio);
+        os.writeBoolean(e.metadata != null);
+        if (e.metadata != null) {
+          writeFileEntry(os, e.metadata);
+        }
+      }
+    }
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("Can't rename " + tmpFile + " to " + file);
+    }
+
+  }
+
+  private static FileEntry readFileEntry(DataInputStream is) throws IOException {
+    var documentId = is.readUTF();
+    var displayName = is.readUTF();
+    var mimeType = is.readUTF();
+    var size = is.readLong();
+    var lastModified = is.readLong();
+    return new FileEntry(documentId, displayName, mimeType, size, lastModified);
+  }
+
+  private static void writeFileEntry(DataOutputStream os, FileEntry e) throws IOException {
+    os.writeUTF(e.documentId);
+    os.writeUTF(e.displayName);
+    os.writeUTF(e.mimeType);
+    os.writeLong(e.size);
+    os.writeLong(e.lastModified);
+  }
+
+}
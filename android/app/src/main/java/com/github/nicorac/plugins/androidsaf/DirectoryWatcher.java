@@ -0,0 +1,130 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Watcher of the children of a SAF directory.
+ *
+ * Change notifications are coalesced, so a burst of changes (like a recording and its metadata file
+ * being written) is reported with a single callback.
+ * Changed documents are not reported, because most providers (like ExternalStorageProvider) only notify
+ * the children URI: the listener is expected to rescan the directory (an incremental scan is cheap).
+ * A cursor over the directory children is kept open while watching, because some providers
+ * (like ExternalStorageProvider) only monitor a directory while there are open cursors on it.
+ */
+class DirectoryWatcher {
+
+  interface Listener {
+    /**
+     * Called (on the main thread) when the watched directory content changes
+     */
+    void onDirectoryChanged(Uri directoryUri);
+  }
+
+  // notifications received within this delay are reported together
+  private static final long COALESCE_DELAY_MS = 500;
+
+  private final Context context;
+  private final Uri directoryUri;
+  private final Uri childrenUri;
+  private final Listener listener;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+
+  // true if there are pending (not yet reported) changes
+  private boolean pending;
+
+  @Nullable private Cursor cursor;
+
+  private final ContentObserver observer = new ContentObserver(handler) {
+    @Override
+    public boolean deliverSelfNotifications() {
+      return true;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+      addChange();
+    }
+  };
+
+  DirectoryWatcher(Context context, Uri directoryUri, Listener listener) {
+    this.context = context.getApplicationContext();
+    this.directoryUri = directoryUri;
+    this.childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(directoryUri, DocumentsContract.getDocumentId(directoryUri));
+    this.listener = listener;
+  }
+
+  /**
+   * Open the cursor over the directory children
+   * (it may take a while on large directories, so call it on a background thread)
+   */
+  void open() throws IOException {
+
+    cursor = context.getContentResolver().query(childrenUri, new String[] {
+      DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+    }, null, null, null);
+    if (cursor == null) {
+      throw new IOException("Can't query directory " + directoryUri);
+    }
+
+  }
+
+  /**
+   * Start watching (call it on the main thread, after open())
+   */
+  void start() {
+
+    if (cursor != null) {
+      cursor.registerContentObserver(observer);
+    }
+    context.getContentResolver().registerContentObserver(childrenUri, true, observer);
+
+  }
+
+  /**
+   * Stop watching (pending changes are discarded)
+   */
+  void stop() {
+
+    context.getContentResolver().unregisterContentObserver(observer);
+    if (cursor != null) {
+      cursor.unregisterContentObserver(observer);
+      cursor.close();
+      cursor = null;
+    }
+    handler.removeCallbacksAndMessages(null);
+    pending = false;
+
+  }
+
+  /**
+   * Add a change notification (called on the main thread)
+   */
+  private void addChange() {
+
+    // schedule report
+    if (!pending) {
+      pending = true;
+      handler.postDelayed(this::report, COALESCE_DELAY_MS);
+    }
+
+  }
+
+  private void report() {
+
+    pending = false;
+    listener.onDirectoryChanged(directoryUri);
+
+  }
+
+}
@@ -0,0 +1,293 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Duration probing of audio files.
+ *
+ * WAV, FLAC and OGG (Opus/Vorbis) durations are read from container headers (and the last OGG page),
+ * other formats (like M4A, AMR, MP3) are probed with MediaMetadataRetriever.
+ * Results are cached by document ID, size and last modification time, so unchanged files
+ * are never probed twice.
+ */
+class DurationProber {
+
+  // max number of cached durations
+  private static final int CACHE_SIZE = 10_000;
+
+  // size of the file tail searched for the last OGG page
+  private static final int OGG_TAIL_SIZE = 64 * 1024;
+
+  private static final int OPUS_SAMPLE_RATE = 48_000;
+
+  // cached durations (in ms), keyed by "documentId|size|lastModified"
+  private static final LinkedHashMap<String, Long> cache = new LinkedHashMap<>(256, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  private final Context context;
+
+  DurationProber(Context context) {
+    this.context = context.getApplicationContext();
+  }
+
+  /**
+   * Probe the durations of the given files in parallel, splitting the work among the executor threads
+   *
+   * @return durations in ms, in the same order of "uris" (null items for unreadable files)
+   */
+  List<Long> probeAll(List<String> uris, ExecutorService executor) throws InterruptedException, ExecutionException {
+
+    var tasks = new ArrayList<Callable<Long>>(uris.size());
+    for (var uri : uris) {
+      tasks.add(() -> uri != null ? probe(Uri.parse(uri)) : null);
+    }
+
+    var res = new ArrayList<Long>(uris.size());
+    for (var f : executor.invokeAll(tasks)) {
+      res.add(f.get());
+    }
+    return res;
+
+  }
+
+  /**
+   * Return the duration of the given file in ms (null if it can't be read)
+   */
+  @Nullable
+  Long probe(Uri uri) {
+
+    var key = getCacheKey(uri);
+    if (key != null) {
+      synchronized (cache) {
+        var cached = cache.get(key);
+        if (cached != null) return cached;
+      }
+    }
+
+    Long res = null;
+    try {
+      res = probeHeaders(uri);
+    }
+    catch (Exception ignored) { }
+    if (res == null) {
+      res = probeRetriever(uri);
+    }
+
+    if (res != null && key != null) {
+      synchronized (cache) {
+        cache.put(key, res);
+      }
+    }
+    return res;
+
+  }
+
+  /**
+   * Build cache key of the given document (null if the document can't be queried)
+   */
+  @Nullable
+  private String getCacheKey(Uri uri) {
+    try (
+      Cursor c = context.getContentResolver().query(uri, new String[] {
+        DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+        DocumentsContract.Document.COLUMN_SIZE,
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+      }, null, null, null);
+    ) {
+      if (c == null || !c.moveToFirst()) {
+        return null;
+      }
+      return c.getString(0) + "|" + c.getLong(1) + "|" + c.getLong(2);
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Read duration from container headers (null if the format is not supported)
+   */
+  @Nullable
+  private Long probeHeaders(Uri uri) throws IOException {
+
+    var pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+    if (pfd == null) {
+      return null;
+    }
+
+    try (
+      pfd;
+      var fis = new FileInputStream(pfd.getFileDescriptor());
+      var channel = fis.getChannel();
+    ) {
+      var head = read(channel, 0, 64);
+      if (startsWith(head, "RIFF") && head.remaining() >= 12 && tagAt(head, 8, "WAVE")) {
+        return probeWav(channel);
+      }
+      if (startsWith(head, "fLaC")) {
+        return probeFlac(head);
+      }
+      if (startsWith(head, "OggS")) {
+        return probeOgg(channel, head);
+      }
+      return null;
+    }
+
+  }
+
+  /**
+   * WAV duration: data chunk size / byte rate
+   */
+  @Nullable
+  private static Long probeWav(FileChannel channel) throws IOException {
+
+    long byteRate = 0;
+    long pos = 12;
+    var size = channel.size();
+    while (pos + 8 <= size) {
+      var header = read(channel, pos, 20);
+      if (header.remaining() < 8) break;
+      var chunkSize = header.getInt(4) & 0xFFFFFFFFL;
+      if (tagAt(header, 0, "fmt ") && header.remaining() >= 20) {
+        // fmt fields: format (2), channels (2), sample rate (4), byte rate (4), ...
+        byteRate = header.getInt(8 + 8) & 0xFFFFFFFFL;
+      }
+      else if (tagAt(header, 0, "data")) {
+        // (streamed files could have a missing data size)
+        var dataSize = chunkSize == 0 || chunkSize == 0xFFFFFFFFL || pos + 8 + chunkSize > size
+          ? size - pos - 8
+          : chunkSize;
+        return byteRate > 0 ? dataSize * 1000 / byteRate : null;
+      }
+      // chunks are word aligned
+      pos += 8 + chunkSize + (chunkSize & 1);
+    }
+    return null;
+
+  }
+
+  /**
+   * FLAC duration: total samples / sample rate (from STREAMINFO block)
+   */
+  @Nullable
+  private static Long probeFlac(ByteBuffer head) {
+
+    // STREAMINFO is always the first metadata block
+    if (head.remaining() < 8 + 18 || (head.get(4) & 0x7F) != 0) {
+      return null;
+    }
+    // bits: sample rate (20), channels (3), bits per sample (5), total samples (36)
+    var bits = head.order(ByteOrder.BIG_ENDIAN).getLong(8 + 10);
+    var sampleRate = bits >>> 44;
+    var totalSamples = bits & 0xFFFFFFFFFL;
+    return sampleRate > 0 && totalSamples > 0 ? totalSamples * 1000 / sampleRate : null;
+
+  }
+
+  /**
+   * OGG duration: granule position of the last page / sample rate
+   */
+  @Nullable
+  private static Long probeOgg(FileChannel channel, ByteBuffer head) throws IOException {
+
+    // first packet (after the page segments table) identifies the codec
+    if (head.remaining() < 28) return null;
+    var packetStart = 27 + (head.get(26) & 0xFF);
+    long sampleRate;
+    long preSkip = 0;
+    if (head.remaining() >= packetStart + 12 && tagAt(head, packetStart, "Opus") && tagAt(head, packetStart + 4, "Head")) {
+      sampleRate = OPUS_SAMPLE_RATE;
+      preSkip = head.getShort(packetStart + 10) & 0xFFFF;
+    }
+    else if (head.remaining() >= packetStart + 16 && head.get(packetStart) == 1 && tagAt(head, packetStart + 1, "vorb")) {
+      sampleRate = head.getInt(packetStart + 12) & 0xFFFFFFFFL;
+    }
+    else {
+      return null;
+    }
+
+    // search the last page header in the file tail
+    var size = channel.size();
+    var tailStart = Math.max(0, size - OGG_TAIL_SIZE);
+    var tail = read(channel, tailStart, (int) (size - tailStart));
+    for (int i = tail.remaining() - 27; i >= 0; i--) {
+      if (tagAt(tail, i, "OggS") && tail.get(i + 4) == 0) {
+        var granule = tail.getLong(i + 6);
+        if (granule > preSkip && sampleRate > 0) {
+          return (granule - preSkip) * 1000 / sampleRate;
+        }
+      }
+    }
+    return null;
+
+  }
+
+  /**
+   * Read duration with MediaMetadataRetriever (null on errors)
+   */
+  @Nullable
+  private Long probeRetriever(Uri uri) {
+    var mmr = new MediaMetadataRetriever();
+    try {
+      mmr.setDataSource(context, uri);
+      var duration = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+      return duration != null ? Long.parseLong(duration) : null;
+    }
+    catch (Exception e) {
+      return null;
+    }
+    finally {
+      try {
+        mmr.release();
+      }
+      catch (Exception ignored) { }
+    }
+  }
+
+  /**
+   * Read up to "length" bytes at the given position (little endian buffer)
+   */
+  static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    var buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) break;
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private static boolean startsWith(ByteBuffer buf, String tag) {
+    return buf.remaining() >= tag.length() && tagAt(buf, 0, tag);
+  }
+
+  static boolean tagAt(ByteBuffer buf, int index, String tag) {
+    for (int i = 0; i < tag.length(); i++) {
+      if (buf.get(index + i) != tag.charAt(i)) return false;
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,267 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Parser of recording filenames, based on the same pattern language of the JS side
+ * (see Recording.getFilenameRegExpPattern() and FILENAME_PATTERN_SUPPORTED_VARS).
+ *
+ * Compiled parsers are cached by pattern string and are thread safe.
+ */
+class FilenameParser {
+
+  // compiled parsers cache, keyed by filename pattern
+  private static final HashMap<String, FilenameParser> parsers = new HashMap<>();
+
+  private static final Pattern VAR_PATTERN = Pattern.compile("\\{([\\w:]+?)\\}");
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  // (Java group names can't contain '_' or ':')
+  private static final String G_YEAR = "dateYear";
+  private static final String G_YEAR2 = "dateYearTwo";
+  private static final String G_MONTH = "dateMonth";
+  private static final String G_DAY = "dateDay";
+  private static final String G_HOURS = "dateHours";
+  private static final String G_MINUTES = "dateMinutes";
+  private static final String G_SECONDS = "dateSeconds";
+  private static final String G_TZ_HOURS = "dateTzHours";
+  private static final String G_TZ_MINUTES = "dateTzMinutes";
+  private static final String G_AMPM = "dateAmpm";
+  private static final String G_DIRECTION = "direction";
+  private static final String G_PHONE_NUMBER = "phoneNumber";
+  private static final String G_SIM_SLOT = "simSlot";
+  private static final String G_CALLER_NAME = "callerName";
+
+  private final Pattern pattern;
+
+  // group names used by the pattern
+  private final HashSet<String> groups = new HashSet<>();
+
+  private FilenameParser(String filenamePattern) {
+    pattern = Pattern.compile(buildRegex(filenamePattern), Pattern.CASE_INSENSITIVE);
+  }
+
+  /**
+   * Return the (cached) parser of the given filename pattern
+   *
+   * @throws PatternSyntaxException if the pattern is not a valid regular expression
+   */
+  static FilenameParser get(String filenamePattern) {
+    synchronized (parsers) {
+      var res = parsers.get(filenamePattern);
+      if (res == null) {
+        res = new FilenameParser(filenamePattern);
+        parsers.put(filenamePattern, res);
+      }
+      return res;
+    }
+  }
+
+  /**
+   * Extract metadata from the given filename (extension is stripped)
+   */
+  Metadata parse(String filename) {
+
+    var ix = filename.lastIndexOf('.');
+    var m = pattern.matcher(ix >= 0 ? filename.substring(0, ix) : filename);
+    var found = m.find();
+
+    var res = new Metadata();
+    res.timestampUnixMs = found ? parseDate(m) : 0L;
+    res.direction = found ? group(m, G_DIRECTION) : null;
+
+    // calls[0] is always present (like the JS parser)
+    var phoneNumber = found ? group(m, G_PHONE_NUMBER) : null;
+    var callerName = found ? group(m, G_CALLER_NAME) : null;
+    if (callerName != null && callerName.isEmpty()) {
+      callerName = null;
+    }
+    res.hasCall = true;
+    res.phoneNumber = phoneNumber;
+    res.phoneNumberFormatted = phoneNumber;
+    res.callerName = callerName != null ? callerName : phoneNumber;
+    res.contactName = res.callerName;
+    return res;
+
+  }
+
+  /**
+   * Parse the given filenames, splitting the work among the executor threads
+   */
+  List<Metadata> parseAll(List<String> filenames, ExecutorService executor, int parallelism)
+    throws InterruptedException, ExecutionException {
+
+    var count = filenames.size();
+    var sliceSize = Math.max(1, (count + parallelism - 1) / parallelism);
+    var tasks = new ArrayList<Callable<List<Metadata>>>(parallelism);
+    for (int start = 0; start < count; start += sliceSize) {
+      var slice = filenames.subList(start, Math.min(count, start + sliceSize));
+      tasks.add(() -> {
+        var res = new ArrayList<Metadata>(slice.size());
+        for (var fn : slice) {
+          res.add(parse(fn));
+        }
+        return res;
+      });
+    }
+
+    var res = new ArrayList<Metadata>(count);
+    for (var f : executor.invokeAll(tasks)) {
+      res.addAll(f.get());
+    }
+    return res;
+
+  }
+
+  /**
+   * Build recording date from the matched date parts
+   *
+   * @return epoch millis (0 if any of the required parts is missing or invalid)
+   */
+  private long parseDate(Matcher m) {
+
+    var year = groupInt(m, G_YEAR);
+    if (year < 0) {
+      var year2 = groupInt(m, G_YEAR2);
+      year = year2 >= 0 ? 2000 + year2 : -1;
+    }
+    var month = groupInt(m, G_MONTH);
+    var day = groupInt(m, G_DAY);
+    var hours = groupInt(m, G_HOURS);
+    var minutes = groupInt(m, G_MINUTES);
+    if (year < 0 || month < 0 || day < 0 || hours < 0 || minutes < 0) {
+      return 0;
+    }
+
+    // seconds (with optional fraction)
+    int seconds = 0, millis = 0;
+    var secondsStr = group(m, G_SECONDS);
+    if (secondsStr != null) {
+      seconds = parseDigits(secondsStr, 0, 2);
+      for (int i = 3, mul = 100; i < secondsStr.length() && mul > 0; i++, mul /= 10) {
+        millis += (secondsStr.charAt(i) - '0') * mul;
+      }
+    }
+
+    // 12h format
+    var ampm = group(m, G_AMPM);
+    if (ampm != null) {
+      hours = (hours % 12) + (ampm.equalsIgnoreCase("AM") ? 0 : 12);
+    }
+
+    // timezone offset (local timezone if missing)
+    var tzHoursStr = group(m, G_TZ_HOURS);
+    var tzMinutes = groupInt(m, G_TZ_MINUTES);
+    var hasTz = tzHoursStr != null && tzMinutes >= 0;
+
+    var cal = new GregorianCalendar(hasTz ? UTC : TimeZone.getDefault());
+    cal.setLenient(false);
+    cal.clear();
+    cal.set(year, month - 1, day, hours, minutes, seconds);
+    cal.set(Calendar.MILLISECOND, millis);
+    long res;
+    try {
+      res = cal.getTimeInMillis();
+    }
+    catch (IllegalArgumentException e) {
+      // invalid date
+      return 0;
+    }
+
+    if (hasTz) {
+      var negative = tzHoursStr.charAt(0) == '-';
+      var start = tzHoursStr.charAt(0) == '+' || negative ? 1 : 0;
+      var offsetMinutes = parseDigits(tzHoursStr, start, tzHoursStr.length()) * 60 + tzMinutes;
+      res -= (negative ? -offsetMinutes : offsetMinutes) * 60_000L;
+    }
+    return res;
+
+  }
+
+  @Nullable
+  private String group(Matcher m, String name) {
+    return groups.contains(name) ? m.group(name) : null;
+  }
+
+  /**
+   * Return the numeric value of the given group (-1 if missing)
+   */
+  private int groupInt(Matcher m, String name) {
+    var s = group(m, name);
+    return s != null ? parseDigits(s, 0, s.length()) : -1;
+  }
+
+  private static int parseDigits(String s, int start, int end) {
+    int res = 0;
+    for (int i = start; i < end; i++) {
+      res = res * 10 + (s.charAt(i) - '0');
+    }
+    return res;
+  }
+
+  /**
+   * Transform each pattern var in a regex named group
+   */
+  private String buildRegex(String filenamePattern) {
+
+    var m = VAR_PATTERN.matcher(filenamePattern);
+    var sb = new StringBuilder();
+    var last = 0;
+    while (m.find()) {
+      sb.append(filenamePattern, last, m.start());
+      appendVar(sb, m.group(1), m.group());
+      last = m.end();
+    }
+    sb.append(filenamePattern, last, filenamePattern.length());
+    return sb.toString();
+
+  }
+
+  private void appendVar(StringBuilder sb, String var, String placeholder) {
+    switch (var) {
+      // sample BCR default date: "20230518_171143.015+0100"
+      case "date" -> sb.append(buildRegex("{date:year}{date:month}{date:day}_{date:hours}{date:minutes}{date:seconds}{date:tzHours}{date:tzMinutes}"));
+      case "date:year" -> appendGroup(sb, G_YEAR, "\\d{4}");
+      case "date:year2" -> appendGroup(sb, G_YEAR2, "\\d{2}");
+      case "date:month" -> appendGroup(sb, G_MONTH, "\\d{2}");
+      case "date:day" -> appendGroup(sb, G_DAY, "\\d{2}");
+      case "date:hours" -> appendGroup(sb, G_HOURS, "\\d{2}");
+      case "date:minutes" -> appendGroup(sb, G_MINUTES, "\\d{2}");
+      case "date:seconds" -> appendGroup(sb, G_SECONDS, "\\d{2}(\\.\\d{1,3})?");
+      case "date:tzHours" -> appendGroup(sb, G_TZ_HOURS, "[\\+\\-]?\\d{2}");
+      case "date:tzMinutes" -> appendGroup(sb, G_TZ_MINUTES, "\\d{2}");
+      case "date:ampm" -> appendGroup(sb, G_AMPM, "AM|PM");
+      case "direction" -> appendGroup(sb, G_DIRECTION, "in|out|conference");
+      case "phone_number" -> appendGroup(sb, G_PHONE_NUMBER, "[\\d\\+\\- ]+|unknown");
+      case "sim_slot" -> appendGroup(sb, G_SIM_SLOT, "\\d+");
+      case "caller_name", "contact_name", "call_log_name" -> appendGroup(sb, G_CALLER_NAME, ".*");
+      // unsupported var: match it literally
+      default -> sb.append(Pattern.quote(placeholder));
+    }
+  }
+
+  private void appendGroup(StringBuilder sb, String name, String regex) {
+    // a group name can be defined only once, following ones are just matched
+    if (groups.add(name)) {
+      sb.append("(?<").append(name).append('>').append(regex).append(')');
+    }
+    else {
+      sb.append("(?:").append(regex).append(')');
+    }
+  }
+
+}
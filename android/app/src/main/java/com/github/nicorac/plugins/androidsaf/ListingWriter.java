@@ -0,0 +1,176 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import java.util.LinkedHashMap;
+
+/**
+ * JSON serialization of directory listings, as an array of IDocumentFile items
+ * or as parallel column arrays (IDocumentColumns), where the common URI prefix and MIME types are written once.
+ *
+ * Rows and document URIs are accessed through small interfaces (implemented on a Cursor by the plugin),
+ * so serialization has no Android dependencies and can be benchmarked on a plain JVM.
+ */
+class ListingWriter {
+
+  // columns of the listing rows
+  static final int COL_DOCUMENT_ID = 0;
+  static final int COL_DISPLAY_NAME = 1;
+  static final int COL_MIME_TYPE = 2;
+  static final int COL_FLAGS = 3;
+  static final int COL_SIZE = 4;
+  static final int COL_LAST_MODIFIED = 5;
+
+  // MIME type of directories (DocumentsContract.Document.MIME_TYPE_DIR)
+  private static final String MIME_TYPE_DIR = "vnd.android.document/directory";
+
+  // estimated size of a serialized item, used to pre-allocate output
+  static final int ITEM_SIZE_HINT = 600;
+
+  // estimated size of a serialized item in columns format
+  static final int COLUMNS_ITEM_SIZE_HINT = 200;
+
+  /**
+   * Listing rows (like a Cursor)
+   */
+  interface Rows {
+    boolean moveToNext();
+    String getString(int column);
+    long getLong(int column);
+  }
+
+  /**
+   * Builder of the URI of a document of the listed directory
+   */
+  interface DocumentUriBuilder {
+    String build(String documentId);
+  }
+
+  /**
+   * Encoder of a document ID as URI path segment (like Uri.encode())
+   */
+  interface DocumentIdEncoder {
+    String encode(String documentId);
+  }
+
+  /**
+   * Write the next rows (up to "limit", 0 for all of them) as a JSON array of IDocumentFile items
+   *
+   * @return number of written items
+   */
+  static int write(Rows rows, DocumentUriBuilder uriBuilder, int limit, StringBuilder out) {
+
+    out.append('[');
+    var written = 0;
+    while ((limit <= 0 || written < limit) && rows.moveToNext()) {
+      final var mimeType = rows.getString(COL_MIME_TYPE);
+      if (written > 0) {
+        out.append(',');
+      }
+      out.append("{\"displayName\":");
+      appendString(out, rows.getString(COL_DISPLAY_NAME));
+      out.append(",\"uri\":");
+      appendString(out, uriBuilder.build(rows.getString(COL_DOCUMENT_ID)));
+      out.append(",\"type\":");
+      appendString(out, mimeType);
+      out.append(",\"isDirectory\":").append(MIME_TYPE_DIR.equals(mimeType));
+      out.append(",\"size\":").append(rows.getLong(COL_SIZE));
+      out.append(",\"lastModified\":").append(rows.getLong(COL_LAST_MODIFIED));
+      out.append('}');
+      written++;
+    }
+    out.append(']');
+    return written;
+
+  }
+
+  /**
+   * Write the next rows (up to "limit", 0 for all of them) as a JSON object of parallel column arrays (IDocumentColumns):
+   * the URI of each item is "uriPrefix" + its encoded document ID ("ids" column),
+   * MIME types are written once in the "types" table and referenced by index ("typeCodes" column).
+   *
+   * @return number of written items
+   */
+  static int writeColumns(Rows rows, String uriPrefix, DocumentIdEncoder idEncoder, int limit, StringBuilder out) {
+
+    // (columns are written in a single pass over the rows, then joined)
+    var types = new LinkedHashMap<String, Integer>();
+    var ids = new StringBuilder();
+    var names = new StringBuilder();
+    var typeCodes = new StringBuilder();
+    var sizes = new StringBuilder();
+    var lastModified = new StringBuilder();
+    var written = 0;
+    while ((limit <= 0 || written < limit) && rows.moveToNext()) {
+      if (written > 0) {
+        ids.append(',');
+        names.append(',');
+        typeCodes.append(',');
+        sizes.append(',');
+        lastModified.append(',');
+      }
+      appendString(ids, idEncoder.encode(rows.getString(COL_DOCUMENT_ID)));
+      appendString(names, rows.getString(COL_DISPLAY_NAME));
+      final var mimeType = rows.getString(COL_MIME_TYPE);
+      var typeCode = types.get(mimeType);
+      if (typeCode == null) {
+        typeCode = types.size();
+        types.put(mimeType, typeCode);
+      }
+      typeCodes.append((int) typeCode);
+      sizes.append(rows.getLong(COL_SIZE));
+      lastModified.append(rows.getLong(COL_LAST_MODIFIED));
+      written++;
+    }
+
+    out.append("{\"uriPrefix\":");
+    appendString(out, uriPrefix);
+    out.append(",\"types\":[");
+    var first = true;
+    for (var type : types.keySet()) {
+      if (!first) {
+        out.append(',');
+      }
+      appendString(out, type);
+      first = false;
+    }
+    out.append("],\"ids\":[").append(ids);
+    out.append("],\"names\":[").append(names);
+    out.append("],\"typeCodes\":[").append(typeCodes);
+    out.append("],\"sizes\":[").append(sizes);
+    out.append("],\"lastModified\":[").append(lastModified);
+    out.append("]}");
+    return written;
+
+  }
+
+  /**
+   * Append a JSON string literal (escaped like android.util.JsonWriter)
+   */
+  static void appendString(StringBuilder out, String value) {
+
+    if (value == null) {
+      out.append("null");
+      return;
+    }
+
+    out.append('"');
+    var last = 0;
+    var length = value.length();
+    for (int i = 0; i < length; i++) {
+      var c = value.charAt(i);
+      String replacement;
+      if (c == '"') replacement = "\\\"";
+      else if (c == '\\') replacement = "\\\\";
+      else if (c == '\n') replacement = "\\n";
+      else if (c == '\r') replacement = "\\r";
+      else if (c == '\t') replacement = "\\t";
+      else if (c < 0x20 || c == '\u2028' || c == '\u2029') replacement = String.format("\\u%04x", (int) c);
+      else continue;
+      // copy unescaped run
+      out.append(value, last, i).append(replacement);
+      last = i + 1;
+    }
+    out.append(value, last, length).append('"');
+
+  }
+
+}
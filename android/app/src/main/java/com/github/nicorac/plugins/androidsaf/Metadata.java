@@ -0,0 +1,19 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Recording metadata fields used by the app, read from BCR metadata files or parsed from filenames
+ */
+class Metadata {
+  @Nullable Long timestampUnixMs;
+  @Nullable String direction;
+  @Nullable Integer simSlot;
+  @Nullable Double durationSecsTotal;
+  // calls[0]
+  boolean hasCall;
+  @Nullable String phoneNumber;
+  @Nullable String phoneNumberFormatted;
+  @Nullable String contactName;
+  @Nullable String callerName;
+}
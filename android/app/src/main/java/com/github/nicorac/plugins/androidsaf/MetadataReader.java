@@ -0,0 +1,182 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming parser of BCR JSON metadata files.
+ *
+ * Only the fields used by the app are extracted, everything else is skipped without being materialized.
+ */
+class MetadataReader {
+
+  /**
+   * Parse the given metadata file content
+   */
+  static Metadata read(InputStream is) throws IOException {
+
+    var res = new Metadata();
+    try (
+      var jr = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+    ) {
+      jr.beginObject();
+      while (jr.hasNext()) {
+        switch (jr.nextName()) {
+          case "timestamp_unix_ms" -> res.timestampUnixMs = nextLongOrNull(jr);
+          case "direction" -> res.direction = nextStringOrNull(jr);
+          case "sim_slot" -> res.simSlot = nextIntOrNull(jr);
+          case "calls" -> readCalls(jr, res);
+          case "output" -> readOutput(jr, res);
+          default -> jr.skipValue();
+        }
+      }
+      jr.endObject();
+    }
+    return res;
+
+  }
+
+  /**
+   * Write the given metadata with the same structure of the original JSON file
+   * (a subset of BcrRecordingMetadata)
+   */
+  static void write(JsonWriter jw, Metadata m) throws IOException {
+
+    jw.beginObject();
+    if (m.timestampUnixMs != null) jw.name("timestamp_unix_ms").value(m.timestampUnixMs);
+    if (m.direction != null) jw.name("direction").value(m.direction);
+    if (m.simSlot != null) jw.name("sim_slot").value(m.simSlot);
+    if (m.durationSecsTotal != null) {
+      jw.name("output").beginObject()
+        .name("recording").beginObject()
+        .name("duration_secs_total").value(m.durationSecsTotal)
+        .endObject()
+        .endObject();
+    }
+    if (m.hasCall) {
+      jw.name("calls").beginArray().beginObject();
+      if (m.phoneNumber != null) jw.name("phone_number").value(m.phoneNumber);
+      if (m.phoneNumberFormatted != null) jw.name("phone_number_formatted").value(m.phoneNumberFormatted);
+      if (m.contactName != null) jw.name("contact_name").value(m.contactName);
+      if (m.callerName != null) jw.name("caller_name").value(m.callerName);
+      jw.endObject().endArray();
+    }
+    jw.endObject();
+
+  }
+
+  /**
+   * Read "calls" array (first item only)
+   */
+  private static void readCalls(JsonReader jr, Metadata res) throws IOException {
+
+    if (jr.peek() != JsonToken.BEGIN_ARRAY) {
+      jr.skipValue();
+      return;
+    }
+
+    jr.beginArray();
+    if (jr.hasNext()) {
+      if (jr.peek() == JsonToken.BEGIN_OBJECT) {
+        res.hasCall = true;
+        jr.beginObject();
+        while (jr.hasNext()) {
+          switch (jr.nextName()) {
+            case "phone_number" -> res.phoneNumber = nextStringOrNull(jr);
+            case "phone_number_formatted" -> res.phoneNumberFormatted = nextStringOrNull(jr);
+            case "contact_name" -> res.contactName = nextStringOrNull(jr);
+            case "caller_name" -> res.callerName = nextStringOrNull(jr);
+            default -> jr.skipValue();
+          }
+        }
+        jr.endObject();
+      }
+      else {
+        jr.skipValue();
+      }
+    }
+    // skip other calls
+    while (jr.hasNext()) {
+      jr.skipValue();
+    }
+    jr.endArray();
+
+  }
+
+  /**
+   * Read "output.recording.duration_secs_total" value
+   */
+  private static void readOutput(JsonReader jr, Metadata res) throws IOException {
+
+    if (jr.peek() != JsonToken.BEGIN_OBJECT) {
+      jr.skipValue();
+      return;
+    }
+
+    jr.beginObject();
+    while (jr.hasNext()) {
+      if (jr.nextName().equals("recording") && jr.peek() == JsonToken.BEGIN_OBJECT) {
+        jr.beginObject();
+        while (jr.hasNext()) {
+          if (jr.nextName().equals("duration_secs_total")) {
+            res.durationSecsTotal = nextDoubleOrNull(jr);
+          }
+          else {
+            jr.skipValue();
+          }
+        }
+        jr.endObject();
+      }
+      else {
+        jr.skipValue();
+      }
+    }
+    jr.endObject();
+
+  }
+
+  @Nullable
+  private static String nextStringOrNull(JsonReader jr) throws IOException {
+    if (jr.peek() == JsonToken.STRING) {
+      return jr.nextString();
+    }
+    jr.skipValue();
+    return null;
+  }
+
+  @Nullable
+  private static Long nextLongOrNull(JsonReader jr) throws IOException {
+    if (jr.peek() == JsonToken.NUMBER) {
+      return jr.nextLong();
+    }
+    jr.skipValue();
+    return null;
+  }
+
+  @Nullable
+  private static Integer nextIntOrNull(JsonReader jr) throws IOException {
+    if (jr.peek() == JsonToken.NUMBER) {
+      return jr.nextInt();
+    }
+    jr.skipValue();
+    return null;
+  }
+
+  @Nullable
+  private static Double nextDoubleOrNull(JsonReader jr) throws IOException {
+    if (jr.peek() == JsonToken.NUMBER) {
+      return jr.nextDouble();
+    }
+    jr.skipValue();
+    return null;
+  }
+
+}
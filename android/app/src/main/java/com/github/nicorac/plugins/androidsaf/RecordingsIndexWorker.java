@@ -0,0 +1,335 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.documentfile.provider.DocumentFile;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.github.nicorac.plugins.androidsaf.DirectorySnapshot.RecordingEntry;
+import com.github.nicorac.plugins.recordingsdb.RecordingsDb;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background indexing of the recordings directory.
+ *
+ * When new files appear in the recordings directory (and the device is idle with enough battery),
+ * it runs an incremental scan and writes the added/changed/removed recordings to the recordings DB,
+ * with the same format of the JS side (Recording class), so at next start the app finds an up-to-date DB.
+ * Indexing starts only once the app has created the DB.
+ */
+public class RecordingsIndexWorker extends Worker {
+
+  private static final String TAG = "RecordingsIndexWorker";
+
+  // unique names of the work (each run enqueues the next one with the other name, since its own is still running)
+  private static final String WORK_NAME = "recordings-index";
+  private static final String NEXT_WORK_NAME = "recordings-index-next";
+
+  // input data keys
+  private static final String KEY_DIRECTORY_URI = "directoryUri";
+  private static final String KEY_SUPPORTED_TYPES = "supportedTypes";
+  private static final String KEY_FILENAME_PATTERN = "filenamePattern";
+
+  // delay between the last directory change and the indexing
+  private static final long TRIGGER_DELAY_SECS = 30;
+
+  // indexing interval where content triggers are not available
+  private static final long PERIODIC_INTERVAL_HOURS = 12;
+
+  public RecordingsIndexWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+    super(context, params);
+  }
+
+  /**
+   * Schedule background indexing of the given directory (replacing any previous one)
+   */
+  public static void schedule(Context context, String directoryUri, String[] supportedTypes, @Nullable String filenamePattern) {
+
+    var input = new Data.Builder()
+      .putString(KEY_DIRECTORY_URI, directoryUri)
+      .putStringArray(KEY_SUPPORTED_TYPES, supportedTypes)
+      .putString(KEY_FILENAME_PATTERN, filenamePattern)
+      .build();
+    WorkManager.getInstance(context).cancelUniqueWork(NEXT_WORK_NAME);
+    enqueue(context, input, WORK_NAME);
+
+  }
+
+  /**
+   * Cancel background indexing
+   */
+  public static void cancel(Context context) {
+    var workManager = WorkManager.getInstance(context);
+    workManager.cancelUniqueWork(WORK_NAME);
+    workManager.cancelUniqueWork(NEXT_WORK_NAME);
+  }
+
+  private static void enqueue(Context context, Data input, String workName) {
+
+    var workManager = WorkManager.getInstance(context);
+    var constraints = new Constraints.Builder().setRequiresBatteryNotLow(true);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      constraints.setRequiresDeviceIdle(true);
+    }
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      // run once after directory content changes (the work is enqueued again at each run)
+      var directoryUri = Uri.parse(input.getString(KEY_DIRECTORY_URI));
+      var childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(directoryUri, DocumentsContract.getTreeDocumentId(directoryUri));
+      constraints
+        .addContentUriTrigger(childrenUri, true)
+        .setTriggerContentUpdateDelay(TRIGGER_DELAY_SECS, TimeUnit.SECONDS);
+      var request = new OneTimeWorkRequest.Builder(RecordingsIndexWorker.class)
+        .setConstraints(constraints.build())
+        .setInputData(input)
+        .addTag(workName)
+        .build();
+      workManager.enqueueUniqueWork(workName, ExistingWorkPolicy.REPLACE, request);
+    }
+    else {
+      var request = new PeriodicWorkRequest.Builder(RecordingsIndexWorker.class, PERIODIC_INTERVAL_HOURS, TimeUnit.HOURS)
+        .setConstraints(constraints.build())
+        .setInputData(input)
+        .build();
+      workManager.enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE, request);
+    }
+
+  }
+
+  @NonNull
+  @Override
+  public Result doWork() {
+
+    var input = getInputData();
+    Result res;
+    var retry = false;
+    try {
+      var supportedTypes = input.getStringArray(KEY_SUPPORTED_TYPES);
+      index(
+        input.getString(KEY_DIRECTORY_URI),
+        new HashSet<>(Arrays.asList(supportedTypes != null ? supportedTypes : new String[0])),
+        input.getString(KEY_FILENAME_PATTERN)
+      );
+      res = Result.success();
+    }
+    catch (IOException e) {
+      // (e.g. document provider or storage temporarily unavailable)
+      Log.w(TAG, "Error indexing recordings, retrying", e);
+      res = Result.retry();
+      retry = true;
+    }
+    catch (Exception e) {
+      Log.e(TAG, "Error indexing recordings", e);
+      res = Result.failure();
+    }
+
+    // wait for next change (a retried work waits for its own trigger)
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && !retry && !isStopped()) {
+      enqueue(getApplicationContext(), input, getTags().contains(WORK_NAME) ? NEXT_WORK_NAME : WORK_NAME);
+    }
+    return res;
+
+  }
+
+  /**
+   * Scan the given directory and apply the changes to its recordings DB
+   */
+  private void index(@Nullable String directoryUri, HashSet<String> supportedTypes, @Nullable String filenamePattern)
+    throws IOException, JSONException {
+
+    var context = getApplicationContext();
+    var directoryDf = directoryUri != null ? DocumentFile.fromTreeUri(context, Uri.parse(directoryUri)) : null;
+    if (directoryDf == null || !directoryDf.exists()) {
+      return;
+    }
+
+    // the DB is created by the app at first start
+    var store = RecordingsDb.getStore(context, directoryUri);
+    if (store.get(RecordingsDb.META_KEY) == null) {
+      return;
+    }
+
+    // (the app scan generation is saved in the DB metadata, the worker one in its own item)
+    var indexMetaJson = store.get(RecordingsDb.INDEX_META_KEY);
+    var indexMeta = indexMetaJson != null ? new JSONObject(indexMetaJson) : new JSONObject();
+
+    // scan changes since the last indexing saved in DB
+    var treeUri = directoryDf.getUri();
+    var scanner = new RecordingsScanner(context, RecordingsScanner.CONSUMER_WORKER);
+    var result = scanner.scan(treeUri, supportedTypes, indexMeta.optLong("scanGeneration", 0));
+    if (!result.reset && result.isEmpty()) {
+      return;
+    }
+
+    var upserts = new LinkedHashMap<String, String>();
+    var deletes = new ArrayList<String>();
+
+    // removed recordings
+    // (a "reset" result contains the whole directory content, so any other DB item has been removed)
+    if (result.reset) {
+      var scannedNames = new HashSet<String>();
+      for (var e : result.added) {
+        scannedNames.add(e.audio.displayName);
+      }
+      for (var key : store.getAll().keySet()) {
+        if (!key.startsWith("$") && !scannedNames.contains(key)) {
+          deletes.add(key);
+        }
+      }
+    }
+    for (var e : result.removed) {
+      deletes.add(e.audio.displayName);
+    }
+
+    // added/changed recordings
+    var filenameParser = getFilenameParser(filenamePattern);
+    for (var list : Arrays.asList(result.added, result.changed)) {
+      for (var e : list) {
+        var key = e.audio.displayName;
+        var existing = store.get(key);
+        var recording = existing != null
+          ? updateRecording(new JSONObject(existing), treeUri, e, filenameParser)
+          : createRecording(treeUri, e, filenameParser);
+        upserts.put(key, recording.toString());
+      }
+    }
+
+    // save changes and scan generation
+    indexMeta.put("scanGeneration", result.generation);
+    indexMeta.put("lastUpdate", System.currentTimeMillis());
+    upserts.put(RecordingsDb.INDEX_META_KEY, indexMeta.toString());
+    RecordingsDb.update(context, directoryUri, upserts, deletes);
+
+  }
+
+  /**
+   * Update files references of an existing recording, and its metadata if the metadata file
+   * has been added/changed/removed (like RecordingsService.refreshContent())
+   */
+  private JSONObject updateRecording(JSONObject recording, Uri treeUri, RecordingEntry e, @Nullable FilenameParser filenameParser) throws JSONException {
+    recording.put("audioUri", getDocumentUri(treeUri, e.audio.documentId));
+    recording.put("metadataUri", e.metadata != null ? getDocumentUri(treeUri, e.metadata.documentId) : null);
+    if (e.metadataChanged) {
+      setMetadata(recording, getMetadata(treeUri, e, filenameParser));
+      probeMissingDuration(recording);
+    }
+    return recording;
+  }
+
+  /**
+   * Create a new serialized Recording (like Recording.createInstance())
+   */
+  private JSONObject createRecording(Uri treeUri, RecordingEntry e, @Nullable FilenameParser filenameParser) throws JSONException {
+
+    var res = new JSONObject();
+    res.put("audioUri", getDocumentUri(treeUri, e.audio.documentId));
+    res.put("audioDisplayName", e.audio.displayName);
+    if (e.metadata != null) {
+      res.put("metadataUri", getDocumentUri(treeUri, e.metadata.documentId));
+    }
+    res.put("filesize", e.audio.size);
+    res.put("mimeType", e.audio.mimeType);
+
+    // file props, overwritten by metadata from JSON file (or extracted from filename)
+    res.put("opName", e.audio.displayName);
+    res.put("opNumber", e.audio.displayName);
+    res.put("date", e.audio.lastModified);
+    setMetadata(res, getMetadata(treeUri, e, filenameParser));
+    probeMissingDuration(res);
+    return res;
+
+  }
+
+  /**
+   * Return the metadata of the given recording, from its JSON file or extracted from its filename (null if missing)
+   */
+  @Nullable
+  private Metadata getMetadata(Uri treeUri, RecordingEntry e, @Nullable FilenameParser filenameParser) {
+    Metadata m = null;
+    if (e.metadata != null) {
+      m = readMetadata(getDocumentUri(treeUri, e.metadata.documentId));
+    }
+    if (m == null && filenameParser != null) {
+      m = filenameParser.parse(e.audio.displayName);
+    }
+    return m;
+  }
+
+  /**
+   * Set the metadata fields of a serialized Recording (like Recording.setMetadata())
+   */
+  private static void setMetadata(JSONObject res, @Nullable Metadata m) throws JSONException {
+    res.put("direction", m != null && m.direction != null ? m.direction : "");
+    res.put("simSlot", m != null && m.simSlot != null ? m.simSlot : 0);
+    res.put("duration", m != null && m.durationSecsTotal != null ? Math.ceil(m.durationSecsTotal) : 0);
+    if (m != null && m.timestampUnixMs != null && m.timestampUnixMs != 0) {
+      res.put("date", m.timestampUnixMs);
+    }
+    if (m != null && m.hasCall) {
+      var opNumber = m.phoneNumberFormatted != null ? m.phoneNumberFormatted : m.phoneNumber != null ? m.phoneNumber : "<unknown>";
+      res.put("opNumber", opNumber);
+      res.put("opName", m.contactName != null ? m.contactName : opNumber);
+    }
+  }
+
+  /**
+   * Probe the duration of a serialized Recording if missing from its metadata
+   */
+  private void probeMissingDuration(JSONObject res) throws JSONException {
+    if (res.optDouble("duration", 0) == 0) {
+      var durationMs = new DurationProber(getApplicationContext()).probe(Uri.parse(res.getString("audioUri")));
+      res.put("duration", durationMs != null ? Math.ceil(durationMs / 1000.0) : 0);
+    }
+  }
+
+  @Nullable
+  private Metadata readMetadata(String uri) {
+    try (
+      var is = getApplicationContext().getContentResolver().openInputStream(Uri.parse(uri))
+    ) {
+      return is != null ? MetadataReader.read(is) : null;
+    }
+    catch (Exception e) {
+      // missing or malformed file
+      return null;
+    }
+  }
+
+  @Nullable
+  private static FilenameParser getFilenameParser(@Nullable String filenamePattern) {
+    try {
+      return filenamePattern != null && !filenamePattern.isEmpty() ? FilenameParser.get(filenamePattern) : null;
+    }
+    catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static String getDocumentUri(Uri treeUri, String documentId) {
+    return DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId).toString();
+  }
+
+}
@@ -0,0 +1,268 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.JsonWriter;
+
+import androidx.annotation.Nullable;
+
+import com.github.nicorac.plugins.androidsaf.DirectorySnapshot.FileEntry;
+import com.github.nicorac.plugins.androidsaf.DirectorySnapshot.RecordingEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental scanner of a recordings directory.
+ *
+ * Each scan pairs audio files with their optional JSON metadata file and compares
+ * the result with the snapshot saved by the previous scan, returning only the differences.
+ * Each consumer (the app and the background indexing) has its own snapshots, so a scan of one of them
+ * doesn't invalidate the generation tokens of the other.
+ */
+public class RecordingsScanner {
+
+  private static final String SNAPSHOTS_DIR = "scan-snapshots";
+  private static final String METADATA_EXTENSION = ".json";
+
+  // snapshot consumers
+  public static final String CONSUMER_APP = "app";
+  public static final String CONSUMER_WORKER = "worker";
+
+  // snapshots cache (shared by all scanner instances), keyed by consumer and directory URI
+  private static final HashMap<String, DirectorySnapshot> snapshots = new HashMap<>();
+
+  private final Context context;
+  private final String consumer;
+
+  /**
+   * @param consumer  name of the consumer of the scans (CONSUMER_APP or CONSUMER_WORKER)
+   */
+  public RecordingsScanner(Context context, String consumer) {
+    this.context = context.getApplicationContext();
+    this.consumer = consumer;
+  }
+
+  /**
+   * Result of a scan
+   */
+  public static class ScanResult {
+
+    // generation token to be passed to the next scan
+    public long generation;
+
+    // true if the given generation token didn't match, so "added" contains the full directory content
+    public boolean reset;
+
+    public final List<RecordingEntry> added = new ArrayList<>();
+    public final List<RecordingEntry> changed = new ArrayList<>();
+    public final List<RecordingEntry> removed = new ArrayList<>();
+
+    public boolean isEmpty() {
+      return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+  }
+
+  /**
+   * Scan the given directory and return the recordings added/changed/removed since the given generation.
+   *
+   * @param directoryUri    URI of the directory to scan
+   * @param supportedTypes  supported audio MIME types
+   * @param generation      generation token returned by the previous scan (0 to get the full content)
+   */
+  public ScanResult scan(Uri directoryUri, Set<String> supportedTypes, long generation) throws IOException {
+
+    final var current = listRecordings(directoryUri, supportedTypes);
+    final var res = new ScanResult();
+
+    synchronized (snapshots) {
+
+      final var snapshot = getSnapshot(directoryUri.toString());
+      res.reset = generation == 0 || generation != snapshot.generation;
+
+      if (res.reset) {
+        res.added.addAll(current.values());
+      }
+      else {
+        for (var e : current.values()) {
+          var old = snapshot.entries.get(e.audio.documentId);
+          if (old == null) {
+            res.added.add(e);
+          }
+          else if (!old.sameAs(e)) {
+            // (BCR writes the metadata file when the call ends, so it could appear after the audio file)
+            e.metadataChanged = !e.sameMetadataAs(old);
+            res.changed.add(e);
+          }
+        }
+        for (var old : snapshot.entries.values()) {
+          if (!current.containsKey(old.audio.documentId)) {
+            res.removed.add(old);
+          }
+        }
+      }
+
+      // update snapshot (if needed)
+      if (res.reset || !res.isEmpty()) {
+        snapshot.entries = current;
+        snapshot.generation = Math.max(snapshot.generation + 1, System.currentTimeMillis());
+        snapshot.save(getSnapshotFile(snapshot.directoryUri));
+      }
+      res.generation = snapshot.generation;
+
+    }
+
+    return res;
+
+  }
+
+  /**
+   * Serialize the given scan result to JSON, using the same item format of AndroidSAFPlugin.listFiles()
+   *
+   * @param filenameMetadata  metadata extracted from filenames, keyed by audio file display name (optional)
+   */
+  public static String toJson(Uri directoryUri, ScanResult result, @Nullable Map<String, Metadata> filenameMetadata) throws IOException {
+
+    try (
+      var sw = new StringWriter();
+      var jw = new JsonWriter(sw);
+    ) {
+      jw.beginObject();
+      jw.name("added");
+      writeRecordings(jw, directoryUri, result.added, filenameMetadata);
+      jw.name("changed");
+      writeRecordings(jw, directoryUri, result.changed, filenameMetadata);
+      jw.name("removed").beginArray();
+      for (var e : result.removed) {
+        jw.value(e.audio.displayName);
+      }
+      jw.endArray();
+      jw.endObject();
+      jw.close();
+      return sw.toString();
+    }
+
+  }
+
+  private static void writeRecordings(JsonWriter jw, Uri directoryUri, List<RecordingEntry> items, @Nullable Map<String, Metadata> filenameMetadata) throws IOException {
+    jw.beginArray();
+    for (var e : items) {
+      jw.beginObject();
+      jw.name("audio");
+      writeFile(jw, directoryUri, e.audio);
+      if (e.metadata != null) {
+        jw.name("metadata");
+        writeFile(jw, directoryUri, e.metadata);
+      }
+      if (e.metadataChanged) {
+        jw.name("metadataChanged").value(true);
+      }
+      var fm = filenameMetadata != null ? filenameMetadata.get(e.audio.displayName) : null;
+      if (fm != null) {
+        jw.name("filenameMetadata");
+        MetadataReader.write(jw, fm);
+      }
+      jw.endObject();
+    }
+    jw.endArray();
+  }
+
+  private static void writeFile(JsonWriter jw, Uri directoryUri, FileEntry f) throws IOException {
+    jw.beginObject();
+    jw.name("displayName").value(f.displayName);
+    jw.name("uri").value(DocumentsContract.buildDocumentUriUsingTree(directoryUri, f.documentId).toString());
+    jw.name("type").value(f.mimeType);
+    jw.name("isDirectory").value(false);
+    jw.name("size").value(f.size);
+    jw.name("lastModified").value(f.lastModified);
+    jw.endObject();
+  }
+
+  /**
+   * Query the given directory and pair audio files with their JSON metadata files.
+   *
+   * @return recordings keyed by audio file document ID
+   */
+  private HashMap<String, RecordingEntry> listRecordings(Uri directoryUri, Set<String> supportedTypes) throws IOException {
+
+    final var childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(directoryUri, DocumentsContract.getDocumentId(directoryUri));
+    final var audioFiles = new ArrayList<FileEntry>();
+    final var metadataFiles = new HashMap<String, FileEntry>();
+
+    // load all of the needed data in a single shot
+    try (
+      Cursor c = context.getContentResolver().query(childrenUri, new String[] {
+        DocumentsContract.Document.COLUMN_DOCUMENT_ID,    // 0
+        DocumentsContract.Document.COLUMN_DISPLAY_NAME,   // 1
+        DocumentsContract.Document.COLUMN_MIME_TYPE,      // 2
+        DocumentsContract.Document.COLUMN_SIZE,           // 3
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,  // 4
+      }, null, null, null);
+    ) {
+      if (c == null) {
+        throw new IOException("Can't query directory " + directoryUri);
+      }
+      while (c.moveToNext()) {
+        final var displayName = c.getString(1);
+        final var mimeType = c.getString(2);
+        if (displayName == null || DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType)) {
+          continue;
+        }
+        final var isAudio = supportedTypes.contains(mimeType);
+        if (isAudio || displayName.endsWith(METADATA_EXTENSION)) {
+          final var entry = new FileEntry(c.getString(0), displayName, mimeType, c.getLong(3), c.getLong(4));
+          if (isAudio) {
+            audioFiles.add(entry);
+          }
+          else {
+            metadataFiles.put(displayName, entry);
+          }
+        }
+      }
+    }
+
+    // pair each audio file with its metadata file
+    final var res = new HashMap<String, RecordingEntry>(audioFiles.size() * 2);
+    for (var a : audioFiles) {
+      final var metadata = metadataFiles.get(getMetadataFilename(a.displayName));
+      res.put(a.documentId, new RecordingEntry(a, metadata));
+    }
+    return res;
+
+  }
+
+  /**
+   * Return the filename of the JSON metadata file associated with the given audio filename
+   */
+  static String getMetadataFilename(String audioFilename) {
+    final var ix = audioFilename.lastIndexOf('.');
+    return (ix >= 0 ? audioFilename.substring(0, ix) : audioFilename) + METADATA_EXTENSION;
+  }
+
+  /**
+   * Return the (cached) snapshot of the given directory, loading it from storage if needed
+   */
+  private DirectorySnapshot getSnapshot(String directoryUri) {
+    var key = consumer + ":" + directoryUri;
+    var res = snapshots.get(key);
+    if (res == null) {
+      res = DirectorySnapshot.load(getSnapshotFile(directoryUri), directoryUri);
+      snapshots.put(key, res);
+    }
+    return res;
+  }
+
+  private File getSnapshotFile(String directoryUri) {
+    return new File(new File(context.getNoBackupFilesDir(), SNAPSHOTS_DIR), consumer + "-" + Integer.toHexString(directoryUri.hashCode()) + ".bin");
+  }
+
+}
@@ -0,0 +1,245 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * WebView client serving SAF documents as plain HTTP responses (with Range support).
+ *
+ * Documents are available at {@code <local url>/_saf_?uri=<URL encoded document URI>}, so the web layer
+ * can fetch() them or use them as media source, streaming content straight from the document file
+ * descriptor (no BASE64 encoding and no copies through the bridge).
+ * Only documents of the trees the app holds a persisted read permission on (i.e. the recordings directory) are served.
+ */
+public class SafWebViewClient extends BridgeWebViewClient {
+
+  public static final String PATH = "/_saf_";
+  private static final String PARAM_URI = "uri";
+
+  private final Bridge bridge;
+
+  public SafWebViewClient(Bridge bridge) {
+    super(bridge);
+    this.bridge = bridge;
+  }
+
+  @Override
+  public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+    var url = request.getUrl();
+    if (PATH.equals(url.getPath()) && "GET".equals(request.getMethod()) && isLocalUrl(url)) {
+      return serveDocument(url.getQueryParameter(PARAM_URI), request.getRequestHeaders().get("Range"));
+    }
+    return super.shouldInterceptRequest(view, request);
+  }
+
+  /**
+   * Return true if the given URL belongs to the app local server
+   */
+  private boolean isLocalUrl(Uri url) {
+    var localUrl = Uri.parse(bridge.getLocalUrl());
+    return Objects.equals(url.getScheme(), localUrl.getScheme()) && Objects.equals(url.getAuthority(), localUrl.getAuthority());
+  }
+
+  private WebResourceResponse serveDocument(@Nullable String documentUri, @Nullable String rangeHeader) {
+
+    if (documentUri == null || documentUri.isBlank()) {
+      return errorResponse(400, "Bad Request");
+    }
+
+    var uri = Uri.parse(documentUri);
+    var resolver = bridge.getContext().getContentResolver();
+    if (!isPermittedUri(resolver, uri)) {
+      return errorResponse(403, "Forbidden");
+    }
+    ParcelFileDescriptor pfd;
+    try {
+      pfd = resolver.openFileDescriptor(uri, "r");
+      if (pfd == null) {
+        throw new FileNotFoundException(documentUri);
+      }
+    }
+    catch (FileNotFoundException | SecurityException e) {
+      return errorResponse(404, "Not Found");
+    }
+
+    var mimeType = resolver.getType(uri);
+    if (mimeType == null) {
+      mimeType = "application/octet-stream";
+    }
+
+    var headers = new HashMap<String, String>();
+    headers.put("Cache-Control", "no-cache");
+
+    try {
+      var is = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+      var size = pfd.getStatSize();
+
+      // unknown size (e.g. pipes): no range support, return the whole stream
+      if (size < 0) {
+        return new WebResourceResponse(mimeType, null, 200, "OK", headers, is);
+      }
+      headers.put("Accept-Ranges", "bytes");
+
+      var range = rangeHeader != null ? parseRange(rangeHeader, size) : null;
+      if (range == null) {
+        if (rangeHeader != null) {
+          is.close();
+          headers.put("Content-Range", "bytes */" + size);
+          return new WebResourceResponse(mimeType, null, 416, "Range Not Satisfiable", headers, null);
+        }
+        headers.put("Content-Length", Long.toString(size));
+        return new WebResourceResponse(mimeType, null, 200, "OK", headers, is);
+      }
+
+      // seek to the range start and limit the stream to the range length
+      var start = range[0];
+      var length = range[1] - range[0] + 1;
+      is.getChannel().position(start);
+      headers.put("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+      headers.put("Content-Length", Long.toString(length));
+      return new WebResourceResponse(mimeType, null, 206, "Partial Content", headers, new BoundedInputStream(is, length));
+    }
+    catch (IOException e) {
+      return errorResponse(500, "Internal Server Error");
+    }
+
+  }
+
+  /**
+   * Return true if the given URI is (a document of) a tree the app holds a persisted read permission on.
+   * Document URIs must be built using the tree, the provider then checks the document belongs to it.
+   */
+  private static boolean isPermittedUri(ContentResolver resolver, Uri uri) {
+
+    if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+      return false;
+    }
+    var treeId = getTreeId(uri);
+    for (var permission : resolver.getPersistedUriPermissions()) {
+      var permittedUri = permission.getUri();
+      if (!permission.isReadPermission() || !Objects.equals(uri.getAuthority(), permittedUri.getAuthority())) {
+        continue;
+      }
+      if (uri.equals(permittedUri) || (treeId != null && treeId.equals(getTreeId(permittedUri)))) {
+        return true;
+      }
+    }
+    return false;
+
+  }
+
+  /**
+   * Return the tree document ID of the given tree ("tree/<id>") or tree-based document ("tree/<id>/document/<id>") URI,
+   * null for any other URI
+   */
+  @Nullable
+  private static String getTreeId(Uri uri) {
+    var segments = uri.getPathSegments();
+    var isTree = segments.size() == 2 || (segments.size() == 4 && "document".equals(segments.get(2)));
+    return isTree && "tree".equals(segments.get(0)) ? segments.get(1) : null;
+  }
+
+  /**
+   * Parse a "bytes=start-end" Range header (single range only)
+   *
+   * @return [ start, end ] (inclusive) or null if the range is invalid or unsatisfiable
+   */
+  @Nullable
+  static long[] parseRange(String header, long size) {
+
+    header = header.trim();
+    if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+      return null;
+    }
+    var spec = header.substring(6).trim();
+    var dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+
+    try {
+      var startStr = spec.substring(0, dash).trim();
+      var endStr = spec.substring(dash + 1).trim();
+      long start, end;
+      if (startStr.isEmpty()) {
+        // suffix range: last N bytes
+        var suffix = Long.parseLong(endStr);
+        if (suffix <= 0) return null;
+        start = Math.max(0, size - suffix);
+        end = size - 1;
+      }
+      else {
+        start = Long.parseLong(startStr);
+        end = endStr.isEmpty() ? size - 1 : Math.min(Long.parseLong(endStr), size - 1);
+      }
+      return start >= 0 && start <= end ? new long[] { start, end } : null;
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+
+  }
+
+  private static WebResourceResponse errorResponse(int statusCode, String reasonPhrase) {
+    return new WebResourceResponse("text/plain", null, statusCode, reasonPhrase, new HashMap<>(), null);
+  }
+
+  /**
+   * InputStream returning (at most) the given number of bytes of the wrapped stream
+   */
+  private static class BoundedInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    BoundedInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) return -1;
+      var b = super.read();
+      if (b >= 0) remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) return -1;
+      var n = super.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) remaining -= n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      var skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(super.available(), remaining);
+    }
+
+  }
+
+}
@@ -0,0 +1,142 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Stream read helpers of file reading methods.
+ *
+ * BASE64 coding is accessed through small interfaces (implemented with android.util.Base64 by the plugin),
+ * so these helpers have no Android dependencies and can be benchmarked on a plain JVM.
+ */
+class StreamUtils {
+
+  // size of the buffer of sequential reads
+  static final int BUFFER_SIZE = 256 * 1024;
+
+  interface Base64Encoder {
+    String encode(byte[] data, int offset, int length);
+  }
+
+  interface Base64Decoder {
+    byte[] decode(byte[] data, int offset, int length);
+  }
+
+  /**
+   * Receives content chunks
+   */
+  interface ChunkListener {
+    /**
+     * @param offset offset of the chunk, in bytes (or chars for text chunks)
+     */
+    void onChunk(long offset, String content);
+  }
+
+  private StreamUtils() { }
+
+  /**
+   * Read (up to) "length" bytes from the given stream (-1 to read it all)
+   */
+  static byte[] readBytes(InputStream is, int length) throws IOException {
+    var outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int n;
+    var remaining = length < 0 ? Integer.MAX_VALUE : length;
+    while (remaining > 0 && (n = is.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+      outputStream.write(buffer, 0, n);
+      remaining -= n;
+    }
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Read the given stream in chunks of (about) chunkSize bytes, BASE64 encoding each of them.
+   * Chunks size is a multiple of 3 bytes, so they can be concatenated (no padding).
+   *
+   * @return number of read bytes
+   */
+  static long readBase64Chunks(InputStream is, int chunkSize, Base64Encoder encoder, ChunkListener listener) throws IOException {
+    var buffer = new byte[Math.max(3, chunkSize - chunkSize % 3)];
+    long total = 0;
+    int n;
+    while ((n = readFully(is, buffer)) > 0) {
+      listener.onChunk(total, encoder.encode(buffer, 0, n));
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * Read the given text in chunks of (up to) chunkSize chars
+   * (chars are decoded while reading, so multi-byte sequences are never split between chunks;
+   * a chunk ending with a high surrogate is shortened by one char, so surrogate pairs aren't split either)
+   *
+   * @return number of read chars
+   */
+  static long readTextChunks(Reader reader, int chunkSize, ChunkListener listener) throws IOException {
+    var buffer = new char[Math.max(2, chunkSize)];
+    long total = 0;
+    var carry = 0;  // chars moved to the beginning of the next chunk
+    int n;
+    while ((n = carry + readFully(reader, buffer, carry)) > 0) {
+      carry = n == buffer.length && Character.isHighSurrogate(buffer[n - 1]) ? 1 : 0;
+      listener.onChunk(total, String.valueOf(buffer, 0, n - carry));
+      total += n - carry;
+      if (carry > 0) {
+        buffer[0] = buffer[n - 1];
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Decode BASE64 content, optionally with a data URL header ("data:...;base64,")
+   */
+  static byte[] decodeBase64(String content, Base64Decoder decoder) {
+    // (skip header without copying the content)
+    var start = content.indexOf(',') + 1;
+    var bytes = new byte[content.length() - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) content.charAt(start + i);
+    }
+    return decoder.decode(bytes, 0, bytes.length);
+  }
+
+  static void skipFully(InputStream is, long count) throws IOException {
+    while (count > 0) {
+      var skipped = is.skip(count);
+      if (skipped <= 0) {
+        if (is.read() == -1) return;
+        skipped = 1;
+      }
+      count -= skipped;
+    }
+  }
+
+  /**
+   * Read from the given stream until buffer is full or end of stream is reached
+   * @return number of read bytes
+   */
+  static int readFully(InputStream is, byte[] buffer) throws IOException {
+    int total = 0, n;
+    while (total < buffer.length && (n = is.read(buffer, total, buffer.length - total)) != -1) {
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * Read from the given reader (into buffer, starting at offset) until buffer is full or end of stream is reached
+   * @return number of read chars
+   */
+  static int readFully(Reader reader, char[] buffer, int offset) throws IOException {
+    int total = offset, n;
+    while (total < buffer.length && (n = reader.read(buffer, total, buffer.length - total)) != -1) {
+      total += n;
+    }
+    return total - offset;
+  }
+
+}
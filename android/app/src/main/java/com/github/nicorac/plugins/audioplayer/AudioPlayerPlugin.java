@@ -4,20 +4,34 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.net.Uri;
 import android.os.IBinder;
+import android.util.Base64;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+import com.github.nicorac.plugins.metrics.PluginMetrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 @CapacitorPlugin(name = "AudioPlayer")
 public class AudioPlayerPlugin extends Plugin implements IJSEventSender {
 
+  private final PluginMetrics metrics = new PluginMetrics("AudioPlayer");
+
   private AudioPlayerService apsvc;
   private boolean isServiceBound = false;
 
+  // waveforms are extracted one at a time, in background
+  private WaveformExtractor waveformExtractor;
+  private ExecutorService waveformExecutor;
+
   /**
    * ServiceConnection used to talk with service
    */
@@ -49,6 +63,8 @@ public class AudioPlayerPlugin extends Plugin implements IJSEventSender {
     if (!res) {
       throw new RuntimeException("AudioPlayerPlugin failed to initialize successfully: error initializing AudioService");
     }
+    waveformExtractor = new WaveformExtractor(context);
+    waveformExecutor = Executors.newSingleThreadExecutor();
   }
 
   /**
@@ -58,25 +74,137 @@ public class AudioPlayerPlugin extends Plugin implements IJSEventSender {
   public void handleOnDestroy() {
     // unbind the service
     getContext().unbindService(serviceConnection);
+    waveformExecutor.shutdownNow();
+  }
+
+  /**
+   * Pause progress events while the app is in background
+   */
+  @Override
+  public void handleOnPause() {
+    if (apsvc != null) {
+      apsvc.execute(() -> apsvc.setUpdateEventsEnabled(false));
+    }
+  }
+
+  @Override
+  public void handleOnResume() {
+    if (apsvc != null) {
+      apsvc.execute(() -> apsvc.setUpdateEventsEnabled(true));
+    }
   }
 
-  // reflect plugin methods to service
+  // reflect plugin methods to service (executed on its player thread)
   @PluginMethod() public void setConfiguration(PluginCall call)
-  { apsvc.setConfiguration(call); }
+  { execute("setConfiguration", () -> apsvc.setConfiguration(call)); }
   @PluginMethod() public void init(PluginCall call)
-  { apsvc.init(call); }
+  { execute("init", () -> apsvc.init(call)); }
   @PluginMethod() public void release(PluginCall call)
-  { apsvc.release(call); }
+  { execute("release", () -> apsvc.release(call)); }
   @PluginMethod() public void play(PluginCall call)
-  { apsvc.play(call); }
+  { execute("play", () -> apsvc.play(call)); }
   @PluginMethod() public void pause(PluginCall call)
-  { apsvc.pause(call); }
+  { execute("pause", () -> apsvc.pause(call)); }
   @PluginMethod() public void stop(PluginCall call)
-  { apsvc.stop(call); }
+  { execute("stop", () -> apsvc.stop(call)); }
+  @PluginMethod() public void setSpeed(PluginCall call)
+  { execute("setSpeed", () -> apsvc.setSpeed(call)); }
+  @PluginMethod() public void skip(PluginCall call)
+  { execute("skip", () -> apsvc.skip(call)); }
   @PluginMethod() public void getDuration(PluginCall call)
-  { apsvc.getDuration(call); }
+  { execute("getDuration", () -> apsvc.getDuration(call)); }
   @PluginMethod() public void getCurrentTime(PluginCall call)
-  { apsvc.getCurrentTime(call); }
+  { execute("getCurrentTime", () -> apsvc.getCurrentTime(call)); }
+
+  /**
+   * Execute the given service method on its player thread, timing it
+   */
+  private void execute(String method, Runnable command) {
+    apsvc.execute(() -> {
+      try (var ignored = metrics.start(method)) {
+        command.run();
+      }
+    });
+  }
+
+  /**
+   * Return the waveform peaks of the given audio file.
+   * Cached peaks are returned immediately, otherwise the file is decoded in background
+   * and base level peaks are sent with "waveformProgress" events while decoding
+   * (background decoding is timed as "extractWaveform").
+   *
+   * @param call
+   *  call.fileUri: URI of the audio file
+   *  call.level: index of the only zoom level to return (optional, all levels if missing)
+   */
+  @PluginMethod()
+  public void getWaveform(PluginCall call) { metrics.timed(call, "getWaveform", this::getWaveform); }
+
+  private void getWaveform(PluginCall call, PluginMetrics.Span span) {
+
+    var fileUriStr = call.getString("fileUri");
+    if (fileUriStr == null) {
+      call.reject("Missing fileUri parameter");
+      return;
+    }
+    var fileUri = Uri.parse(fileUriStr);
+    var level = call.getInt("level", -1);
+
+    // cached peaks are read immediately, without waiting for running extractions
+    var cached = span.phase("cache", () -> waveformExtractor.loadCached(fileUri, level));
+    if (cached != null) {
+      resolveWaveform(call, cached, span);
+      return;
+    }
+
+    waveformExecutor.execute(() -> metrics.timed(call, "extractWaveform", (c, extractSpan) -> {
+      WaveformExtractor.Waveform waveform;
+      try (var ignored = extractSpan.phase("decode")) {
+        waveform = waveformExtractor.extract(fileUri, (offset, peaks, msPerPeak) -> {
+          var data = new JSObject();
+          data.put("fileUri", fileUriStr);
+          data.put("offset", offset);
+          data.put("msPerPeak", msPerPeak);
+          data.put("peaks", Base64.encodeToString(peaks, Base64.NO_WRAP));
+          notifyListeners("waveformProgress", data);
+        });
+      }
+      catch (Exception e) {
+        call.reject("Error decoding audio file: " + fileUriStr, e);
+        return;
+      }
+
+      // keep only the requested level
+      if (level >= 0) {
+        var l = level < waveform.levels.size() ? waveform.levels.get(level) : null;
+        waveform.levels.clear();
+        if (l != null) {
+          waveform.levels.add(l);
+        }
+      }
+      resolveWaveform(call, waveform, extractSpan);
+    }));
+
+  }
+
+  private static void resolveWaveform(PluginCall call, WaveformExtractor.Waveform waveform, PluginMetrics.Span span) {
+
+    var levels = new JSArray();
+    for (var l : waveform.levels) {
+      var item = new JSObject();
+      var peaks = Base64.encodeToString(l.peaks, Base64.NO_WRAP);
+      span.addBytes(peaks.length());
+      item.put("msPerPeak", l.msPerPeak);
+      item.put("peaks", peaks);
+      levels.put(item);
+    }
+    var res = new JSObject();
+    res.put("sampleRate", waveform.sampleRate);
+    res.put("durationMs", waveform.durationMs);
+    res.put("levels", levels);
+    call.resolve(res);
+
+  }
 
   // send events
   public void sendJSEvent(String eventName, JSObject data) { this.notifyListeners(eventName, data); }
@@ -12,17 +12,32 @@ import android.hardware.SensorManager;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.PowerManager;
 
 import androidx.annotation.Nullable;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.PluginCall;
 import com.github.nicorac.bcrgui.MainActivity;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Audio players service.
+ *
+ * All the player operations (plugin calls, progress updates, transport controls and proximity sensor
+ * changes) are serialized on a dedicated thread, so they never block the UI and never race
+ * with each other: the players collections must only be accessed on that thread.
+ */
 public class AudioPlayerService extends Service {
 
   private static final String ERR_BAD_ID = "Can't find a player instance with this 'id'";
@@ -36,18 +51,65 @@ public class AudioPlayerService extends Service {
   private PowerManager.WakeLock wakeLockPlay = null;
   private PowerManager.WakeLock wakeLockProximity = null;
 
-  // players collection
-  private final HashMap<Integer, MediaPlayerEx> players = new HashMap<>();
+  // max number of live players: least recently used idle players exceeding it are released
+  // (and transparently re-created when accessed again)
+  private static final int MAX_PLAYERS = 3;
+
+  // player operations thread
+  private HandlerThread playerThread;
+  private Handler playerHandler;
+
+  // players collection (in access order)
+  private final LinkedHashMap<Integer, MediaPlayerEx> players = new LinkedHashMap<>(8, .75f, true);
+
+  // source of the evicted players, keyed by id
+  private final HashMap<Integer, PlayerSource> evicted = new HashMap<>();
+
+  private static class PlayerSource {
+    final Uri fileUri;
+    final String title;
+    final String text;
+    final int updateInterval;
+    final float speed;
+
+    PlayerSource(Uri fileUri, String title, String text, int updateInterval, float speed) {
+      this.fileUri = fileUri;
+      this.title = title;
+      this.text = text;
+      this.updateInterval = updateInterval;
+      this.speed = speed;
+    }
+  }
 
   // reference to plugin
   private IJSEventSender plugin;
 
+  // media session notification, reflecting the status of the active (last played) player
+  private PlaybackNotification playbackNotification;
+  @Nullable private MediaPlayerEx activePlayer;
+
+  // progress updates of all players are collected and sent with a single "update" event
+  // (they're disabled while the app is in background)
+  private final LinkedHashMap<Integer, Integer> pendingUpdates = new LinkedHashMap<>();
+  private final Runnable sendUpdatesRunnable = this::sendUpdates;
+  private boolean updateEventsEnabled = true;
+
   // proximity sensor management
   private SensorManager sensorManager;
   private Sensor proximitySensor;
   private SensorEventListener proximityListener;
   private OutputDeviceEnum currentOutputDevice = null;
 
+  // skip interval of transport controls (ms)
+  private static final int DEFAULT_SKIP_INTERVAL = 10_000;
+  private int skipInterval = DEFAULT_SKIP_INTERVAL;
+
+  // silence skipping: silence maps are computed in background, one file at a time
+  private boolean skipSilence = false;
+  private SilenceDetector silenceDetector;
+  private ExecutorService analysisExecutor;
+  private final HashSet<Uri> pendingAnalyses = new HashSet<>();
+
   // Plugin <--> Service binding support
   private final IBinder binder = new AudioPlayerServiceBinder();
   public class AudioPlayerServiceBinder extends Binder {
@@ -61,6 +123,12 @@ public class AudioPlayerService extends Service {
   public void onCreate() {
 
     super.onCreate();
+    playerThread = new HandlerThread("BcrGuiAudioPlayer");
+    playerThread.start();
+    playerHandler = new Handler(playerThread.getLooper());
+    silenceDetector = new SilenceDetector(new WaveformExtractor(this));
+    analysisExecutor = Executors.newSingleThreadExecutor();
+
     var powerManager = (PowerManager) getSystemService(POWER_SERVICE);
     wakeLockPlay = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "BcrGuiAudioPlayerService::WakeLock");
     wakeLockProximity = powerManager.newWakeLock(PowerManager.PROXIMITY_SCREEN_OFF_WAKE_LOCK, "BcrGuiAudioPlayerService::ProximityWakeLock");
@@ -79,6 +147,8 @@ public class AudioPlayerService extends Service {
           NOTIFICATION_CHANNEL_NAME,
           NotificationManager.IMPORTANCE_DEFAULT
         );
+        channel.setImportance(NotificationManager.IMPORTANCE_LOW);  // needed to disable vibration!
+        channel.enableVibration(false);
         notificationManager.createNotificationChannel(channel);
       }
     }
@@ -89,18 +159,74 @@ public class AudioPlayerService extends Service {
       PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
     );
 
+    // transport controls (notification, lock screen, headset) act on the active player
+    playbackNotification = new PlaybackNotification(this, NOTIFICATION_CHANNEL_ID, bringAppToForegroundIntent, playerHandler, new PlaybackNotification.Controls() {
+
+      @Override
+      public void onPlay() {
+        if (activePlayer != null && !activePlayer.isPlaying()) {
+          activePlayer.start();
+          onPlayStatusChanged(activePlayer);
+        }
+      }
+
+      @Override
+      public void onPause() {
+        if (activePlayer != null && activePlayer.isPlaying()) {
+          activePlayer.pause();
+          onPlayStatusChanged(activePlayer);
+        }
+      }
+
+      @Override
+      public void onStop() {
+        var p = activePlayer;
+        if (p != null) {
+          if (p.isPlaying()) p.pause();
+          activePlayer = null;
+          onPlayStatusChanged(p);
+        }
+      }
+
+      @Override
+      public void onSeekTo(long position) {
+        if (activePlayer != null) {
+          activePlayer.seekTo((int) position);
+          onPlayStatusChanged(activePlayer);
+        }
+      }
+
+      @Override
+      public void onSkip(boolean forward) {
+        if (activePlayer != null) {
+          activePlayer.skip(forward ? skipInterval : -skipInterval);
+          onPlayStatusChanged(activePlayer);
+        }
+      }
+
+    });
+
   }
 
   @Override
   public void onDestroy() {
     super.onDestroy();
-    for (MediaPlayerEx i : players.values()) {
-      release(i);
-    }
-    players.clear();
-    cleanupProximitySensor();
-    if (wakeLockPlay.isHeld()) wakeLockPlay.release();
-    if (wakeLockProximity.isHeld()) wakeLockProximity.release();
+    analysisExecutor.shutdownNow();
+
+    // cleanup after pending commands, then stop the player thread
+    playerHandler.post(() -> {
+      for (MediaPlayerEx i : new ArrayList<>(players.values())) {
+        release(i);
+      }
+      players.clear();
+      evicted.clear();
+      playerHandler.removeCallbacks(sendUpdatesRunnable);
+      playbackNotification.release();
+      cleanupProximitySensor();
+      if (wakeLockPlay.isHeld()) wakeLockPlay.release();
+      if (wakeLockProximity.isHeld()) wakeLockProximity.release();
+    });
+    playerThread.quitSafely();
 
   }
 
@@ -115,7 +241,17 @@ public class AudioPlayerService extends Service {
   }
 
   /**
-   * Initialize a new player on the given audio file (or return the already existing one)
+   * Run the given command on the player thread.
+   * All the public player methods must be called through this.
+   */
+  public void execute(Runnable command) {
+    playerHandler.post(command);
+  }
+
+  /**
+   * Initialize a new player on the given audio file (or return the already existing one).
+   * The player is prepared in background: the call returns immediately and a "prepared" event
+   * is sent when it's ready (calls to the player are delayed until then).
    */
   public void init(PluginCall call) {
 
@@ -127,22 +263,30 @@ public class AudioPlayerService extends Service {
     }
     var notificationTitle = call.getString("notificationTitle", "");
     var notificationText = call.getString("notificationText", "");
+    var updateInterval = call.getInt("updateInterval");
 
     // calculate fileUri hash
     var id = fileUriStr.hashCode();
 
     // initialize media player (if needed)
-    if (!players.containsKey(id)) {
+    if (players.get(id) == null) {
       try {
-        var fileUri = Uri.parse(fileUriStr);
-        var mpe = createPlayerInstance(id, fileUri, notificationTitle, notificationText);
-        players.put(id, mpe);
+        evicted.remove(id);
+        addPlayer(id, new PlayerSource(
+          Uri.parse(fileUriStr), notificationTitle, notificationText,
+          updateInterval != null ? updateInterval : MediaPlayerEx.DEFAULT_UPDATE_INTERVAL,
+          1f
+        ));
       } catch (Exception e) {
         call.reject("Error loading audio file: " + fileUriStr);
         return;
       }
     }
 
+    if (updateInterval != null) {
+      players.get(id).setUpdateInterval(updateInterval);
+    }
+
     // return id of the new/existing MediaPlayer instance
     var res = new JSObject();
     res.put("id", id);
@@ -156,6 +300,11 @@ public class AudioPlayerService extends Service {
   public void setConfiguration(PluginCall call) {
 
     var enableEarpiece = call.getBoolean("enableEarpiece", false);
+    skipInterval = call.getInt("skipInterval", DEFAULT_SKIP_INTERVAL);
+    skipSilence = call.getBoolean("skipSilence", false);
+    for (var p : players.values()) {
+      setSkipSilence(p);
+    }
 
     // initialize proximity sensor when earpiece is enabled
     if (enableEarpiece != null && enableEarpiece) {
@@ -169,6 +318,69 @@ public class AudioPlayerService extends Service {
 
   }
 
+  /**
+   * Create a new player and release the least recently used idle ones exceeding MAX_PLAYERS
+   */
+  private MediaPlayerEx addPlayer(int id, PlayerSource source) {
+
+    var mpe = createPlayerInstance(id, source.fileUri, source.title, source.text);
+    mpe.setUpdateInterval(source.updateInterval);
+    mpe.setSpeed(source.speed);
+    mpe.setUpdateEventsEnabled(updateEventsEnabled);
+    players.put(id, mpe);
+    setSkipSilence(mpe);
+
+    // evict idle players (the new one is the most recently used, players with pending calls are kept)
+    var excess = players.size() - MAX_PLAYERS;
+    var toEvict = new ArrayList<MediaPlayerEx>();
+    for (var p : players.values()) {
+      if (excess <= 0) break;
+      if (p.id != id && !p.isPlaying() && !p.hasPendingActions()) {
+        toEvict.add(p);
+        excess--;
+      }
+    }
+    for (var p : toEvict) {
+      evicted.put(p.id, new PlayerSource(p.fileUri, p.title, p.text, p.getUpdateInterval(), p.getSpeed()));
+      release(p);
+    }
+
+    return mpe;
+
+  }
+
+  /**
+   * Apply the silence skipping option to the given player, starting the analysis of its file if needed
+   */
+  private void setSkipSilence(MediaPlayerEx p) {
+
+    p.setSkipSilence(skipSilence);
+    if (!skipSilence || p.getSilenceMap() != null || !pendingAnalyses.add(p.fileUri)) {
+      return;
+    }
+
+    analysisExecutor.execute(() -> {
+      SilenceDetector.SilenceMap map;
+      try {
+        map = silenceDetector.analyze(p.fileUri);
+      }
+      catch (Exception e) {
+        // (unreadable files are played without skipping)
+        map = null;
+      }
+      var result = map;
+      playerHandler.post(() -> {
+        pendingAnalyses.remove(p.fileUri);
+        // (player could have been re-created meanwhile)
+        var current = players.get(p.id);
+        if (current != null && result != null) {
+          current.setSilenceMap(result);
+        }
+      });
+    });
+
+  }
+
   /**
    * Create a new instance of MediaPlayer class
    */
@@ -182,18 +394,32 @@ public class AudioPlayerService extends Service {
       new OnEventListener() {
 
         @Override
-        public PendingIntent getNotificationClickIntent() { return bringAppToForegroundIntent; }
+        public void onPrepared(MediaPlayerEx player) {
+          var res = new JSObject();
+          res.put("id", id);
+          res.put("duration", player.getDuration());
+          plugin.sendJSEvent("prepared", res);
+        }
 
         @Override
         public void onUpdate(MediaPlayerEx player) {
-          var res = new JSObject();
-          res.put("id", id);
-          res.put("position", player.getCurrentPosition());
-          plugin.sendJSEvent("update", res);
+          queueUpdate(player);
+        }
+
+        @Override
+        public void onSilenceSkipped(MediaPlayerEx player) {
+          if (player == activePlayer) {
+            updatePlaybackNotification();
+          }
         }
 
         @Override
         public void onCompletion(MediaPlayerEx mp) {
+          if (mp == activePlayer) {
+            activePlayer = null;
+            updatePlaybackNotification();
+          }
+          wakeLockUpdate();
           var res = new JSObject();
           res.put("id", id);
           plugin.sendJSEvent("playCompleted", res);
@@ -205,6 +431,57 @@ public class AudioPlayerService extends Service {
 
   }
 
+  /**
+   * Enable/disable progress update events (e.g. while the app is in background).
+   * When enabled, the current position of the playing players is sent immediately.
+   */
+  public void setUpdateEventsEnabled(boolean enabled) {
+
+    updateEventsEnabled = enabled;
+    for (var p : players.values()) {
+      p.setUpdateEventsEnabled(enabled);
+      if (enabled && p.isPlaying()) {
+        queueUpdate(p);
+      }
+    }
+    if (!enabled) {
+      pendingUpdates.clear();
+    }
+
+  }
+
+  /**
+   * Queue a progress update of the given player, to be sent together with the ones of the other players
+   */
+  private void queueUpdate(MediaPlayerEx player) {
+    if (pendingUpdates.isEmpty()) {
+      playerHandler.post(sendUpdatesRunnable);
+    }
+    pendingUpdates.put(player.id, player.getCurrentPosition());
+  }
+
+  /**
+   * Send queued progress updates
+   */
+  private void sendUpdates() {
+
+    if (pendingUpdates.isEmpty()) return;
+
+    var items = new JSArray();
+    for (var e : pendingUpdates.entrySet()) {
+      var item = new JSObject();
+      item.put("id", e.getKey());
+      item.put("position", e.getValue());
+      items.put(item);
+    }
+    pendingUpdates.clear();
+
+    var res = new JSObject();
+    res.put("players", items);
+    plugin.sendJSEvent("update", res);
+
+  }
+
   /**
    * Release current audio file and free the linked MediaPlayer
    */
@@ -218,13 +495,13 @@ public class AudioPlayerService extends Service {
 
     // remove item
     var p = players.get(id);
-    if (p == null) {
+    if (p != null) {
+      release(p);
+    }
+    else if (evicted.remove(id) == null) {
       call.reject(ERR_BAD_ID);
       return;
     }
-    else {
-      release(p);
-    }
 
     call.resolve();
 
@@ -238,6 +515,10 @@ public class AudioPlayerService extends Service {
       stop(p);
       p.release();
       players.remove(p.id);
+      if (p == activePlayer) {
+        activePlayer = null;
+        updatePlaybackNotification();
+      }
     }
     catch (Exception ignored) {}
   }
@@ -251,16 +532,20 @@ public class AudioPlayerService extends Service {
     var p = getPlayerInstance(call);
     if (p == null) return;
 
-    // test if a position has been passed
-    var position = call.getInt("position");
-    if (position != null) {
-      p.seekTo(position);
-    }
-    if (!p.isPlaying()) {
-      p.start();
-      wakeLockUpdate();
-    }
-    call.resolve();
+    whenPrepared(call, p, () -> {
+      // test if a position has been passed
+      var position = call.getInt("position");
+      if (position != null) {
+        p.seekTo(position);
+      }
+      if (!p.isPlaying()) {
+        p.start();
+        wakeLockUpdate();
+      }
+      activePlayer = p;
+      updatePlaybackNotification();
+      call.resolve();
+    });
 
   }
 
@@ -276,6 +561,9 @@ public class AudioPlayerService extends Service {
     if (i.isPlaying()) {
       i.pause();
       wakeLockUpdate();
+      if (i == activePlayer) {
+        updatePlaybackNotification();
+      }
     }
     call.resolve();
 
@@ -296,10 +584,62 @@ public class AudioPlayerService extends Service {
     if (p.isPlaying()) {
       p.stop();
       wakeLockUpdate();
+      if (p == activePlayer) {
+        updatePlaybackNotification();
+      }
     }
 
   }
 
+  /**
+   * Set playback speed (pitch is preserved)
+   */
+  public void setSpeed(PluginCall call) {
+
+    // get target player
+    var p = getPlayerInstance(call);
+    if (p == null) return;
+
+    var speed = call.getFloat("speed");
+    if (speed == null) {
+      call.reject("Missing 'speed' parameter");
+      return;
+    }
+    if (!MediaPlayerEx.isSpeedSupported()) {
+      call.reject("Playback speed is not supported on this Android version");
+      return;
+    }
+
+    var res = new JSObject();
+    res.put("speed", p.setSpeed(speed));
+    if (p == activePlayer) {
+      updatePlaybackNotification();
+    }
+    call.resolve(res);
+
+  }
+
+  /**
+   * Move play position by the given offset (ms, negative to skip back)
+   */
+  public void skip(PluginCall call) {
+
+    // get target player
+    var p = getPlayerInstance(call);
+    if (p == null) return;
+
+    var offset = call.getInt("offset", skipInterval);
+    whenPrepared(call, p, () -> {
+      var res = new JSObject();
+      res.put("position", p.skip(offset));
+      if (p == activePlayer) {
+        updatePlaybackNotification();
+      }
+      call.resolve(res);
+    });
+
+  }
+
   /**
    * Get current audio duration (in milliseconds)
    */
@@ -309,9 +649,11 @@ public class AudioPlayerService extends Service {
     var i = getPlayerInstance(call);
     if (i == null) return;
 
-    var res = new JSObject();
-    res.put("duration", i.getDuration());
-    call.resolve(res);
+    whenPrepared(call, i, () -> {
+      var res = new JSObject();
+      res.put("duration", i.getDuration());
+      call.resolve(res);
+    });
 
   }
 
@@ -324,9 +666,34 @@ public class AudioPlayerService extends Service {
     var i = getPlayerInstance(call);
     if (i == null) return;
 
+    whenPrepared(call, i, () -> {
+      var res = new JSObject();
+      res.put("currentTime", i.getCurrentPosition());
+      call.resolve(res);
+    });
+
+  }
+
+  /**
+   * Update the media session notification with the status of the active player
+   */
+  private void updatePlaybackNotification() {
+    playbackNotification.update(activePlayer);
+  }
+
+  /**
+   * Handle a play status change requested by transport controls
+   */
+  private void onPlayStatusChanged(MediaPlayerEx p) {
+
+    wakeLockUpdate();
+    updatePlaybackNotification();
+
     var res = new JSObject();
-    res.put("currentTime", i.getCurrentPosition());
-    call.resolve(res);
+    res.put("id", p.id);
+    res.put("playing", p.isPlaying());
+    res.put("position", p.getCurrentPosition());
+    plugin.sendJSEvent("playStatusChanged", res);
 
   }
 
@@ -377,6 +744,17 @@ public class AudioPlayerService extends Service {
 
     var i = players.get(id);
     if (i == null) {
+      // re-create evicted player
+      var source = evicted.remove(id);
+      if (source != null) {
+        try {
+          return addPlayer(id, source);
+        }
+        catch (Exception e) {
+          call.reject("Error loading audio file: " + source.fileUri);
+          return null;
+        }
+      }
       call.reject(ERR_BAD_ID);
     }
 
@@ -384,6 +762,24 @@ public class AudioPlayerService extends Service {
 
   }
 
+  /**
+   * Run the given action once the player has been prepared (rejecting the call if preparation fails)
+   */
+  private void whenPrepared(PluginCall call, MediaPlayerEx p, Runnable action) {
+    p.whenPrepared(() -> {
+      if (p.isPrepared()) {
+        action.run();
+      }
+      else {
+        if (players.get(p.id) == p) {
+          players.remove(p.id);
+        }
+        p.release();
+        call.reject("Error loading audio file: " + p.fileUri);
+      }
+    });
+  }
+
   /**
    * Change output device for all players
    * @param newDevice Can be "ear" or "loud"
@@ -392,7 +788,7 @@ public class AudioPlayerService extends Service {
 
     currentOutputDevice = newDevice;
 
-    // change device (will reinitialize the players)
+    // change device (players are re-routed while playing, or re-initialized where not supported)
     // and test if any player is playing?
     var isPlaying = false;
     for (MediaPlayerEx p : players.values()) {
@@ -448,7 +844,8 @@ public class AudioPlayerService extends Service {
     };
 
     // Register the proximity sensor listener
-    sensorManager.registerListener(proximityListener, proximitySensor, SensorManager.SENSOR_DELAY_NORMAL);
+    // (sensor events are delivered on the player thread)
+    sensorManager.registerListener(proximityListener, proximitySensor, SensorManager.SENSOR_DELAY_NORMAL, playerHandler);
 
   }
 
@@ -1,33 +1,35 @@
 package com.github.nicorac.plugins.audioplayer;
 
-import static android.content.Context.NOTIFICATION_SERVICE;
-
-import android.annotation.SuppressLint;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.content.Context;
 import android.media.AudioAttributes;
+import android.media.AudioDeviceInfo;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
-import androidx.core.app.NotificationCompat;
-
-import com.github.nicorac.bcrgui.R;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Wrapper class to keep data of each media player instance together
  */
 public class MediaPlayerEx {
 
-  private static final int UPDATE_INTERVAL = 300;
-  private static final String NOTIFICATION_CHANNEL_ID = "BCR-GUI";
-  private static final String NOTIFICATION_CHANNEL_NAME = "BCR-GUI - Play status";
+  // default and min interval of progress updates (ms)
+  public static final int DEFAULT_UPDATE_INTERVAL = 300;
+  private static final int MIN_UPDATE_INTERVAL = 50;
+
+  // supported playback speed range
+  public static final float MIN_SPEED = 0.5f;
+  public static final float MAX_SPEED = 3f;
+
+  // max time for a routing change to be applied (before falling back to player re-initialization)
+  private static final long ROUTING_TIMEOUT_MS = 500;
 
   public final Context context;
   public final Uri fileUri;
@@ -36,18 +38,39 @@ public class MediaPlayerEx {
   public final String text;
   private OutputDeviceEnum device;
   private android.media.MediaPlayer player;
+  // true if the current player has been created with voice (earpiece) audio attributes
+  private boolean voiceAttributes;
   private final AudioManager audioManager;
-  @Nullable
-  public androidx.core.app.NotificationCompat.Builder notificationBuilder;
 
-  // events and update handler
-  private final Handler handler = new Handler(Looper.getMainLooper());
+  // playback speed (kept across player re-initializations) and the one applied to the current player
+  private float speed = 1f;
+  private float appliedSpeed = 1f;
+
+  // events and update handler (on the thread creating the player, where MediaPlayer callbacks are delivered too)
+  private final Handler handler = new Handler(Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper());
   private Runnable updateRunnable;
   private final OnEventListener eventListener;
+  private int updateInterval = DEFAULT_UPDATE_INTERVAL;
+  // when disabled, no periodic updates are done
+  private boolean updateEventsEnabled = true;
+
+  // silent ranges skipped while playing (when enabled)
+  @Nullable private SilenceDetector.SilenceMap silenceMap;
+  private boolean skipSilence = false;
+
+  // asynchronous preparation status
+  private boolean prepared = false;
+  private boolean prepareFailed = false;
+  private final ArrayList<Runnable> preparedActions = new ArrayList<>();
+
+  // status restored once a re-initialized player is prepared
+  private boolean restorePending = false;
+  private int restorePosition;
+  private boolean restorePlaying;
 
-  // notification management
-  private static NotificationManager notificationManager;
-  private boolean isNotificationVisible = false;
+  // type of the device the player has been routed to, not yet verified (TYPE_UNKNOWN if none)
+  private int unverifiedRouteType = AudioDeviceInfo.TYPE_UNKNOWN;
+  private final Runnable routingCheck = this::checkRouting;
 
 
   MediaPlayerEx(Context context, Uri fileUri, String title, String text, OnEventListener listener, OutputDeviceEnum device) {
@@ -57,29 +80,11 @@ public class MediaPlayerEx {
     this.id = fileUri.hashCode();
     this.title = title;
     this.text = text;
-    this.device = device;
+    this.device = device != null ? device : OutputDeviceEnum.Loudspeaker;
     this.eventListener = listener;
 
     audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
 
-    // get instance of NotificationManager and create notifications channel
-    if (notificationManager == null) {
-      notificationManager = (NotificationManager) context.getSystemService(NOTIFICATION_SERVICE);
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-        var channel = new NotificationChannel(
-          NOTIFICATION_CHANNEL_ID,
-          NOTIFICATION_CHANNEL_NAME,
-          NotificationManager.IMPORTANCE_DEFAULT
-        );
-        channel.setImportance(NotificationManager.IMPORTANCE_LOW);  // needed to disable vibration!
-        channel.enableVibration(false);
-        notificationManager.createNotificationChannel(channel);
-      }
-    }
-
-    // init a new notification builder
-    notificationBuilder = new androidx.core.app.NotificationCompat.Builder(context, NOTIFICATION_CHANNEL_ID);
-
     // create MediaPlayer instance
     initializePlayer();
 
@@ -95,6 +100,12 @@ public class MediaPlayerEx {
       player.release();
       player = null;
     }
+    prepared = false;
+    prepareFailed = false;
+    appliedSpeed = 1f;
+    unverifiedRouteType = AudioDeviceInfo.TYPE_UNKNOWN;
+    handler.removeCallbacks(routingCheck);
+    voiceAttributes = device == OutputDeviceEnum.Earpiece;
 
     player = new android.media.MediaPlayer();
     AudioAttributes audioAttributes = null;
@@ -124,25 +135,47 @@ public class MediaPlayerEx {
     try {
       player.setAudioAttributes(audioAttributes);
       player.setDataSource(context, fileUri);
-      player.prepare();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
 
+    // prepare in background (actions requested meanwhile are run once prepared)
+    player.setOnPreparedListener(mp -> {
+      prepared = true;
+      runPreparedActions();
+      this.eventListener.onPrepared(this);
+    });
+    player.setOnErrorListener((mp, what, extra) -> {
+      if (prepared) {
+        // playback error: let completion handler run
+        return false;
+      }
+      prepareFailed = true;
+      runPreparedActions();
+      return true;
+    });
+    player.prepareAsync();
+
     // attach completion handler
     player.setOnCompletionListener(mp -> {
       stopUpdateTask();
-      cancelNotification();
       this.eventListener.onCompletion(this);
     });
 
   }
 
   /**
-   * (Re)initialize the MediaPlayer instance on a new output device
+   * Change the output device of the player
    * @param newDevice can be "ear" or "loud"
    */
   public void setOutputDevice(OutputDeviceEnum newDevice) {
+    setOutputDevice(newDevice, true);
+  }
+
+  /**
+   * @param allowRouting false to always re-initialize the player (used by benchmarks)
+   */
+  void setOutputDevice(OutputDeviceEnum newDevice, boolean allowRouting) {
 
     if (newDevice == null || newDevice.equals(device)) {
       return;
@@ -151,73 +184,302 @@ public class MediaPlayerEx {
     // update device
     this.device = newDevice;
 
-    // save current position and pause
-    var curPos = 0;
-    var wasPlaying = isPlaying();
-    if (wasPlaying) {
-      stop();
-      curPos = getCurrentPosition();
+    // route the live player to the new device (no playback gaps),
+    // re-initialize it where routing is not supported
+    if (!allowRouting || !routeToDevice()) {
+      reinitializePlayer();
+    }
+
+  }
+
+  /**
+   * Route the live player to the current output device.
+   * Audio attributes can't be changed once the player is prepared, so a player created for the loudspeaker
+   * (media attributes) is never routed to the earpiece, where it would play at media volume against the ear.
+   * A player created for the earpiece is routed to the loudspeaker with its voice attributes instead
+   * (like a speakerphone call).
+   *
+   * @return false if the player can't be routed and must be re-initialized
+   */
+  private boolean routeToDevice() {
+
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P || !prepared) {
+      return false;
+    }
+    if (device == OutputDeviceEnum.Earpiece && !voiceAttributes) {
+      return false;
+    }
+
+    var type = device == OutputDeviceEnum.Earpiece
+      ? AudioDeviceInfo.TYPE_BUILTIN_EARPIECE
+      : AudioDeviceInfo.TYPE_BUILTIN_SPEAKER;
+    for (var d : audioManager.getDevices(AudioManager.GET_DEVICES_OUTPUTS)) {
+      if (d.getType() == type) {
+        audioManager.setSpeakerphoneOn(device == OutputDeviceEnum.Loudspeaker);
+        if (!player.setPreferredDevice(d)) {
+          return false;
+        }
+        // the preferred device has only been stored: verify the route is actually changed
+        unverifiedRouteType = type;
+        handler.removeCallbacks(routingCheck);
+        handler.postDelayed(routingCheck, ROUTING_TIMEOUT_MS);
+        return true;
+      }
+    }
+    return false;
+
+  }
+
+  /**
+   * Re-initialize the player if it's not routed to the last requested device
+   */
+  private void checkRouting() {
+
+    // (there's no route while not playing: it's checked once playback starts, see start())
+    if (unverifiedRouteType == AudioDeviceInfo.TYPE_UNKNOWN || !isPlaying()) {
+      return;
+    }
+    var type = unverifiedRouteType;
+    unverifiedRouteType = AudioDeviceInfo.TYPE_UNKNOWN;
+    if (getRoutedDeviceType() != type) {
+      reinitializePlayer();
+    }
+
+  }
+
+  /**
+   * Re-initialize the MediaPlayer instance on the current output device, restoring position and play status
+   */
+  private void reinitializePlayer() {
+
+    // save current status
+    // (if a previous re-initialization is still pending, its saved status and restore action are kept,
+    // because the unprepared player has no position nor play status)
+    var wasPending = restorePending;
+    if (!wasPending) {
+      restorePosition = getCurrentPosition();
+      restorePlaying = isPlaying();
+      restorePending = true;
+      if (restorePlaying) {
+        stop();
+      }
     }
 
     // re-init player
     initializePlayer();
 
     // restore previous status
-    if (wasPlaying) {
-      seekTo(curPos);
-      start();
+    if (!wasPending) {
+      whenPrepared(() -> {
+        restorePending = false;
+        if (prepared) {
+          seekTo(restorePosition);
+          if (restorePlaying) start();
+        }
+      });
     }
 
   }
 
+  /**
+   * Return the type of the device the player is currently routed to (TYPE_UNKNOWN if not available)
+   */
+  int getRoutedDeviceType() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      var d = player.getRoutedDevice();
+      if (d != null) return d.getType();
+    }
+    return AudioDeviceInfo.TYPE_UNKNOWN;
+  }
+
+  /**
+   * Run the given action once the player preparation completes (immediately if already completed).
+   * The action is run also if preparation fails, so it should check isPrepared().
+   */
+  public void whenPrepared(Runnable action) {
+    if (prepared || prepareFailed) {
+      action.run();
+    }
+    else {
+      preparedActions.add(action);
+    }
+  }
+
+  /**
+   * Return true if some actions are waiting for the player preparation
+   */
+  public boolean hasPendingActions() { return !preparedActions.isEmpty(); }
+
+  private void runPreparedActions() {
+    var actions = new ArrayList<>(preparedActions);
+    preparedActions.clear();
+    for (var a : actions) {
+      a.run();
+    }
+  }
+
+  public boolean isPrepared() { return prepared; }
+
   // export player methods
 
   public void start() {
-    startUpdateTask();
-    createNotification();
+    applySpeed();
     player.start();
+    startUpdateTask();
+    if (unverifiedRouteType != AudioDeviceInfo.TYPE_UNKNOWN) {
+      handler.removeCallbacks(routingCheck);
+      handler.postDelayed(routingCheck, ROUTING_TIMEOUT_MS);
+    }
   }
 
   public void pause() {
+    if (prepared) player.pause();
     stopUpdateTask();
-    cancelNotification();
-    player.pause();
   }
 
   public void stop() {
+    if (prepared) player.stop();
     stopUpdateTask();
-    cancelNotification();
-    player.stop();
   }
 
   public void release() {
     stop();
+    handler.removeCallbacks(routingCheck);
     player.release();
+    // actions still waiting for the preparation see it as failed (pending calls are rejected)
+    prepared = false;
+    prepareFailed = true;
+    runPreparedActions();
+  }
+
+  /**
+   * Set playback speed (pitch is preserved)
+   *
+   * @return the applied speed (clamped to MIN_SPEED..MAX_SPEED)
+   */
+  public float setSpeed(float speed) {
+    this.speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+    // (a paused player gets it when started, because setting a non-zero speed starts playback)
+    if (isPlaying()) {
+      applySpeed();
+    }
+    return this.speed;
+  }
+
+  public float getSpeed() { return speed; }
+
+  public static boolean isSpeedSupported() { return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M; }
+
+  private void applySpeed() {
+    if (isSpeedSupported() && prepared && speed != appliedSpeed) {
+      player.setPlaybackParams(player.getPlaybackParams().setSpeed(speed).setPitch(1f));
+      appliedSpeed = speed;
+    }
+  }
+
+  /**
+   * Move the play position by the given offset (ms, negative to skip back)
+   *
+   * @return the new position
+   */
+  public int skip(int offset) {
+    var position = Math.max(0, Math.min(getDuration(), getCurrentPosition() + offset));
+    seekTo(position);
+    return position;
+  }
+
+  /**
+   * Enable/disable skipping of silences (as soon as a silence map is available)
+   */
+  public void setSkipSilence(boolean enabled) {
+    this.skipSilence = enabled;
+    resumeUpdateTask();
+  }
+
+  /**
+   * Set the silent ranges of the audio file
+   */
+  void setSilenceMap(@Nullable SilenceDetector.SilenceMap silenceMap) {
+    this.silenceMap = silenceMap;
+    resumeUpdateTask();
+  }
+
+  @Nullable
+  SilenceDetector.SilenceMap getSilenceMap() { return silenceMap; }
+
+  private boolean isSkippingSilence() { return skipSilence && silenceMap != null; }
+
+  /**
+   * Jump to the end of the silence containing the current position (if any)
+   */
+  private void skipCurrentSilence() {
+    if (isSkippingSilence() && isPlaying()) {
+      var end = silenceMap.getSilenceEnd(getCurrentPosition());
+      if (end > 0) {
+        seekTo(end);
+        eventListener.onSilenceSkipped(this);
+      }
+    }
   }
 
   public boolean isPlaying() { return player.isPlaying(); }
   public void seekTo(int position) { player.seekTo(position); }
-  public int getDuration() { return player.getDuration(); }
-  public String getDurationHMS() { return toHMS(player.getDuration()); }
-  public int getCurrentPosition() { return player.getCurrentPosition(); }
-  public String getCurrentPositionHMS() { return toHMS(player.getCurrentPosition()); }
+  public int getDuration() { return prepared ? player.getDuration() : 0; }
+  public String getDurationHMS() { return toHMS(getDuration()); }
+  public int getCurrentPosition() { return prepared ? player.getCurrentPosition() : 0; }
+  public String getCurrentPositionHMS() { return toHMS(getCurrentPosition()); }
 
   /**
-   * Start an update task (each UPDATE_INTERVAL ms) to update notification text
+   * Set the interval of progress updates (ms)
+   */
+  public void setUpdateInterval(int updateInterval) {
+    this.updateInterval = Math.max(MIN_UPDATE_INTERVAL, updateInterval);
+  }
+
+  public int getUpdateInterval() { return updateInterval; }
+
+  /**
+   * Enable/disable progress update events
+   */
+  public void setUpdateEventsEnabled(boolean enabled) {
+    this.updateEventsEnabled = enabled;
+    if (enabled) {
+      resumeUpdateTask();
+    }
+  }
+
+  /**
+   * Restart the update task (if suspended)
+   */
+  private void resumeUpdateTask() {
+    if (updateRunnable != null) {
+      handler.removeCallbacks(updateRunnable);
+      handler.postAtTime(updateRunnable, getNextUpdateTime());
+    }
+  }
+
+  /**
+   * Start an update task (each updateInterval ms) to skip silences and send progress
+   * (the task is suspended while update events are disabled and no silences are skipped)
    */
   private void startUpdateTask() {
 
+    if (updateRunnable != null) {
+      handler.removeCallbacks(updateRunnable);
+    }
     updateRunnable = new Runnable() {
       @Override
       public void run() {
+        skipCurrentSilence();
         doUpdate();
-        // Post the same runnable again after UPDATE_INTERVAL ms
-        handler.postDelayed(this, UPDATE_INTERVAL);
+        // Post the same runnable again at next update time
+        if (updateEventsEnabled || isSkippingSilence()) {
+          handler.postAtTime(this, getNextUpdateTime());
+        }
       }
     };
     // first trigger
-    doUpdate();
-    handler.postDelayed(updateRunnable, UPDATE_INTERVAL);
+    updateRunnable.run();
   }
 
   /**
@@ -232,67 +494,38 @@ public class MediaPlayerEx {
   }
 
   private void doUpdate() {
-    eventListener.onUpdate(MediaPlayerEx.this);
-    updateNotification();
-  }
-
-  @SuppressLint("DefaultLocale")
-  private String toHMS(int milliseconds) {
-    long hours = milliseconds / (1000 * 60 * 60);
-    milliseconds %= (1000 * 60 * 60);
-    long minutes = milliseconds / (1000 * 60);
-    milliseconds %= (1000 * 60);
-    long seconds = milliseconds / 1000;
-    if (hours > 0) {
-      return String.format("%02d:%02d:%02d", hours, minutes, seconds);
-    }
-    else {
-      return String.format("%02d:%02d", minutes, seconds);
+    if (updateEventsEnabled) {
+      eventListener.onUpdate(MediaPlayerEx.this);
     }
   }
 
   /**
-   * Create notification
+   * Return the (uptime) time of the next update
+   * (aligned to the interval, so updates of players with the same interval are sent together)
    */
-  private void createNotification() {
-
-    if (isNotificationVisible) {
-      cancelNotification();
-    }
-
-    assert notificationBuilder != null;
-    notificationBuilder
-      .setContentTitle(title)
-      .setSmallIcon(R.drawable.ic_notification)
-      .setPriority(NotificationCompat.PRIORITY_DEFAULT)
-      .setContentIntent(this.eventListener.getNotificationClickIntent())
-      .setVibrate(new long[]{0L})
-      // Set as "persistent"
-      //.setOngoing(true)
-    ;
-
-    updateNotification();
-    isNotificationVisible = true;
+  private long getNextUpdateTime() {
+    var now = SystemClock.uptimeMillis();
+    return now + updateInterval - (now % updateInterval);
   }
 
   /**
-   * Update existing notification
+   * Format the given time as [HH:]MM:SS
    */
-  public void updateNotification() {
-    if (isNotificationVisible) {
-      assert notificationBuilder != null;
-      notificationBuilder.setContentText(getCurrentPositionHMS() + " / " + getDurationHMS());
-      // set/update the notification
-      notificationManager.notify(id, notificationBuilder.build());
+  private static String toHMS(int milliseconds) {
+    var totalSeconds = milliseconds / 1000;
+    var hours = totalSeconds / 3600;
+    var sb = new StringBuilder(8);
+    if (hours > 0) {
+      appendTwoDigits(sb, hours).append(':');
     }
+    appendTwoDigits(sb, (totalSeconds / 60) % 60).append(':');
+    appendTwoDigits(sb, totalSeconds % 60);
+    return sb.toString();
   }
 
-  /**
-   * Cancel existing notification
-   */
-  public void cancelNotification() {
-    notificationManager.cancel(id);
-    isNotificationVisible = false;
+  private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+    if (value < 10) sb.append('0');
+    return sb.append(value);
   }
 
 }
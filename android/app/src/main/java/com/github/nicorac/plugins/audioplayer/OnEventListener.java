@@ -1,21 +1,24 @@
 package com.github.nicorac.plugins.audioplayer;
 
-import android.app.PendingIntent;
-
 public interface OnEventListener {
 
+  /**
+   * Called when the player has been prepared and is ready to play
+   */
+  void onPrepared(MediaPlayerEx mp);
+
   /**
    * Called during play to update status
    */
   void onUpdate(MediaPlayerEx mp);
 
-  /*
-   * Called when the end of a media source is reached during playback.
+  /**
+   * Called when the player jumps over a silence
    */
-  void onCompletion(MediaPlayerEx mp);
+  void onSilenceSkipped(MediaPlayerEx mp);
 
   /*
-   * Intent called when user clicks on notification
+   * Called when the end of a media source is reached during playback.
    */
-  PendingIntent getNotificationClickIntent();
+  void onCompletion(MediaPlayerEx mp);
 }
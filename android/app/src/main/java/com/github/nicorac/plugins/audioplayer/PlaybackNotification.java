@@ -0,0 +1,173 @@
+package com.github.nicorac.plugins.audioplayer;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.github.nicorac.bcrgui.R;
+
+/**
+ * Media session and its (single) media style notification, reflecting the status of the active player.
+ *
+ * Transport controls (from notification, lock screen and headset buttons) are handled natively
+ * and forwarded to the given Controls, on the thread of the given handler.
+ */
+class PlaybackNotification {
+
+  /**
+   * Transport controls handler
+   */
+  interface Controls {
+    void onPlay();
+    void onPause();
+    void onStop();
+    void onSeekTo(long position);
+    void onSkip(boolean forward);
+  }
+
+  private static final int NOTIFICATION_ID = 1;
+
+  // notification actions
+  private static final String ACTION_PLAY = "com.github.nicorac.plugins.audioplayer.PLAY";
+  private static final String ACTION_PAUSE = "com.github.nicorac.plugins.audioplayer.PAUSE";
+  private static final String ACTION_STOP = "com.github.nicorac.plugins.audioplayer.STOP";
+  private static final String ACTION_REWIND = "com.github.nicorac.plugins.audioplayer.REWIND";
+  private static final String ACTION_FAST_FORWARD = "com.github.nicorac.plugins.audioplayer.FAST_FORWARD";
+
+  private static final long SUPPORTED_ACTIONS = PlaybackStateCompat.ACTION_PLAY
+    | PlaybackStateCompat.ACTION_PAUSE
+    | PlaybackStateCompat.ACTION_PLAY_PAUSE
+    | PlaybackStateCompat.ACTION_STOP
+    | PlaybackStateCompat.ACTION_SEEK_TO
+    | PlaybackStateCompat.ACTION_REWIND
+    | PlaybackStateCompat.ACTION_FAST_FORWARD;
+
+  private final Context context;
+  private final String channelId;
+  private final PendingIntent contentIntent;
+  private final NotificationManager notificationManager;
+  private final MediaSessionCompat session;
+
+  private final BroadcastReceiver actionsReceiver;
+
+  PlaybackNotification(Context context, String channelId, PendingIntent contentIntent, Handler handler, Controls controls) {
+
+    this.context = context;
+    this.channelId = channelId;
+    this.contentIntent = contentIntent;
+    notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+    // media session (lock screen and headset buttons)
+    session = new MediaSessionCompat(context, "BcrGuiAudioPlayer");
+    session.setCallback(new MediaSessionCompat.Callback() {
+      @Override public void onPlay() { controls.onPlay(); }
+      @Override public void onPause() { controls.onPause(); }
+      @Override public void onStop() { controls.onStop(); }
+      @Override public void onSeekTo(long pos) { controls.onSeekTo(pos); }
+      @Override public void onRewind() { controls.onSkip(false); }
+      @Override public void onFastForward() { controls.onSkip(true); }
+    }, handler);
+
+    // notification actions
+    actionsReceiver = new BroadcastReceiver() {
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        var action = intent.getAction();
+        if (ACTION_PLAY.equals(action)) controls.onPlay();
+        else if (ACTION_PAUSE.equals(action)) controls.onPause();
+        else if (ACTION_STOP.equals(action)) controls.onStop();
+        else if (ACTION_REWIND.equals(action)) controls.onSkip(false);
+        else if (ACTION_FAST_FORWARD.equals(action)) controls.onSkip(true);
+      }
+    };
+    var filter = new IntentFilter();
+    filter.addAction(ACTION_PLAY);
+    filter.addAction(ACTION_PAUSE);
+    filter.addAction(ACTION_STOP);
+    filter.addAction(ACTION_REWIND);
+    filter.addAction(ACTION_FAST_FORWARD);
+    ContextCompat.registerReceiver(context, actionsReceiver, filter, null, handler, ContextCompat.RECEIVER_NOT_EXPORTED);
+
+  }
+
+  /**
+   * Update session and notification with the status of the given player (null to hide them)
+   */
+  void update(@Nullable MediaPlayerEx player) {
+
+    if (player == null) {
+      notificationManager.cancel(NOTIFICATION_ID);
+      session.setActive(false);
+      return;
+    }
+
+    var playing = player.isPlaying();
+    session.setMetadata(new MediaMetadataCompat.Builder()
+      .putString(MediaMetadataCompat.METADATA_KEY_TITLE, player.title)
+      .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, player.text)
+      .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, player.getDuration())
+      .build()
+    );
+    // (position is advanced by the system, so no periodic updates are needed)
+    session.setPlaybackState(new PlaybackStateCompat.Builder()
+      .setActions(SUPPORTED_ACTIONS)
+      .setState(
+        playing ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED,
+        player.getCurrentPosition(),
+        playing ? player.getSpeed() : 0f
+      )
+      .build()
+    );
+    session.setActive(true);
+
+    var notification = new NotificationCompat.Builder(context, channelId)
+      .setSmallIcon(R.drawable.ic_notification)
+      .setContentTitle(player.title)
+      .setContentText(player.text)
+      .setContentIntent(contentIntent)
+      .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+      .setOnlyAlertOnce(true)
+      .setSilent(true)
+      .setOngoing(playing)
+      .addAction(new NotificationCompat.Action(android.R.drawable.ic_media_rew, "Rewind", getActionIntent(ACTION_REWIND)))
+      .addAction(playing
+        ? new NotificationCompat.Action(android.R.drawable.ic_media_pause, "Pause", getActionIntent(ACTION_PAUSE))
+        : new NotificationCompat.Action(android.R.drawable.ic_media_play, "Play", getActionIntent(ACTION_PLAY))
+      )
+      .addAction(new NotificationCompat.Action(android.R.drawable.ic_media_ff, "Fast forward", getActionIntent(ACTION_FAST_FORWARD)))
+      .addAction(new NotificationCompat.Action(android.R.drawable.ic_menu_close_clear_cancel, "Stop", getActionIntent(ACTION_STOP)))
+      .setStyle(new androidx.media.app.NotificationCompat.MediaStyle()
+        .setMediaSession(session.getSessionToken())
+        .setShowActionsInCompactView(0, 1, 2)
+      )
+      .build();
+    notificationManager.notify(NOTIFICATION_ID, notification);
+
+  }
+
+  /**
+   * Hide notification and release the media session
+   */
+  void release() {
+    update(null);
+    context.unregisterReceiver(actionsReceiver);
+    session.release();
+  }
+
+  private PendingIntent getActionIntent(String action) {
+    var intent = new Intent(action).setPackage(context.getPackageName());
+    return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+  }
+
+}
@@ -0,0 +1,118 @@
+package com.github.nicorac.plugins.audioplayer;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Detection of the silent ranges of audio files (dead air, ringing pauses, ...).
+ *
+ * Silences are found on the base level waveform peaks, so the analysis shares decoding and cache
+ * with WaveformExtractor: once the waveform of a file has been extracted, its silence map is built
+ * in a few milliseconds.
+ */
+class SilenceDetector {
+
+  // max absolute peak value (of 127) considered silence (about -36 dBFS)
+  private static final int SILENCE_PEAK = 2;
+
+  // min duration of a skipped silence (ms)
+  private static final int MIN_SILENCE_MS = 1000;
+
+  // audio kept at the borders of a silence, so speech is not clipped (ms)
+  private static final int PADDING_MS = 200;
+
+  /**
+   * Silent ranges of an audio file
+   */
+  static class SilenceMap {
+
+    // sorted start/end pairs (ms)
+    private final int[] ranges;
+
+    SilenceMap(int[] ranges) {
+      this.ranges = ranges;
+    }
+
+    /**
+     * Return the end of the silence containing the given position (-1 if not in a silence)
+     */
+    int getSilenceEnd(int position) {
+      // search the last range starting before position
+      int lo = 0, hi = ranges.length / 2 - 1, found = -1;
+      while (lo <= hi) {
+        var mid = (lo + hi) >>> 1;
+        if (ranges[mid * 2] <= position) {
+          found = mid;
+          lo = mid + 1;
+        }
+        else {
+          hi = mid - 1;
+        }
+      }
+      return found >= 0 && position < ranges[found * 2 + 1] ? ranges[found * 2 + 1] : -1;
+    }
+
+    /**
+     * Return the total duration of silences (ms)
+     */
+    int getTotalDuration() {
+      var res = 0;
+      for (int i = 0; i < ranges.length; i += 2) {
+        res += ranges[i + 1] - ranges[i];
+      }
+      return res;
+    }
+
+  }
+
+  private final WaveformExtractor waveformExtractor;
+
+  SilenceDetector(WaveformExtractor waveformExtractor) {
+    this.waveformExtractor = waveformExtractor;
+  }
+
+  /**
+   * Return the silence map of the given file, decoding it if its waveform is not cached yet
+   * (long running, must be called on a background thread)
+   */
+  SilenceMap analyze(Uri fileUri) throws IOException {
+    var waveform = waveformExtractor.loadCached(fileUri, 0);
+    if (waveform == null) {
+      waveform = waveformExtractor.extract(fileUri, null);
+    }
+    return findSilences(waveform.levels.get(0));
+  }
+
+  /**
+   * Find silences longer than MIN_SILENCE_MS in the given base level peaks
+   */
+  static SilenceMap findSilences(WaveformExtractor.Level base) {
+
+    var minPeaks = (int) Math.ceil(MIN_SILENCE_MS / base.msPerPeak);
+    var count = base.peaks.length / 2;
+    var ranges = new int[32];
+    var size = 0;
+    var start = -1;
+    for (int i = 0; i <= count; i++) {
+      var silent = i < count && Math.max(-base.peaks[i * 2], base.peaks[i * 2 + 1]) <= SILENCE_PEAK;
+      if (silent) {
+        if (start < 0) start = i;
+      }
+      else if (start >= 0) {
+        if (i - start >= minPeaks) {
+          if (size + 2 > ranges.length) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+          }
+          ranges[size++] = (int) (start * base.msPerPeak) + PADDING_MS;
+          ranges[size++] = (int) (i * base.msPerPeak) - PADDING_MS;
+        }
+        start = -1;
+      }
+    }
+    return new SilenceMap(Arrays.copyOf(ranges, size));
+
+  }
+
+}
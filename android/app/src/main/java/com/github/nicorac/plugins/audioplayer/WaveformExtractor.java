@@ -0,0 +1,565 @@
+package com.github.nicorac.plugins.audioplayer;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Extraction of waveform peaks from audio files.
+ *
+ * Audio is decoded in streaming fashion (MediaExtractor + MediaCodec, long files in parallel segments)
+ * and reduced to min/max peaks (signed 8 bit) at several zoom levels, each one grouping LEVEL_FACTOR
+ * peaks of the previous one.
+ * Peaks are cached in a compact binary file, keyed by file URI, size and last modified time.
+ */
+class WaveformExtractor {
+
+  private static final String CACHE_DIR = "waveforms";
+  private static final int MAGIC = 0x42435731;  // "BCW1"
+
+  // duration of a base level peak
+  private static final int BASE_PEAK_MS = 10;
+
+  // zoom levels
+  private static final int LEVELS = 5;
+  private static final int LEVEL_FACTOR = 4;
+
+  // number of base peaks sent with each progress notification
+  private static final int PROGRESS_PEAKS = 1000;
+
+  private static final long CODEC_TIMEOUT_US = 10_000;
+
+  // min duration of a segment decoded in parallel
+  private static final long MIN_SEGMENT_MS = 60_000;
+  // audio decoded before each segment start (and discarded)
+  private static final long SEGMENT_PREROLL_US = 200_000;
+
+  /**
+   * Receives the base level peaks while decoding
+   * (segments decoded in parallel notify their chunks concurrently, in any order)
+   */
+  interface ProgressListener {
+    /**
+     * @param offset  index of the first peak of the chunk
+     * @param peaks   min/max pairs
+     */
+    void onPeaks(int offset, byte[] peaks, double msPerPeak);
+  }
+
+  /**
+   * Peaks of a zoom level
+   */
+  static class Level {
+    int samplesPerPeak;
+    double msPerPeak;
+    // min/max pairs
+    byte[] peaks;
+  }
+
+  /**
+   * Extracted waveform
+   */
+  static class Waveform {
+    int sampleRate;
+    long durationMs;
+    final List<Level> levels = new ArrayList<>();
+  }
+
+  /**
+   * Time segment decoded by a single decoder
+   */
+  private static class Segment {
+    final long startUs;
+    final long endUs;
+    // decoded peaks and index of the first one
+    int sampleRate;
+    int samplesPerPeak;
+    int offset;
+    @Nullable byte[] peaks;
+
+    Segment(long startUs, long endUs) {
+      this.startUs = startUs;
+      this.endUs = endUs;
+    }
+  }
+
+  private final Context context;
+
+  WaveformExtractor(Context context) {
+    this.context = context.getApplicationContext();
+  }
+
+  /**
+   * Return the cached waveform of the given file (null if missing or outdated)
+   *
+   * @param level index of the only level to load (-1 to load all levels)
+   */
+  @Nullable
+  Waveform loadCached(Uri fileUri, int level) {
+
+    var cacheFile = getCacheFile(fileUri);
+    if (cacheFile == null || !cacheFile.exists()) {
+      return null;
+    }
+
+    try (
+      var is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+    ) {
+      if (is.readInt() != MAGIC) {
+        return null;
+      }
+      var res = new Waveform();
+      res.sampleRate = is.readInt();
+      res.durationMs = is.readLong();
+      var levels = is.readInt();
+      for (int i = 0; i < levels; i++) {
+        var l = new Level();
+        l.samplesPerPeak = is.readInt();
+        l.msPerPeak = l.samplesPerPeak * 1000.0 / res.sampleRate;
+        var size = is.readInt() * 2;
+        if (level < 0 || level == i) {
+          l.peaks = new byte[size];
+          is.readFully(l.peaks);
+          res.levels.add(l);
+        }
+        else {
+          is.skipBytes(size);
+        }
+      }
+      return res;
+    }
+    catch (IOException e) {
+      return null;
+    }
+
+  }
+
+  /**
+   * Decode the given file and return its waveform (saving it to cache).
+   *
+   * Long files are split in time segments decoded in parallel (one decoder per core),
+   * each one writing its peaks at the index matching its start time.
+   */
+  Waveform extract(Uri fileUri, @Nullable ProgressListener listener) throws IOException {
+
+    // read audio track format
+    int track;
+    MediaFormat format;
+    var extractor = new MediaExtractor();
+    try {
+      extractor.setDataSource(context, fileUri, null);
+      track = selectAudioTrack(extractor);
+      if (track < 0) {
+        throw new IOException("No audio track found in " + fileUri);
+      }
+      format = extractor.getTrackFormat(track);
+    }
+    finally {
+      extractor.release();
+    }
+
+    var res = new Waveform();
+    res.sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    res.durationMs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) / 1000 : 0;
+
+    // split in segments (a single one when duration is unknown)
+    var segmentCount = (int) Math.max(1, Math.min(
+      Runtime.getRuntime().availableProcessors(),
+      res.durationMs / MIN_SEGMENT_MS
+    ));
+    var segmentUs = res.durationMs * 1000 / segmentCount;
+    var segments = new ArrayList<Segment>(segmentCount);
+    for (int i = 0; i < segmentCount; i++) {
+      segments.add(new Segment(
+        i * segmentUs,
+        i == segmentCount - 1 ? Long.MAX_VALUE : (i + 1) * segmentUs
+      ));
+    }
+
+    if (segmentCount == 1) {
+      decodeSegment(fileUri, track, segments.get(0), listener);
+    }
+    else {
+      var executor = Executors.newFixedThreadPool(segmentCount);
+      try {
+        var tasks = new ArrayList<Callable<Void>>(segmentCount);
+        for (var s : segments) {
+          tasks.add(() -> {
+            decodeSegment(fileUri, track, s, listener);
+            return null;
+          });
+        }
+        for (var f : executor.invokeAll(tasks)) {
+          f.get();
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Decoding of " + fileUri + " interrupted");
+      }
+      catch (ExecutionException e) {
+        throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+      }
+      finally {
+        executor.shutdownNow();
+      }
+    }
+
+    // join segments peaks (decoded sample rate can differ from the container one)
+    var first = segments.get(0);
+    if (first.sampleRate > 0) {
+      res.sampleRate = first.sampleRate;
+    }
+    var base = new Level();
+    base.samplesPerPeak = first.peaks != null ? first.samplesPerPeak : Math.max(1, res.sampleRate * BASE_PEAK_MS / 1000);
+    var size = 0;
+    for (var s : segments) {
+      if (s.peaks != null) {
+        size = Math.max(size, (s.offset * 2) + s.peaks.length);
+      }
+    }
+    base.peaks = new byte[size];
+    for (var s : segments) {
+      if (s.peaks != null) {
+        System.arraycopy(s.peaks, 0, base.peaks, s.offset * 2, s.peaks.length);
+      }
+    }
+
+    // build zoom levels
+    res.levels.add(base);
+    for (int i = 1; i < LEVELS; i++) {
+      res.levels.add(reduce(res.levels.get(i - 1)));
+    }
+    for (var l : res.levels) {
+      l.msPerPeak = l.samplesPerPeak * 1000.0 / res.sampleRate;
+    }
+    if (res.durationMs == 0) {
+      res.durationMs = (long) (base.peaks.length / 2 * base.msPerPeak);
+    }
+
+    save(fileUri, res);
+    return res;
+
+  }
+
+  /**
+   * Return the index of the first audio track (-1 if missing)
+   */
+  private static int selectAudioTrack(MediaExtractor extractor) {
+    for (int i = 0; i < extractor.getTrackCount(); i++) {
+      var mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith("audio/")) {
+        extractor.selectTrack(i);
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Decode the given segment of the audio track, storing its base level peaks into it
+   */
+  private void decodeSegment(Uri fileUri, int track, Segment segment, @Nullable ProgressListener listener) throws IOException {
+
+    var extractor = new MediaExtractor();
+    MediaCodec codec = null;
+    try {
+      extractor.setDataSource(context, fileUri, null);
+      extractor.selectTrack(track);
+      var format = extractor.getTrackFormat(track);
+      var mime = format.getString(MediaFormat.KEY_MIME);
+      var sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+      var channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+      var isFloat = false;
+      PeakBuilder peaks = null;
+
+      // start a bit earlier, so the decoder is warmed up at segment start
+      if (segment.startUs > 0) {
+        extractor.seekTo(Math.max(0, segment.startUs - SEGMENT_PREROLL_US), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+      }
+
+      codec = MediaCodec.createDecoderByType(mime);
+      codec.configure(format, null, null, 0);
+      codec.start();
+
+      var info = new MediaCodec.BufferInfo();
+      var inputDone = false;
+      var outputDone = false;
+      while (!outputDone) {
+
+        if (Thread.interrupted()) {
+          throw new IOException("Decoding of " + fileUri + " interrupted");
+        }
+
+        // feed decoder (up to segment end)
+        if (!inputDone) {
+          var inIx = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+          if (inIx >= 0) {
+            var inBuf = codec.getInputBuffer(inIx);
+            var n = inBuf != null && extractor.getSampleTime() < segment.endUs ? extractor.readSampleData(inBuf, 0) : -1;
+            if (n < 0) {
+              codec.queueInputBuffer(inIx, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              inputDone = true;
+            }
+            else {
+              codec.queueInputBuffer(inIx, 0, n, extractor.getSampleTime(), 0);
+              extractor.advance();
+            }
+          }
+        }
+
+        // collect decoded PCM (trimmed to segment bounds)
+        var outIx = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+        if (outIx >= 0) {
+          var outBuf = codec.getOutputBuffer(outIx);
+          var frameSize = channels * (isFloat ? 4 : 2);
+          var frames = info.size / frameSize;
+          var first = (int) Math.max(0, Math.min(frames, (segment.startUs - info.presentationTimeUs) * sampleRate / 1_000_000));
+          var last = segment.endUs == Long.MAX_VALUE
+            ? frames
+            : (int) Math.max(0, Math.min(frames, (segment.endUs - info.presentationTimeUs) * sampleRate / 1_000_000));
+          if (outBuf != null && last > first) {
+            if (peaks == null) {
+              var samplesPerPeak = Math.max(1, sampleRate * BASE_PEAK_MS / 1000);
+              segment.sampleRate = sampleRate;
+              segment.samplesPerPeak = samplesPerPeak;
+              segment.offset = (int) Math.round(segment.startUs / 1000.0 / (samplesPerPeak * 1000.0 / sampleRate));
+              peaks = new PeakBuilder(samplesPerPeak, sampleRate, segment.offset, listener);
+            }
+            outBuf.position(info.offset + first * frameSize);
+            outBuf.limit(info.offset + last * frameSize);
+            peaks.add(outBuf.order(ByteOrder.nativeOrder()), channels, isFloat);
+          }
+          codec.releaseOutputBuffer(outIx, false);
+          outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        }
+        else if (outIx == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+          var f = codec.getOutputFormat();
+          channels = f.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+          sampleRate = f.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+          isFloat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            && f.containsKey(MediaFormat.KEY_PCM_ENCODING)
+            && f.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT;
+        }
+
+      }
+
+      if (peaks != null) {
+        segment.peaks = peaks.finish();
+      }
+    }
+    finally {
+      if (codec != null) {
+        try {
+          codec.stop();
+        }
+        catch (IllegalStateException ignored) { }
+        codec.release();
+      }
+      extractor.release();
+    }
+
+  }
+
+  /**
+   * Build a zoom level from the previous one
+   */
+  private static Level reduce(Level src) {
+    var res = new Level();
+    res.samplesPerPeak = src.samplesPerPeak * LEVEL_FACTOR;
+    var count = (src.peaks.length / 2 + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+    res.peaks = new byte[count * 2];
+    for (int i = 0; i < count; i++) {
+      byte min = Byte.MAX_VALUE, max = Byte.MIN_VALUE;
+      var end = Math.min(src.peaks.length, (i + 1) * LEVEL_FACTOR * 2);
+      for (int j = i * LEVEL_FACTOR * 2; j < end; j += 2) {
+        if (src.peaks[j] < min) min = src.peaks[j];
+        if (src.peaks[j + 1] > max) max = src.peaks[j + 1];
+      }
+      res.peaks[i * 2] = min;
+      res.peaks[i * 2 + 1] = max;
+    }
+    return res;
+  }
+
+  private void save(Uri fileUri, Waveform waveform) throws IOException {
+    // (the same file could be extracted concurrently by different instances)
+    synchronized (WaveformExtractor.class) {
+      saveFile(fileUri, waveform);
+    }
+  }
+
+  private void saveFile(Uri fileUri, Waveform waveform) throws IOException {
+
+    var cacheFile = getCacheFile(fileUri);
+    if (cacheFile == null) {
+      return;
+    }
+    var dir = cacheFile.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Can't create directory " + dir);
+    }
+
+    // delete outdated versions
+    var prefix = getCacheFilePrefix(fileUri);
+    var oldFiles = dir != null ? dir.listFiles((d, name) -> name.startsWith(prefix)) : null;
+    if (oldFiles != null) {
+      for (var f : oldFiles) {
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+      }
+    }
+
+    var tmpFile = new File(cacheFile.getPath() + ".tmp");
+    try (
+      var os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    ) {
+      os.writeInt(MAGIC);
+      os.writeInt(waveform.sampleRate);
+      os.writeLong(waveform.durationMs);
+      os.writeInt(waveform.levels.size());
+      for (var l : waveform.levels) {
+        os.writeInt(l.samplesPerPeak);
+        os.writeInt(l.peaks.length / 2);
+        os.write(l.peaks);
+      }
+    }
+    if (!tmpFile.renameTo(cacheFile)) {
+      throw new IOException("Can't rename " + tmpFile + " to " + cacheFile);
+    }
+
+  }
+
+  /**
+   * Return the cache file of the given audio file (null if its size/last modified time can't be read)
+   */
+  @Nullable
+  private File getCacheFile(Uri fileUri) {
+
+    try (
+      var c = context.getContentResolver().query(fileUri, new String[] {
+        DocumentsContract.Document.COLUMN_SIZE,           // 0
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,  // 1
+      }, null, null, null);
+    ) {
+      if (c != null && c.moveToFirst()) {
+        var name = getCacheFilePrefix(fileUri) + c.getLong(0) + "_" + c.getLong(1) + ".bin";
+        return new File(new File(context.getCacheDir(), CACHE_DIR), name);
+      }
+    }
+    catch (Exception ignored) { }
+    return null;
+
+  }
+
+  private static String getCacheFilePrefix(Uri fileUri) {
+    return Integer.toHexString(fileUri.toString().hashCode()) + "_";
+  }
+
+  /**
+   * Builder of the base level peaks
+   */
+  private static class PeakBuilder {
+
+    final int samplesPerPeak;
+    private final double msPerPeak;
+    @Nullable private final ProgressListener listener;
+    // index of the first peak (in the whole file)
+    private final int offset;
+
+    private byte[] peaks = new byte[4096];
+    private int size = 0;
+    private int notified = 0;
+
+    // current peak
+    private int frames = 0;
+    private float min = Float.MAX_VALUE;
+    private float max = -Float.MAX_VALUE;
+
+    PeakBuilder(int samplesPerPeak, int sampleRate, int offset, @Nullable ProgressListener listener) {
+      this.samplesPerPeak = samplesPerPeak;
+      this.msPerPeak = samplesPerPeak * 1000.0 / sampleRate;
+      this.offset = offset;
+      this.listener = listener;
+    }
+
+    /**
+     * Add decoded PCM frames (16 bit or float, interleaved channels)
+     */
+    void add(ByteBuffer pcm, int channels, boolean isFloat) {
+
+      var samples = isFloat ? pcm.remaining() / 4 : pcm.remaining() / 2;
+      var fb = isFloat ? pcm.asFloatBuffer() : null;
+      var sb = isFloat ? null : pcm.asShortBuffer();
+      for (int i = 0; i < samples; i++) {
+        // normalized to [-1, 1]
+        var v = isFloat ? fb.get(i) : sb.get(i) / 32768f;
+        if (v < min) min = v;
+        if (v > max) max = v;
+        if ((i + 1) % channels == 0 && ++frames == samplesPerPeak) {
+          flushPeak();
+        }
+      }
+
+    }
+
+    byte[] finish() {
+      if (frames > 0) {
+        flushPeak();
+      }
+      notifyProgress();
+      return Arrays.copyOf(peaks, size);
+    }
+
+    private void flushPeak() {
+      if (size + 2 > peaks.length) {
+        peaks = Arrays.copyOf(peaks, peaks.length * 2);
+      }
+      peaks[size++] = toByte(min);
+      peaks[size++] = toByte(max);
+      frames = 0;
+      min = Float.MAX_VALUE;
+      max = -Float.MAX_VALUE;
+      if (size - notified >= PROGRESS_PEAKS * 2) {
+        notifyProgress();
+      }
+    }
+
+    private void notifyProgress() {
+      if (listener != null && size > notified) {
+        listener.onPeaks(offset + notified / 2, Arrays.copyOfRange(peaks, notified, size), msPerPeak);
+      }
+      notified = size;
+    }
+
+    private static byte toByte(float v) {
+      return (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(v * 127)));
+    }
+
+  }
+
+}
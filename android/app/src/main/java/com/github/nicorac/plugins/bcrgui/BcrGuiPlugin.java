@@ -1,8 +1,12 @@
 package com.github.nicorac.plugins.bcrgui;
 
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.ContactsContract;
+import android.util.JsonWriter;
 
 import androidx.activity.result.ActivityResult;
 import androidx.annotation.Nullable;
@@ -15,9 +19,52 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.ActivityCallback;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+import com.github.nicorac.plugins.metrics.PluginMetrics;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @CapacitorPlugin(name = "BcrGui")
 public class BcrGuiPlugin extends Plugin {
 
+  // max number of cached phone number lookups
+  private static final int CONTACTS_CACHE_SIZE = 2000;
+
+  // cached value of numbers without a matching contact (empty display names are ignored)
+  private static final String NOT_FOUND = "";
+
+  private final PluginMetrics metrics = new PluginMetrics("BcrGui");
+
+  // LRU cache of contact names, keyed by cleaned phone number and country prefix
+  private final LinkedHashMap<String, String> contactsCache = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > CONTACTS_CACHE_SIZE;
+    }
+  };
+
+  // clears contacts cache on any contacts change
+  private final ContentObserver contactsObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+    @Override
+    public void onChange(boolean selfChange) {
+      synchronized (contactsCache) {
+        contactsCache.clear();
+      }
+    }
+  };
+
+  @Override
+  public void load() {
+    getContext().getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, contactsObserver);
+  }
+
+  @Override
+  public void handleOnDestroy() {
+    getContext().getContentResolver().unregisterContentObserver(contactsObserver);
+  }
+
   /**
    * Allow client to create a new contact with the given phone number
    * or add the phone number to an existing one
@@ -81,6 +128,137 @@ public class BcrGuiPlugin extends Plugin {
 
   }
 
+  /**
+   * Return a string containing the JSON array of the display names of the contacts matching the given
+   * phone numbers (null for numbers without a matching contact), in the same order of the given numbers.
+   * A contact number matches if it's equal to the given one (keeping only "+" and digits) or,
+   * if it has no international prefix, if it's equal to the given one once the default country prefix is added.
+   *
+   * @param call
+   *  call.numbers: array of phone numbers
+   *  call.defaultCountryPrefix: prefix added to contact numbers without international prefix (optional)
+   */
+  @PluginMethod()
+  public void resolveContacts(PluginCall call) { metrics.timed(call, "resolveContacts", this::resolveContacts); }
+
+  private void resolveContacts(PluginCall call, PluginMetrics.Span span) {
+
+    var numbersArr = call.getArray("numbers", null);
+    if (numbersArr == null) {
+      call.reject("Missing phone numbers");
+      return;
+    }
+    var prefix = call.getString("defaultCountryPrefix", "");
+
+    // resolve each distinct number once
+    var resolved = new HashMap<String, String>();
+    try (
+      var sw = new StringWriter();
+      var jw = new JsonWriter(sw);
+    ) {
+      jw.beginArray();
+      for (int i = 0; i < numbersArr.length(); i++) {
+        var number = cleanupPhoneNumber(numbersArr.optString(i, ""));
+        var name = resolved.get(number);
+        if (name == null) {
+          name = resolveContact(number, prefix, span);
+          resolved.put(number, name);
+        }
+        if (!name.isEmpty()) {
+          jw.value(name);
+        }
+        else {
+          jw.nullValue();
+        }
+      }
+      jw.endArray();
+      jw.close();
+
+      var ret = new JSObject();
+      var itemsJson = sw.toString();
+      span.addBytes(itemsJson.length());
+      ret.put("itemsJson", itemsJson);
+      call.resolve(ret);
+    }
+    catch (SecurityException e) {
+      call.reject("Missing contacts permission", e);
+    }
+    catch (Exception e) {
+      call.reject("Error resolving contacts", e);
+    }
+
+  }
+
+  /**
+   * Return the display name of the contact matching the given (cleaned) phone number (NOT_FOUND if missing)
+   * (lookups and their rows are counted in the given metrics span)
+   */
+  private String resolveContact(String number, String prefix, PluginMetrics.Span span) {
+
+    if (number.isEmpty()) {
+      return NOT_FOUND;
+    }
+
+    var cacheKey = number + '|' + prefix;
+    synchronized (contactsCache) {
+      var res = contactsCache.get(cacheKey);
+      if (res != null) {
+        return res;
+      }
+    }
+
+    // PhoneLookup returns the contacts with a "loosely" matching number, then check them like JS side did:
+    // first the plain number, then the number with the default country prefix
+    String res = NOT_FOUND;
+    String prefixMatch = null;
+    var uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+    try (
+      var ignored = span.phase("lookup");
+      var cur = getContext().getContentResolver().query(uri, new String[] {
+        ContactsContract.PhoneLookup.DISPLAY_NAME,  // 0
+        ContactsContract.PhoneLookup.NUMBER,        // 1
+      }, null, null, null);
+    ) {
+      while (cur != null && cur.moveToNext()) {
+        span.addRows(1);
+        var name = cur.getString(0);
+        var n = cur.getString(1);
+        if (name == null || name.isEmpty() || n == null) continue;
+        n = cleanupPhoneNumber(n);
+        if (n.equals(number)) {
+          res = name;
+          break;
+        }
+        if (prefixMatch == null && !prefix.isEmpty() && !n.startsWith("+") && number.equals(prefix + n)) {
+          prefixMatch = name;
+        }
+      }
+    }
+    if (res.isEmpty() && prefixMatch != null) {
+      res = prefixMatch;
+    }
+
+    synchronized (contactsCache) {
+      contactsCache.put(cacheKey, res);
+    }
+    return res;
+
+  }
+
+  /**
+   * Cleanup the given phone number by keeping only "+" and digits
+   */
+  private static String cleanupPhoneNumber(String phoneNumber) {
+    var sb = new StringBuilder(phoneNumber.length());
+    for (int i = 0; i < phoneNumber.length(); i++) {
+      var c = phoneNumber.charAt(i);
+      if ((c >= '0' && c <= '9') || c == '+') {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
   @Nullable
   private String getContactDisplayName(Uri contactUri) {
 
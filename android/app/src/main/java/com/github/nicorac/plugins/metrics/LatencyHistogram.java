@@ -0,0 +1,84 @@
+package com.github.nicorac.plugins.metrics;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+/**
+ * Latency histogram with fixed (roughly logarithmic) buckets, from 0.1ms to 10s.
+ * Percentiles are estimated as the upper bound of the bucket containing them.
+ * Not thread safe: callers must synchronize.
+ */
+class LatencyHistogram {
+
+  // upper bounds of the buckets (us), the last bucket collects anything above
+  private static final long[] BOUNDS_US = {
+    100, 250, 500,
+    1_000, 2_500, 5_000,
+    10_000, 25_000, 50_000,
+    100_000, 250_000, 500_000,
+    1_000_000, 2_500_000, 5_000_000,
+    10_000_000,
+  };
+
+  private final long[] counts = new long[BOUNDS_US.length + 1];
+  private long count = 0;
+  private long totalNs = 0;
+  private long minNs = Long.MAX_VALUE;
+  private long maxNs = 0;
+
+  void add(long durationNs) {
+    var us = durationNs / 1000;
+    var i = 0;
+    while (i < BOUNDS_US.length && us > BOUNDS_US[i]) i++;
+    counts[i]++;
+    count++;
+    totalNs += durationNs;
+    minNs = Math.min(minNs, durationNs);
+    maxNs = Math.max(maxNs, durationNs);
+  }
+
+  /**
+   * Return the estimated value (ms) of the given percentile (0..1)
+   */
+  double percentileMs(double p) {
+    if (count == 0) return 0;
+    var target = (long) Math.ceil(p * count);
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      if (cumulative >= target) {
+        // (the last bucket is bounded by the max value)
+        return i < BOUNDS_US.length ? Math.min(BOUNDS_US[i] / 1000.0, maxNs / 1e6) : maxNs / 1e6;
+      }
+    }
+    return maxNs / 1e6;
+  }
+
+  JSObject toJSObject() {
+
+    var res = new JSObject();
+    res.put("count", count);
+    res.put("totalMs", totalNs / 1e6);
+    res.put("minMs", count > 0 ? minNs / 1e6 : 0);
+    res.put("maxMs", maxNs / 1e6);
+    res.put("meanMs", count > 0 ? totalNs / 1e6 / count : 0);
+    res.put("p50Ms", percentileMs(.5));
+    res.put("p90Ms", percentileMs(.9));
+    res.put("p99Ms", percentileMs(.99));
+
+    // non-empty buckets only
+    var buckets = new JSArray();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        var b = new JSObject();
+        b.put("leMs", i < BOUNDS_US.length ? BOUNDS_US[i] / 1000.0 : null);
+        b.put("count", counts[i]);
+        buckets.put(b);
+      }
+    }
+    res.put("buckets", buckets);
+    return res;
+
+  }
+
+}
@@ -0,0 +1,25 @@
+package com.github.nicorac.plugins.metrics;
+
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+/**
+ * Expose the metrics collected by the native plugins (see PluginMetrics)
+ */
+@CapacitorPlugin(name = "Metrics")
+public class MetricsPlugin extends Plugin {
+
+  /**
+   * Return a snapshot of the metrics collected since app start (or since the last reset)
+   *
+   * @param call
+   *  call.reset: true to reset metrics after the snapshot (optional, default false)
+   */
+  @PluginMethod()
+  public void getMetrics(PluginCall call) {
+    call.resolve(PluginMetrics.snapshot(call.getBoolean("reset", false)));
+  }
+
+}
@@ -0,0 +1,224 @@
+package com.github.nicorac.plugins.metrics;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-method metrics of the native plugins: call counts, latency histograms, cursor rows and returned bytes.
+ *
+ * Each plugin method is timed by a Span, opened by timed() around the method body (or with try-with-resources),
+ * and each of its phases by a Phase. Both also mark an android.os.Trace section named "Plugin.method"
+ * (and "Plugin.method:phase"), so the same phases can be inspected in system traces.
+ * Metrics of all plugins are collected together and exposed by MetricsPlugin.getMetrics().
+ */
+public final class PluginMetrics {
+
+  // collected metrics, keyed by "Plugin.method"
+  private static final ConcurrentHashMap<String, MethodStats> methods = new ConcurrentHashMap<>();
+
+  // start time of the collection (wall clock ms)
+  private static volatile long since = System.currentTimeMillis();
+
+  private final String plugin;
+
+  public PluginMetrics(String plugin) {
+    this.plugin = plugin;
+  }
+
+  /**
+   * Start timing a call of the given method
+   */
+  public Span start(String method) {
+    var name = plugin + "." + method;
+    var stats = methods.computeIfAbsent(name, k -> new MethodStats());
+    return new Span(name, stats);
+  }
+
+  /**
+   * Run the given plugin method body, timing it as the given method
+   */
+  public void timed(PluginCall call, String method, TimedMethod body) {
+    try (var span = start(method)) {
+      body.run(call, span);
+    }
+  }
+
+  /**
+   * Return a snapshot of the collected metrics (and optionally reset them)
+   */
+  public static JSObject snapshot(boolean reset) {
+
+    var names = new ArrayList<>(methods.keySet());
+    Collections.sort(names);
+    var items = new JSArray();
+    for (var name : names) {
+      var stats = methods.get(name);
+      if (stats != null) {
+        var item = stats.toJSObject();
+        item.put("name", name);
+        items.put(item);
+      }
+    }
+
+    var res = new JSObject();
+    res.put("since", since);
+    res.put("methods", items);
+    if (reset) {
+      methods.clear();
+      since = System.currentTimeMillis();
+    }
+    return res;
+
+  }
+
+  /**
+   * Body of a timed plugin method
+   */
+  public interface TimedMethod {
+    void run(PluginCall call, Span span);
+  }
+
+  /**
+   * Body of a timed phase, returning its result
+   */
+  public interface TimedPhase<T, E extends Exception> {
+    T run() throws E;
+  }
+
+  /**
+   * Metrics of a method
+   */
+  private static class MethodStats {
+
+    private long calls;
+    private long rows;
+    private long bytes;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LinkedHashMap<String, LatencyHistogram> phases = new LinkedHashMap<>();
+
+    synchronized void addCall(long durationNs, long rows, long bytes) {
+      calls++;
+      this.rows += rows;
+      this.bytes += bytes;
+      latency.add(durationNs);
+    }
+
+    synchronized void addPhase(String phase, long durationNs) {
+      var h = phases.get(phase);
+      if (h == null) {
+        h = new LatencyHistogram();
+        phases.put(phase, h);
+      }
+      h.add(durationNs);
+    }
+
+    synchronized JSObject toJSObject() {
+      var res = new JSObject();
+      res.put("calls", calls);
+      res.put("rows", rows);
+      res.put("bytes", bytes);
+      res.put("latency", latency.toJSObject());
+      var phasesObj = new JSObject();
+      for (var e : phases.entrySet()) {
+        phasesObj.put(e.getKey(), e.getValue().toJSObject());
+      }
+      res.put("phases", phasesObj);
+      return res;
+    }
+
+  }
+
+  /**
+   * Timing of a method call (to be closed on the same thread that opened it)
+   */
+  public static final class Span implements AutoCloseable {
+
+    private final String name;
+    private final MethodStats stats;
+    private final long start;
+    private long rows = 0;
+    private long bytes = 0;
+    private boolean closed = false;
+
+    private Span(String name, MethodStats stats) {
+      this.name = name;
+      this.stats = stats;
+      Trace.beginSection(name);
+      start = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Start timing a phase of the method (to be closed before the span)
+     */
+    public Phase phase(String phase) {
+      return new Phase(this, phase);
+    }
+
+    /**
+     * Run the given code timing it as a phase of the method, and return its result
+     */
+    public <T, E extends Exception> T phase(String phase, TimedPhase<T, E> body) throws E {
+      try (var ignored = phase(phase)) {
+        return body.run();
+      }
+    }
+
+    /**
+     * Count cursor rows read by the method
+     */
+    public void addRows(long count) { rows += count; }
+
+    /**
+     * Count bytes (or chars) returned to JS by the method
+     */
+    public void addBytes(long count) { bytes += count; }
+
+    @Override
+    public void close() {
+      if (closed) return;
+      closed = true;
+      stats.addCall(SystemClock.elapsedRealtimeNanos() - start, rows, bytes);
+      Trace.endSection();
+    }
+
+  }
+
+  /**
+   * Timing of a phase of a method call
+   */
+  public static final class Phase implements AutoCloseable {
+
+    private final Span span;
+    private final String phase;
+    private final long start;
+    private boolean closed = false;
+
+    private Phase(Span span, String phase) {
+      this.span = span;
+      this.phase = phase;
+      // (section names are limited to 127 chars)
+      var section = span.name + ":" + phase;
+      Trace.beginSection(section.length() > 127 ? section.substring(0, 127) : section);
+      start = SystemClock.elapsedRealtimeNanos();
+    }
+
+    @Override
+    public void close() {
+      if (closed) return;
+      closed = true;
+      span.stats.addPhase(phase, SystemClock.elapsedRealtimeNanos() - start);
+      Trace.endSection();
+    }
+
+  }
+
+}
@@ -0,0 +1,337 @@
+package com.github.nicorac.plugins.recordingsdb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Key/value store persisted as an append-only journal.
+ *
+ * Each mutation appends a checksummed record to the journal file, so a change costs only the size
+ * of the changed items and a crash can only lose the last (partially written) record, which is
+ * detected by its checksum and discarded at next open.
+ * When the journal grows too much compared to the live data, it's compacted by rewriting the live
+ * items only to a new file, which then atomically replaces the old one.
+ */
+public class JournalStore {
+
+  private static final int MAGIC = 0x42434a31;  // "BCJ1"
+
+  // record operations
+  private static final byte OP_PUT = 1;
+  private static final byte OP_DELETE = 2;
+
+  // compaction thresholds
+  private static final long COMPACT_MIN_SIZE = 256 * 1024;
+  private static final int COMPACT_RATIO = 2;
+
+  // max size of a single record (to detect garbage lengths)
+  private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+  // header size: MAGIC (int)
+  private static final int HEADER_SIZE = 4;
+
+  private final File file;
+
+  // live items (values are UTF-8 encoded)
+  private final LinkedHashMap<String, byte[]> items = new LinkedHashMap<>();
+
+  // size of live items, as written in a compacted journal
+  private long liveSize = HEADER_SIZE;
+
+  // current journal size
+  private long journalSize = HEADER_SIZE;
+
+  /**
+   * Open the journal stored in the given file (creating it if missing)
+   */
+  public JournalStore(File file) throws IOException {
+    this.file = file;
+    var dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Can't create directory " + dir);
+    }
+    load();
+  }
+
+  /**
+   * Return the value of the given key (null if missing)
+   */
+  public synchronized String get(String key) {
+    var v = items.get(key);
+    return v != null ? new String(v, StandardCharsets.UTF_8) : null;
+  }
+
+  /**
+   * Return a copy of all of the live items
+   */
+  public synchronized LinkedHashMap<String, String> getAll() {
+    var res = new LinkedHashMap<String, String>(items.size() * 2);
+    for (var e : items.entrySet()) {
+      res.put(e.getKey(), new String(e.getValue(), StandardCharsets.UTF_8));
+    }
+    return res;
+  }
+
+  public synchronized int size() {
+    return items.size();
+  }
+
+  /**
+   * Size of the journal file, as tracked by the store
+   */
+  synchronized long getJournalSize() {
+    return journalSize;
+  }
+
+  /**
+   * Size of the live items, as written in a compacted journal
+   */
+  synchronized long getLiveSize() {
+    return liveSize;
+  }
+
+  /**
+   * Insert or update the given items and delete the given keys, with a single journal write
+   */
+  public synchronized void update(Map<String, String> upserts, Collection<String> deletes) throws IOException {
+
+    // prepare records
+    var buf = new ByteArrayOutputStream();
+    var os = new DataOutputStream(buf);
+    for (var e : upserts.entrySet()) {
+      writeRecord(os, OP_PUT, e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+    for (var key : deletes) {
+      if (items.containsKey(key) || upserts.containsKey(key)) {
+        writeRecord(os, OP_DELETE, key, null);
+      }
+    }
+    if (buf.size() == 0) {
+      return;
+    }
+
+    // append to journal
+    // (a failed write could leave a partial record at the tail, which would hide any following record
+    // at next load: truncate the journal back to its last valid size)
+    try (
+      var fos = new FileOutputStream(file, true);
+    ) {
+      append(fos, buf.toByteArray());
+    }
+    catch (IOException e) {
+      truncate(journalSize);
+      throw e;
+    }
+    journalSize += buf.size();
+
+    // apply changes to live items (only after a successful write)
+    for (var e : upserts.entrySet()) {
+      put(e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+    for (var key : deletes) {
+      remove(key);
+    }
+
+    // compact (if needed)
+    if (journalSize > COMPACT_MIN_SIZE && journalSize > liveSize * COMPACT_RATIO) {
+      compact();
+    }
+
+  }
+
+  /**
+   * Append the given records to the journal and sync it to disk
+   */
+  void append(FileOutputStream fos, byte[] records) throws IOException {
+    fos.write(records);
+    fos.getFD().sync();
+  }
+
+  /**
+   * Truncate the journal file to the given size
+   */
+  private void truncate(long size) throws IOException {
+    try (
+      var raf = new RandomAccessFile(file, "rw");
+    ) {
+      raf.getChannel().truncate(size);
+      raf.getFD().sync();
+    }
+  }
+
+  /**
+   * Delete all of the items
+   */
+  public synchronized void clear() throws IOException {
+    items.clear();
+    liveSize = HEADER_SIZE;
+    compact();
+  }
+
+  /**
+   * Rewrite the journal with live items only
+   */
+  public synchronized void compact() throws IOException {
+
+    var tmpFile = new File(file.getPath() + ".tmp");
+    try (
+      var fos = new FileOutputStream(tmpFile);
+      var os = new DataOutputStream(new BufferedOutputStream(fos));
+    ) {
+      os.writeInt(MAGIC);
+      for (var e : items.entrySet()) {
+        writeRecord(os, OP_PUT, e.getKey(), e.getValue());
+      }
+      os.flush();
+      fos.getFD().sync();
+    }
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("Can't rename " + tmpFile + " to " + file);
+    }
+    journalSize = liveSize;
+
+  }
+
+  /**
+   * Replay the journal, dropping any trailing corrupted/partial record
+   */
+  private void load() throws IOException {
+
+    if (!file.exists() || file.length() < HEADER_SIZE) {
+      compact();
+      return;
+    }
+
+    long validSize = HEADER_SIZE;
+    try (
+      var is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    ) {
+      if (is.readInt() != MAGIC) {
+        // not a journal file, start from scratch
+        validSize = 0;
+      }
+      var crc = new CRC32();
+      while (validSize > 0) {
+        int length;
+        try {
+          length = is.readInt();
+        }
+        catch (EOFException e) {
+          break;
+        }
+        if (length <= 0 || length > MAX_RECORD_SIZE) break;
+        var checksum = is.readInt();
+        var payload = new byte[length];
+        try {
+          is.readFully(payload);
+        }
+        catch (EOFException e) {
+          break;
+        }
+        crc.reset();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) break;
+        applyRecord(payload);
+        validSize += 8 + length;
+      }
+    }
+
+    // invalid header: rewrite an empty journal
+    if (validSize == 0) {
+      compact();
+      return;
+    }
+
+    // truncate corrupted tail (if any)
+    if (validSize < file.length()) {
+      truncate(validSize);
+    }
+    journalSize = validSize;
+
+  }
+
+  private void applyRecord(byte[] payload) throws IOException {
+    var is = new DataInputStream(new ByteArrayInputStream(payload));
+    var op = is.readByte();
+    var key = is.readUTF();
+    if (op == OP_PUT) {
+      var value = new byte[is.readInt()];
+      is.readFully(value);
+      put(key, value);
+    }
+    else {
+      remove(key);
+    }
+  }
+
+  private void put(String key, byte[] value) {
+    var old = items.put(key, value);
+    if (old != null) {
+      liveSize -= recordSize(key, old);
+    }
+    liveSize += recordSize(key, value);
+  }
+
+  private void remove(String key) {
+    var old = items.remove(key);
+    if (old != null) {
+      liveSize -= recordSize(key, old);
+    }
+  }
+
+  /**
+   * Record layout: length (int) | CRC32 of payload (int) | payload
+   * Payload layout: op (byte) | key (UTF) | [ value length (int) | value bytes ]
+   */
+  private static void writeRecord(DataOutputStream os, byte op, String key, byte[] value) throws IOException {
+    var buf = new ByteArrayOutputStream();
+    var ps = new DataOutputStream(buf);
+    ps.writeByte(op);
+    ps.writeUTF(key);
+    if (value != null) {
+      ps.writeInt(value.length);
+      ps.write(value);
+    }
+    var payload = buf.toByteArray();
+    var crc = new CRC32();
+    crc.update(payload);
+    os.writeInt(payload.length);
+    os.writeInt((int) crc.getValue());
+    os.write(payload);
+  }
+
+  /**
+   * Size of a PUT record
+   */
+  static long recordSize(String key, byte[] value) {
+    return 8 + 1 + 2 + utfLength(key) + 4 + value.length;
+  }
+
+  /**
+   * Length of the given string encoded as modified UTF-8 (like DataOutputStream.writeUTF())
+   */
+  private static int utfLength(String s) {
+    var res = 0;
+    for (int i = 0; i < s.length(); i++) {
+      var c = s.charAt(i);
+      res += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+    }
+    return res;
+  }
+
+}
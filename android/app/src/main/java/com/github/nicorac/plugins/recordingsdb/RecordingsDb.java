@@ -0,0 +1,112 @@
+package com.github.nicorac.plugins.recordingsdb;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of the opened recordings databases (one for each recordings directory).
+ *
+ * Databases are shared by the plugin and the background indexing, so each journal file
+ * is opened (and written) by a single JournalStore instance.
+ */
+public class RecordingsDb {
+
+  private static final String DB_DIR = "recordings-db";
+
+  // key of DB metadata (see DB_META_KEY)
+  public static final String META_KEY = "$meta";
+
+  // key of background indexing metadata (written by RecordingsIndexWorker only)
+  public static final String INDEX_META_KEY = "$index";
+
+  // opened stores, keyed by directory URI
+  private static final HashMap<String, JournalStore> stores = new HashMap<>();
+
+  // search/sort indexes (built at first query), keyed by directory URI
+  private static final HashMap<String, RecordingsIndex> indexes = new HashMap<>();
+
+  private RecordingsDb() {}
+
+  /**
+   * Return the store of the given directory (opening it if needed)
+   */
+  public static JournalStore getStore(Context context, String directoryUri) throws IOException {
+    synchronized (stores) {
+      var store = stores.get(directoryUri);
+      if (store == null) {
+        var file = new File(new File(context.getFilesDir(), DB_DIR), getJournalName(directoryUri));
+        store = new JournalStore(file);
+        stores.put(directoryUri, store);
+      }
+      return store;
+    }
+  }
+
+  /**
+   * Return the journal filename of the given directory (the SHA-256 digest of its URI, so different
+   * directories can't share the same journal)
+   */
+  private static String getJournalName(String directoryUri) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256").digest(directoryUri.getBytes(StandardCharsets.UTF_8));
+      var res = new StringBuilder();
+      for (var b : digest) {
+        res.append(String.format("%02x", b));
+      }
+      return res.append(".journal").toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      // (SHA-256 is always available on Android)
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Insert/update/delete items of the given directory store, keeping its index (if any) up to date
+   */
+  public static void update(Context context, String directoryUri, Map<String, String> upserts, Collection<String> deletes) throws IOException {
+    var store = getStore(context, directoryUri);
+    synchronized (store) {
+      store.update(upserts, deletes);
+      var index = getIndex(directoryUri, null);
+      if (index != null) {
+        index.update(upserts, deletes);
+      }
+    }
+  }
+
+  /**
+   * Return the index of the given directory.
+   * If it doesn't exist yet, it's built from the given store (if any).
+   */
+  @Nullable
+  static RecordingsIndex getIndex(String directoryUri, @Nullable JournalStore store) {
+    if (store == null) {
+      synchronized (indexes) {
+        return indexes.get(directoryUri);
+      }
+    }
+    // (store is locked so it can't be updated while the index is built)
+    synchronized (store) {
+      synchronized (indexes) {
+        var index = indexes.get(directoryUri);
+        if (index == null) {
+          index = new RecordingsIndex(store.getAll());
+          indexes.put(directoryUri, index);
+        }
+        return index;
+      }
+    }
+  }
+
+}
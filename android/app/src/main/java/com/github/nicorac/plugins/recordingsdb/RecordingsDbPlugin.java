@@ -0,0 +1,222 @@
+package com.github.nicorac.plugins.recordingsdb;
+
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+import com.github.nicorac.plugins.metrics.PluginMetrics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+/**
+ * Recordings database, stored as a journaled key/value store (one for each recordings directory).
+ * Values are opaque JSON strings, serialized/deserialized by the JS side.
+ */
+@CapacitorPlugin(name = "RecordingsDb")
+public class RecordingsDbPlugin extends Plugin {
+
+  private static final String ERR_INVALID_URI = "ERR_INVALID_URI";
+  private static final String ERR_INVALID_CONTENT = "ERR_INVALID_CONTENT";
+  private static final String ERR_IO_EXCEPTION = "ERR_IO_EXCEPTION";
+
+  private final PluginMetrics metrics = new PluginMetrics("RecordingsDb");
+
+
+  /**
+   * Insert or update the given items
+   *
+   * @param call
+   *  call.directoryUri: URI of the recordings directory
+   *  call.items: array of { key: string, value: string } items
+   */
+  @PluginMethod()
+  public void upsert(PluginCall call) { metrics.timed(call, "upsert", this::upsert); }
+
+  private void upsert(PluginCall call, PluginMetrics.Span span) {
+
+    var store = getStoreFromCall(call);
+    if (store == null) return;
+
+    var itemsArr = call.getArray("items", null);
+    if (itemsArr == null) {
+      call.reject("Invalid or missing items", ERR_INVALID_CONTENT);
+      return;
+    }
+    var upserts = new LinkedHashMap<String, String>(itemsArr.length() * 2);
+    for (int i = 0; i < itemsArr.length(); i++) {
+      var item = itemsArr.optJSONObject(i);
+      var key = item != null ? item.optString("key", null) : null;
+      var value = item != null ? item.optString("value", null) : null;
+      if (key == null || value == null) {
+        call.reject("Invalid item at index " + i, ERR_INVALID_CONTENT);
+        return;
+      }
+      upserts.put(key, value);
+    }
+
+    try {
+      RecordingsDb.update(getContext(), call.getString("directoryUri"), upserts, Collections.emptyList());
+      call.resolve();
+    }
+    catch (IOException e) {
+      call.reject("Error writing to database", ERR_IO_EXCEPTION, e);
+    }
+
+  }
+
+  /**
+   * Delete the items with the given keys
+   *
+   * @param call
+   *  call.directoryUri: URI of the recordings directory
+   *  call.keys: array of keys to delete
+   */
+  @PluginMethod()
+  public void delete(PluginCall call) { metrics.timed(call, "delete", this::delete); }
+
+  private void delete(PluginCall call, PluginMetrics.Span span) {
+
+    var store = getStoreFromCall(call);
+    if (store == null) return;
+
+    var keysArr = call.getArray("keys", null);
+    if (keysArr == null) {
+      call.reject("Invalid or missing keys", ERR_INVALID_CONTENT);
+      return;
+    }
+    var keys = new ArrayList<String>(keysArr.length());
+    for (int i = 0; i < keysArr.length(); i++) {
+      keys.add(keysArr.optString(i));
+    }
+
+    try {
+      RecordingsDb.update(getContext(), call.getString("directoryUri"), new LinkedHashMap<>(), keys);
+      call.resolve();
+    }
+    catch (IOException e) {
+      call.reject("Error writing to database", ERR_IO_EXCEPTION, e);
+    }
+
+  }
+
+  /**
+   * Return a string containing the JSON object of the stored items ({ key: value, ... }).
+   *
+   * @param call
+   *  call.directoryUri: URI of the recordings directory
+   *  call.keys: array of keys to return (optional, all items are returned if missing)
+   */
+  @PluginMethod()
+  public void query(PluginCall call) { metrics.timed(call, "query", this::query); }
+
+  private void query(PluginCall call, PluginMetrics.Span span) {
+
+    var store = getStoreFromCall(call);
+    if (store == null) return;
+
+    // values are already JSON, so they're written as-is
+    var sb = new StringBuilder();
+    sb.append('{');
+    var keysArr = call.getArray("keys", null);
+    if (keysArr == null) {
+      for (var e : store.getAll().entrySet()) {
+        appendItem(sb, e.getKey(), e.getValue());
+      }
+    }
+    else {
+      for (int i = 0; i < keysArr.length(); i++) {
+        var key = keysArr.optString(i);
+        var value = store.get(key);
+        if (value != null) {
+          appendItem(sb, key, value);
+        }
+      }
+    }
+    sb.append('}');
+    span.addBytes(sb.length());
+
+    var ret = new JSObject();
+    ret.put("itemsJson", sb.toString());
+    call.resolve(ret);
+
+  }
+
+  /**
+   * Return a string containing the JSON array of the keys of the recordings matching the given search string,
+   * sorted with the given mode (only the requested window is returned), together with the total number of matches.
+   *
+   * @param call
+   *  call.directoryUri: URI of the recordings directory
+   *  call.search: whitespace separated search terms, matched against recording name and number (optional)
+   *  call.sortMode: sort mode (see SortModeEnum)
+   *  call.offset: offset of the first returned item (optional, default 0)
+   *  call.limit: max number of returned items (optional, all matches if missing)
+   */
+  @PluginMethod()
+  public void queryRecordings(PluginCall call) { metrics.timed(call, "queryRecordings", this::queryRecordings); }
+
+  private void queryRecordings(PluginCall call, PluginMetrics.Span span) {
+
+    var store = getStoreFromCall(call);
+    if (store == null) return;
+
+    var index = RecordingsDb.getIndex(call.getString("directoryUri"), store);
+    var result = index.query(
+      call.getString("search", null),
+      call.getInt("sortMode", RecordingsIndex.SORT_DATE_DESC),
+      Math.max(0, call.getInt("offset", 0)),
+      Math.max(0, call.getInt("limit", 0))
+    );
+
+    var itemsJson = new JSONArray(result.keys).toString();
+    span.addRows(result.keys.size());
+    span.addBytes(itemsJson.length());
+
+    var ret = new JSObject();
+    ret.put("itemsJson", itemsJson);
+    ret.put("total", result.total);
+    call.resolve(ret);
+
+  }
+
+  private static void appendItem(StringBuilder sb, String key, String value) {
+    if (sb.length() > 1) {
+      sb.append(',');
+    }
+    sb.append(JSONObject.quote(key)).append(':').append(value);
+  }
+
+  /**
+   * Return the store of the given PluginCall "directoryUri" parameter (opening it if needed).
+   * In case of error, reject the call and return null.
+   */
+  @Nullable
+  private JournalStore getStoreFromCall(PluginCall call) {
+
+    var directoryUri = call.getString("directoryUri", null);
+    if (directoryUri == null || directoryUri.isBlank()) {
+      call.reject("Invalid or missing directory", ERR_INVALID_URI);
+      return null;
+    }
+
+    try {
+      return RecordingsDb.getStore(getContext(), directoryUri);
+    }
+    catch (IOException e) {
+      call.reject("Error opening database", ERR_IO_EXCEPTION, e);
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,272 @@
+package com.github.nicorac.plugins.recordingsdb;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory search/sort index of the recordings stored in a JournalStore.
+ *
+ * Recordings are kept pre-sorted by date and by duration, and their search text ("opName opNumber")
+ * is indexed by trigrams, so a query only verifies the candidates of its search terms and walks a
+ * pre-sorted array to extract the requested window.
+ * Changed items are reparsed on update, while sorted arrays and trigrams are rebuilt lazily at next query.
+ */
+class RecordingsIndex {
+
+  // sort modes (see SortModeEnum)
+  static final int SORT_DATE_ASC = 10;
+  static final int SORT_DATE_DESC = 11;
+  static final int SORT_DURATION_ASC = 20;
+  static final int SORT_DURATION_DESC = 21;
+
+  private static final int NGRAM_SIZE = 3;
+
+  /**
+   * Indexed fields of a recording
+   */
+  private static class Entry {
+    final String key;
+    final long date;
+    final double duration;
+    // normalized search text
+    final String text;
+
+    Entry(String key, long date, double duration, String text) {
+      this.key = key;
+      this.date = date;
+      this.duration = duration;
+      this.text = text;
+    }
+  }
+
+  /**
+   * Result of a query
+   */
+  static class QueryResult {
+    // keys of the requested window
+    final List<String> keys = new ArrayList<>();
+    // total number of matching items
+    int total;
+  }
+
+  // indexed entries, keyed by store key
+  private final HashMap<String, Entry> entries = new HashMap<>();
+
+  // lazily built structures (null when they must be rebuilt)
+  @Nullable private Entry[] items;
+  @Nullable private int[] byDate;
+  @Nullable private int[] byDuration;
+  @Nullable private HashMap<Long, int[]> ngrams;
+
+  RecordingsIndex(Map<String, String> storeItems) {
+    update(storeItems, null);
+  }
+
+  /**
+   * Update the index with the given upserted/deleted store items
+   */
+  synchronized void update(@Nullable Map<String, String> upserts, @Nullable Iterable<String> deletes) {
+    if (upserts != null) {
+      for (var e : upserts.entrySet()) {
+        var entry = parse(e.getKey(), e.getValue());
+        if (entry != null) {
+          entries.put(e.getKey(), entry);
+        }
+        else {
+          entries.remove(e.getKey());
+        }
+      }
+    }
+    if (deletes != null) {
+      for (var key : deletes) {
+        entries.remove(key);
+      }
+    }
+    items = null;
+  }
+
+  /**
+   * Return the keys of the items matching all of the whitespace separated terms of the given search
+   * string (case insensitive), sorted by the given mode.
+   *
+   * @param limit max number of returned keys (0 = no limit)
+   */
+  synchronized QueryResult query(@Nullable String search, int sortMode, int offset, int limit) {
+
+    build();
+    var res = new QueryResult();
+
+    // get matches (null = all items)
+    var matches = search != null ? match(search) : null;
+
+    // walk the sorted index collecting the requested window
+    var order = sortMode == SORT_DURATION_ASC || sortMode == SORT_DURATION_DESC ? byDuration : byDate;
+    var descending = sortMode != SORT_DATE_ASC && sortMode != SORT_DURATION_ASC;
+    var end = limit > 0 ? offset + limit : Integer.MAX_VALUE;
+    for (int i = 0; i < order.length; i++) {
+      var ix = order[descending ? order.length - 1 - i : i];
+      if (matches != null && !matches[ix]) continue;
+      if (res.total >= offset && res.total < end) {
+        res.keys.add(items[ix].key);
+      }
+      res.total++;
+    }
+    return res;
+
+  }
+
+  /**
+   * Return the items matching the given search string (null if there are no search terms)
+   */
+  @Nullable
+  private boolean[] match(String search) {
+
+    var terms = new ArrayList<String>();
+    for (var t : normalize(search).split("\\s+")) {
+      if (!t.isEmpty()) terms.add(t);
+    }
+    if (terms.isEmpty()) {
+      return null;
+    }
+
+    // candidates: intersection of the postings of the trigrams of each term
+    int[] candidates = null;
+    for (var t : terms) {
+      for (int i = 0; i + NGRAM_SIZE <= t.length(); i++) {
+        var postings = ngrams.get(ngramKey(t, i));
+        if (postings == null) {
+          return new boolean[items.length];
+        }
+        candidates = candidates == null ? postings : intersect(candidates, postings);
+      }
+    }
+
+    // verify candidates (trigrams don't check order, short terms have no trigrams)
+    var res = new boolean[items.length];
+    if (candidates != null) {
+      for (var ix : candidates) {
+        res[ix] = matchesAll(items[ix].text, terms);
+      }
+    }
+    else {
+      for (int ix = 0; ix < items.length; ix++) {
+        res[ix] = matchesAll(items[ix].text, terms);
+      }
+    }
+    return res;
+
+  }
+
+  private static boolean matchesAll(String text, List<String> terms) {
+    for (var t : terms) {
+      if (!text.contains(t)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Rebuild sorted arrays and trigrams index (if needed)
+   */
+  private void build() {
+
+    if (items != null) return;
+
+    // items are sorted by key, so sorts are stable
+    var sorted = entries.values().toArray(new Entry[0]);
+    Arrays.sort(sorted, Comparator.comparing(e -> e.key));
+    var count = sorted.length;
+
+    byDate = sortedIndexes(count, (a, b) -> Long.compare(sorted[a].date, sorted[b].date));
+    byDuration = sortedIndexes(count, (a, b) -> Double.compare(sorted[a].duration, sorted[b].duration));
+
+    // trigrams postings (each one sorted by item index)
+    var postings = new HashMap<Long, ArrayList<Integer>>();
+    for (int ix = 0; ix < count; ix++) {
+      var text = sorted[ix].text;
+      for (int i = 0; i + NGRAM_SIZE <= text.length(); i++) {
+        var list = postings.get(ngramKey(text, i));
+        if (list == null) {
+          list = new ArrayList<>();
+          postings.put(ngramKey(text, i), list);
+        }
+        if (list.isEmpty() || list.get(list.size() - 1) != ix) {
+          list.add(ix);
+        }
+      }
+    }
+    ngrams = new HashMap<>(postings.size() * 2);
+    for (var e : postings.entrySet()) {
+      var list = e.getValue();
+      var arr = new int[list.size()];
+      for (int i = 0; i < arr.length; i++) arr[i] = list.get(i);
+      ngrams.put(e.getKey(), arr);
+    }
+
+    items = sorted;
+
+  }
+
+  private static int[] sortedIndexes(int count, Comparator<Integer> comparator) {
+    var boxed = new Integer[count];
+    for (int i = 0; i < count; i++) boxed[i] = i;
+    Arrays.sort(boxed, comparator);
+    var res = new int[count];
+    for (int i = 0; i < count; i++) res[i] = boxed[i];
+    return res;
+  }
+
+  /**
+   * Intersection of two sorted arrays
+   */
+  private static int[] intersect(int[] a, int[] b) {
+    var res = new int[Math.min(a.length, b.length)];
+    int i = 0, j = 0, n = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) i++;
+      else if (a[i] > b[j]) j++;
+      else {
+        res[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(res, n);
+  }
+
+  private static long ngramKey(String s, int start) {
+    return ((long) s.charAt(start) << 32) | ((long) s.charAt(start + 1) << 16) | s.charAt(start + 2);
+  }
+
+  private static String normalize(String s) {
+    return s.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Parse the indexed fields of a serialized Recording (null if the item is not a recording)
+   */
+  @Nullable
+  private static Entry parse(String key, String value) {
+    if (key.startsWith("$")) {
+      return null;
+    }
+    try {
+      var obj = new JSONObject(value);
+      var text = obj.optString("opName", "") + " " + obj.optString("opNumber", "");
+      return new Entry(key, obj.optLong("date", 0), obj.optDouble("duration", 0), normalize(text));
+    }
+    catch (JSONException e) {
+      return null;
+    }
+  }
+
+}
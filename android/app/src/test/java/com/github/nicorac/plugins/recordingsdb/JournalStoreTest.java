@@ -0,0 +1,117 @@
+package com.github.nicorac.plugins.recordingsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class JournalStoreTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void replaysJournal() throws Exception {
+    var file = new File(tmp.getRoot(), "db.journal");
+    var store = new JournalStore(file);
+    store.update(Map.of("a", "1", "b", "2"), Collections.emptyList());
+    store.update(Map.of("a", "3"), List.of("b"));
+
+    var reopened = new JournalStore(file);
+    assertEquals("3", reopened.get("a"));
+    assertNull(reopened.get("b"));
+    assertEquals(1, reopened.size());
+    assertEquals(file.length(), reopened.getJournalSize());
+  }
+
+  @Test
+  public void dropsTruncatedTail() throws Exception {
+    var file = new File(tmp.getRoot(), "db.journal");
+    var store = new JournalStore(file);
+    store.update(Map.of("a", "1"), Collections.emptyList());
+    var validSize = file.length();
+    store.update(Map.of("b", "2"), Collections.emptyList());
+
+    // cut the last record in half
+    try (var raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(validSize + (file.length() - validSize) / 2);
+    }
+
+    var reopened = new JournalStore(file);
+    assertEquals("1", reopened.get("a"));
+    assertNull(reopened.get("b"));
+    assertEquals(validSize, file.length());
+  }
+
+  @Test
+  public void appendsAfterFailedWrite() throws Exception {
+    var file = new File(tmp.getRoot(), "db.journal");
+    var store = new FailingJournalStore(file);
+    store.update(Map.of("a", "1"), Collections.emptyList());
+
+    // failed write leaves a partial record
+    store.failNext = true;
+    try {
+      store.update(Map.of("b", "2"), Collections.emptyList());
+      fail("IOException expected");
+    }
+    catch (IOException ignored) { }
+    assertNull(store.get("b"));
+
+    store.update(Map.of("c", "3"), Collections.emptyList());
+
+    var reopened = new JournalStore(file);
+    assertEquals("1", reopened.get("a"));
+    assertNull(reopened.get("b"));
+    assertEquals("3", reopened.get("c"));
+  }
+
+  @Test
+  public void tracksSizeOfNonAsciiKeys() throws Exception {
+    var file = new File(tmp.getRoot(), "db.journal");
+    var store = new JournalStore(file);
+    var key = "M\u00fcller \u674e\u5c0f\u9f99.oga";
+    store.update(Map.of(key, "{}"), Collections.emptyList());
+
+    assertEquals(file.length(), store.getJournalSize());
+    store.compact();
+    assertEquals(file.length(), store.getLiveSize());
+    assertEquals(file.length() - 4, JournalStore.recordSize(key, "{}".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Store whose next append writes only half of the records, then fails
+   */
+  private static class FailingJournalStore extends JournalStore {
+
+    boolean failNext = false;
+
+    FailingJournalStore(File file) throws IOException {
+      super(file);
+    }
+
+    @Override
+    void append(FileOutputStream fos, byte[] records) throws IOException {
+      if (failNext) {
+        failNext = false;
+        fos.write(records, 0, records.length / 2);
+        throw new IOException("No space left on device");
+      }
+      super.append(fos, records);
+    }
+
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filename pattern parsing (AndroidSAFPlugin.parseFilenames(), with BCR default pattern)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FilenameParserBenchmark {
+
+  // same parallelism of AndroidSAFPlugin
+  private static final int PARALLELISM = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  @Param({ "1000", "10000", "100000" })
+  public int files;
+
+  private List<String> filenames;
+  private FilenameParser parser;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() {
+    filenames = SyntheticData.filenames(files);
+    parser = FilenameParser.get(SyntheticData.FILENAME_PATTERN);
+    executor = Executors.newFixedThreadPool(PARALLELISM);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public void parse(Blackhole bh) {
+    for (var fn : filenames) {
+      bh.consume(parser.parse(fn));
+    }
+  }
+
+  @Benchmark
+  public Object parseAll() throws InterruptedException, ExecutionException {
+    return parser.parseAll(filenames, executor, PARALLELISM);
+  }
+
+}
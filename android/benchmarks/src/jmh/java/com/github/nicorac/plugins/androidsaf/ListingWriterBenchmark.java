@@ -0,0 +1,48 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON generation of directory listings (AndroidSAFPlugin.listFileFaster()), as items and as columns
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ListingWriterBenchmark {
+
+  @Param({ "1000", "10000", "100000" })
+  public int files;
+
+  private SyntheticData.ListingRows rows;
+
+  @Setup
+  public void setUp() {
+    rows = new SyntheticData.ListingRows(SyntheticData.filenames(files));
+  }
+
+  @Benchmark
+  public String listFiles() {
+    rows.reset();
+    var sb = new StringBuilder(files * ListingWriter.ITEM_SIZE_HINT);
+    ListingWriter.write(rows, SyntheticData::buildDocumentUri, 0, sb);
+    return sb.toString();
+  }
+
+  @Benchmark
+  public String listFilesColumns() {
+    rows.reset();
+    var sb = new StringBuilder(files * ListingWriter.COLUMNS_ITEM_SIZE_HINT);
+    ListingWriter.writeColumns(rows, SyntheticData.TREE_URI + "/document/", SyntheticData::encodeDocumentId, 0, sb);
+    return sb.toString();
+  }
+
+}
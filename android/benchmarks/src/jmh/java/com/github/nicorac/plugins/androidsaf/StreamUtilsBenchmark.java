@@ -0,0 +1,83 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File read/write paths of AndroidSAFPlugin (readFile(), readFileChunks(), writeFile()),
+ * on a JSON file listing the given number of files (a few hundred bytes per file)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StreamUtilsBenchmark {
+
+  private static final int CHUNK_SIZE = 256 * 1024;
+
+  // (java.util.Base64 in place of android.util.Base64)
+  private static final StreamUtils.Base64Encoder ENCODER = (data, offset, length) ->
+    new String(Base64.getEncoder().encode(ByteBuffer.wrap(data, offset, length)).array(), StandardCharsets.ISO_8859_1);
+  private static final StreamUtils.Base64Decoder DECODER = (data, offset, length) ->
+    Base64.getDecoder().decode(ByteBuffer.wrap(data, offset, length)).array();
+
+  @Param({ "1000", "10000", "100000" })
+  public int files;
+
+  private byte[] content;
+  private String base64DataUrl;
+
+  @Setup
+  public void setUp() {
+    content = SyntheticData.listingJson(SyntheticData.filenames(files));
+    base64DataUrl = "data:application/json;base64," + Base64.getEncoder().encodeToString(content);
+  }
+
+  /**
+   * readFile() with encoding (non seekable stream)
+   */
+  @Benchmark
+  public String readFileAsString() throws IOException {
+    return new String(StreamUtils.readBytes(new ByteArrayInputStream(content), -1), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * readFileChunks() with encoding
+   */
+  @Benchmark
+  public long readTextChunks(Blackhole bh) throws IOException {
+    var reader = new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8);
+    return StreamUtils.readTextChunks(reader, CHUNK_SIZE, (offset, chunk) -> bh.consume(chunk));
+  }
+
+  /**
+   * readFileChunks() without encoding (BASE64 chunks)
+   */
+  @Benchmark
+  public long readBase64Chunks(Blackhole bh) throws IOException {
+    return StreamUtils.readBase64Chunks(new ByteArrayInputStream(content), CHUNK_SIZE, ENCODER, (offset, chunk) -> bh.consume(chunk));
+  }
+
+  /**
+   * writeFile() without encoding (BASE64 data URL content)
+   */
+  @Benchmark
+  public byte[] writeBase64() {
+    return StreamUtils.decodeBase64(base64DataUrl, DECODER);
+  }
+
+}
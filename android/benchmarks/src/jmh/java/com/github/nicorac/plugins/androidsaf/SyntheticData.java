@@ -0,0 +1,100 @@
+package com.github.nicorac.plugins.androidsaf;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic recordings directory content (BCR-like filenames, fixed seed)
+ */
+class SyntheticData {
+
+  // BCR default filename pattern (see FILENAME_PATTERN_TEMPLATES)
+  static final String FILENAME_PATTERN = "^{date}(_{direction})?(_sim{sim_slot})?_{phone_number}(_{contact_name})?";
+
+  static final String TREE_URI = "content://com.android.externalstorage.documents/tree/primary%3ABCR";
+
+  private static final String[] DIRECTIONS = { "in", "out", "conference" };
+  private static final String[] NAMES = { "Mario Rossi", "Jane Doe", "M\u00fcller & S\u00f6hne", "\"Quoted\" Name", "\u674e\u5c0f\u9f99" };
+  private static final String[] EXTENSIONS = { "oga", "m4a", "flac", "wav", "json" };
+
+  private SyntheticData() { }
+
+  /**
+   * Return "count" recording filenames
+   */
+  static List<String> filenames(int count) {
+    var rnd = new Random(42);
+    var res = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      var sb = new StringBuilder(80);
+      sb.append(String.format("2023%02d%02d_%02d%02d%02d.%03d+0200",
+        1 + rnd.nextInt(12), 1 + rnd.nextInt(28), rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(60), rnd.nextInt(1000)));
+      sb.append('_').append(DIRECTIONS[rnd.nextInt(DIRECTIONS.length)]);
+      if (rnd.nextBoolean()) {
+        sb.append("_sim").append(1 + rnd.nextInt(2));
+      }
+      sb.append("_+39").append(3_000_000_000L + rnd.nextInt(1_000_000_000));
+      if (rnd.nextBoolean()) {
+        sb.append('_').append(NAMES[rnd.nextInt(NAMES.length)]);
+      }
+      sb.append('.').append(EXTENSIONS[i % EXTENSIONS.length]);
+      res.add(sb.toString());
+    }
+    return res;
+  }
+
+  /**
+   * Listing rows (like the ones of a directory Cursor), one per filename
+   */
+  static class ListingRows implements ListingWriter.Rows {
+
+    private final String[][] strings;
+    private final long[][] longs;
+    private int position = -1;
+
+    ListingRows(List<String> filenames) {
+      var rnd = new Random(42);
+      strings = new String[filenames.size()][];
+      longs = new long[filenames.size()][];
+      for (int i = 0; i < strings.length; i++) {
+        var name = filenames.get(i);
+        strings[i] = new String[] { "primary:BCR/" + name, name, name.endsWith(".json") ? "application/json" : "audio/ogg" };
+        longs[i] = new long[] { 0, 0, 0, 0, rnd.nextInt(10_000_000), 1_690_000_000_000L + rnd.nextInt(1_000_000_000) };
+      }
+    }
+
+    void reset() { position = -1; }
+
+    @Override public boolean moveToNext() { return ++position < strings.length; }
+    @Override public String getString(int column) { return strings[position][column]; }
+    @Override public long getLong(int column) { return longs[position][column]; }
+
+  }
+
+  /**
+   * Builder of document URIs (like DocumentsContract.buildDocumentUriUsingTree())
+   */
+  static String buildDocumentUri(String documentId) {
+    return TREE_URI + "/document/" + encodeDocumentId(documentId);
+  }
+
+  /**
+   * Encoder of document IDs as URI path segments (like Uri.encode())
+   */
+  static String encodeDocumentId(String documentId) {
+    return URLEncoder.encode(documentId, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Return the JSON listing of the given filenames (like the content of a recordings DB file)
+   */
+  static byte[] listingJson(List<String> filenames) {
+    var sb = new StringBuilder(filenames.size() * ListingWriter.ITEM_SIZE_HINT);
+    ListingWriter.write(new ListingRows(filenames), SyntheticData::buildDocumentUri, 0, sb);
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+}
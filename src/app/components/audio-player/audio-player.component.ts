@@ -10,6 +10,9 @@ import { AudioPlayer, IBaseParams } from 'src/plugins/audioplayer';
 import { ChangeDetectionStrategy, ChangeDetectorRef, Component, input, OnDestroy, OnInit, signal } from '@angular/core';
 import { RangeCustomEvent } from '@ionic/angular';
 
+// playback speeds selectable with the speed button (in cycle order)
+const PLAYBACK_SPEEDS = [ 1, 1.25, 1.5, 2, 3, 0.5, 0.75 ];
+
 export enum PlayerStatusEnum {
   Paused = 0,
   Playing = 10,
@@ -33,12 +36,14 @@ export class AudioPlayerComponent implements OnInit, OnDestroy {
   protected status = signal(PlayerStatusEnum.Paused);
   protected progress = signal(0);   // current play position (in integer seconds)
   protected duration = signal(0);   // audio duration in seconds
+  protected speed = signal(1);      // playback speed
   private playerRef?: IBaseParams;
 
   // subscriptions
   private _androidEventsSubs = new Subscription();
   private removePlayCompletedListener?: () => Promise<void>;
   private removeUpdateListener?: () => Promise<void>;
+  private removePlayStatusListener?: () => Promise<void>;
 
   // inputs
   public recording = input.required<Recording>();
@@ -98,8 +103,19 @@ export class AudioPlayerComponent implements OnInit, OnDestroy {
       // subscribe to update event and
       // save reference to listener remove function
       this.removeUpdateListener = await AudioPlayer.addListener('update', (res) => {
+        const update = res.players.find(p => p.id === this.playerRef?.id);
+        if (update) {
+          this.progress.set(Math.floor(update.position / 1000));
+        }
+      }).remove;
+
+      // subscribe to play status changes made with transport controls
+      // (notification, lock screen, headset buttons)
+      this.removePlayStatusListener = await AudioPlayer.addListener('playStatusChanged', (res) => {
         if (res.id === this.playerRef?.id) {
+          this.status.set(res.playing ? PlayerStatusEnum.Playing : PlayerStatusEnum.Paused);
           this.progress.set(Math.floor(res.position / 1000));
+          this.cdr.detectChanges(); // workaround needed to let Angular update values...
         }
       }).remove;
 
@@ -111,7 +127,7 @@ export class AudioPlayerComponent implements OnInit, OnDestroy {
       if (!this.recording().duration) {
         this.recording().duration = this.duration();
         // forcibly save updated recordings DB
-        await this.recordingsService.save();
+        await this.recordingsService.save([ this.recording() ]);
       }
 
       // init complete
@@ -138,6 +154,7 @@ export class AudioPlayerComponent implements OnInit, OnDestroy {
     this.playerRef = undefined;
     await this.removePlayCompletedListener?.();
     await this.removeUpdateListener?.();
+    await this.removePlayStatusListener?.();
     this.cdr.detectChanges(); // workaround needed to let Angular update values...
 
   }
@@ -190,7 +207,19 @@ export class AudioPlayerComponent implements OnInit, OnDestroy {
    * Fast forward / rewind
    */
   protected async seek(delta: number) {
-    this.play(this.progress() + delta * this.settings.seekTime);
+    return AudioPlayer.skip({ id: this.playerRef!.id, offset: delta * this.settings.seekTime * 1000 })
+      .then(res => this.progress.set(Math.floor(res.position / 1000)))
+      .catch(error => this.showError(error, 'seek()'));
+  }
+
+  /**
+   * Switch to the next playback speed
+   */
+  protected async nextSpeed() {
+    const next = PLAYBACK_SPEEDS[(PLAYBACK_SPEEDS.indexOf(this.speed()) + 1) % PLAYBACK_SPEEDS.length];
+    return AudioPlayer.setSpeed({ id: this.playerRef!.id, speed: next })
+      .then(res => this.speed.set(res.speed))
+      .catch(error => this.showError(error, 'nextSpeed()'));
   }
 
   /**
@@ -2,7 +2,9 @@ import { JsonProperty } from '../utils/json-serializer';
 import { Recording } from './recording';
 
 // database props
-export const DB_FILENAME = '.bcr-gui-database.json';
+export const DB_FILENAME = '.bcr-gui-database.json';  // JSON DB file in recordings directory (copy of native DB, imported when it's empty)
+export const DB_META_KEY = '$meta';                   // key of DB metadata in native DB (recordings are keyed by audio display name)
+export const DB_INDEX_META_KEY = '$index';            // key of background indexing metadata in native DB (written by native side only)
 export const DB_SCHEMA_VERSION = 2;
 
 // database structure
@@ -17,9 +19,14 @@ export class DbContent {
   @JsonProperty()
   lastUpdate: number = 0;
 
-  constructor(data: Recording[] = [], lastUpdate = 0) {
+  // generation token of the last directory scan
+  @JsonProperty()
+  scanGeneration?: number;
+
+  constructor(data: Recording[] = [], lastUpdate = 0, scanGeneration?: number) {
     this.data = data;
     this.lastUpdate = lastUpdate;
+    this.scanGeneration = scanGeneration;
   }
 
 }
\ No newline at end of file
@@ -1,4 +1,4 @@
-import { AndroidSAF, Encoding, IDocumentFile } from 'src/plugins/androidsaf';
+import { IDocumentFile } from 'src/plugins/androidsaf';
 import { replaceExtension, stripExtension } from '../utils/filesystem';
 import { JsonProperty } from '../utils/json-serializer';
 import { BcrRecordingMetadata, CallDirection } from './BcrRecordingMetadata';
@@ -80,10 +80,12 @@ export class Recording {
 
   /**
    * Create a new Recording instance from the given audio file and optional metadata file
+   * (metadata file content must be already loaded, see AndroidSAFUtils.readMetadataBatch())
    */
-  static async createInstance(
+  static createInstance(
     file: IDocumentFile,
     metadataFile: IDocumentFile|undefined,
+    metadata: Partial<BcrRecordingMetadata>|undefined,
     filenameRegExp: RegExp
   ) {
 
@@ -101,12 +103,6 @@ export class Recording {
     res.opName = file.displayName;
     res.opNumber = file.displayName;
 
-    // try to extract metadata from companion JSON file
-    //props are not available, try to extract them from filename
-    let metadata: Partial<BcrRecordingMetadata>|undefined = undefined;
-    if (metadataFile) {
-      metadata = await Recording.loadJSONMetadata(metadataFile);
-    }
     // if JSON file is missing or a parse error occurred then fallback to parsing filename
     if (!metadata) {
       metadata = Recording.extractMetadataFromFilename(file.displayName, filenameRegExp);
@@ -117,10 +113,10 @@ export class Recording {
   }
 
   /**
-   * Set recording metadata (used by both createInstance and reparseFilename)
+   * Set recording metadata (real or extracted from filename)
    * @param metadata
    */
-  private setMetadata(metadata: Partial<BcrRecordingMetadata>) {
+  public setMetadata(metadata: Partial<BcrRecordingMetadata>) {
 
     // parse other fields from real (or "filename extracted") metadata
     this.direction = metadata.direction ?? '';
@@ -139,33 +135,6 @@ export class Recording {
 
   }
 
-  /**
-   * Reparse recording filename
-   */
-  public reparseFilename(displayName: string, filenameRegExp: RegExp) {
-    const metadata = Recording.extractMetadataFromFilename(displayName, filenameRegExp);
-    this.setMetadata(metadata);
-  }
-
-  /**
-   * Load metadata JSON file and extract its contained data
-   */
-  private static async loadJSONMetadata(metadataFile: IDocumentFile): Promise<Partial<BcrRecordingMetadata>|undefined> {
-
-    const { content: metadataFileContent } = await AndroidSAF.readFile({
-      fileUri: metadataFile.uri,
-      encoding: Encoding.UTF8,
-    });
-    try {
-      return JSON.parse(metadataFileContent);
-    }
-    catch (error) {
-      console.error(error);
-      return undefined;
-    }
-
-  }
-
   /**
    * Try to extract metadata by parsing the recording filename.
    *
@@ -15,14 +15,15 @@ import { MessageBoxService } from 'src/app/services/message-box.service';
 import { RecordingsService } from 'src/app/services/recordings.service';
 import { SettingsService } from 'src/app/services/settings.service';
 import { filterList } from 'src/app/utils/filterList';
-import { sortRecordings } from 'src/app/utils/recordings-sorter';
+import { SortModeEnum, sortRecordings } from 'src/app/utils/recordings-sorter';
 import { bringIntoView } from 'src/app/utils/scroll';
 import { untilTrue } from 'src/app/utils/waitForAsync';
 import { AndroidSAF } from 'src/plugins/androidsaf';
 import { AudioPlayer } from 'src/plugins/audioplayer';
+import { RecordingsDbUtils } from 'src/plugins/recordingsdb';
 import { CdkVirtualScrollViewport, ScrollingModule } from '@angular/cdk/scrolling';
 import { DatePipe } from '@angular/common';
-import { AfterViewInit, ChangeDetectionStrategy, ChangeDetectorRef, Component, computed, signal, untracked, viewChild } from '@angular/core';
+import { AfterViewInit, ChangeDetectionStrategy, ChangeDetectorRef, Component, effect, signal, untracked, viewChild } from '@angular/core';
 import { FormsModule } from '@angular/forms';
 import { Router } from '@angular/router';
 import { Clipboard } from '@capacitor/clipboard';
@@ -71,15 +72,18 @@ export class MainPage implements AfterViewInit {
     },
   ];
 
-  // filtered items collection
-  protected items = computed<Recording[]>(() => {
-    // filter
-    const res = filterList(this.recordingsService.recordings(), this.searchValue(), r => `${r.opName} ${r.opNumber}`);
-    // close any open player to let the list update without leaving "orphaned" player IDs
-    untracked(() => this.clearSelection());
-    // sort
-    return sortRecordings(res, this.settings.recordingsSortMode);
-  });
+  // filtered items collection (filtered and sorted by the native DB indexes, see updateItems())
+  // it has the length of the whole filtered list, but only the pages of the rendered range are fetched
+  // (items of the other pages are undefined)
+  protected items = signal<(Recording | undefined)[]>([]);
+  private itemsQueryId = 0;
+  private itemsSearch = '';
+  private itemsSortMode?: SortModeEnum;
+  private itemsPages = new Set<number>(); // fetched (or being fetched) pages
+  private static readonly ITEMS_PAGE_SIZE = 50;
+
+  // phone numbers already looked up in contacts (see resolveNames())
+  private resolvedNumbers = new Set<string>();
 
   protected topIndex = 0; // index of top shown recording
   protected itemHeight = 78;
@@ -101,15 +105,161 @@ export class MainPage implements AfterViewInit {
     protected recordingsService: RecordingsService,
     protected router: Router,
     protected settings: SettingsService,
-  ) { }
+  ) {
+    // update items on DB or search changes
+    effect(() => {
+      this.recordingsService.dbVersion();
+      const search = this.searchValue();
+      untracked(() => this.updateItems(search));
+    });
+
+    // name new recordings after their contacts
+    effect(() => {
+      this.recordingsService.dbVersion();
+      untracked(() => this.resolveNames());
+    });
+  }
+
+  /**
+   * Name the recordings without a name (i.e. named after their phone number) with the matching contacts,
+   * resolving all of their phone numbers with a single native call.
+   * Nothing is done if Contacts permission hasn't been granted yet (user is not asked for it).
+   */
+  private async resolveNames() {
+
+    const numbers = [ ...new Set(this.recordingsService.recordings()
+      .filter(r => r.opName === r.opNumber && !this.resolvedNumbers.has(r.opNumber) && this.contactsService.isPhoneNumber(r.opNumber))
+      .map(r => r.opNumber)
+    ) ];
+    if (!numbers.length) return;
+
+    try {
+      if (!await this.contactsService.hasPermission()) return;
+      numbers.forEach(n => this.resolvedNumbers.add(n));
+      const displayNames = await this.contactsService.resolveContacts(numbers);
+      const names = new Map<string, string>();
+      numbers.forEach((n, i) => displayNames[i] && names.set(n, displayNames[i]!));
+      if (names.size) {
+        await this.recordingsService.setNamesByNumber(names, true);
+      }
+    } catch (error) {
+      console.error('Error resolving contacts:', error);
+    }
+
+  }
+
+  /**
+   * Query the native DB for the recordings matching the given search string (sorted by current sort mode)
+   * and fetch the first page of them (the other pages are fetched when rendered, see fetchItems())
+   */
+  private async updateItems(search: string) {
+
+    const queryId = ++this.itemsQueryId;
+    this.itemsSearch = search;
+    this.itemsSortMode = this.settings.recordingsSortMode;
+    let res: (Recording | undefined)[];
+    let pages: number[];
+    try {
+      const { keys, total } = await this.queryItems(search, 0, MainPage.ITEMS_PAGE_SIZE);
+      const recordings = this.getRecordings(keys);
+      res = new Array(total);
+      res.splice(0, recordings.length, ...recordings);
+      pages = [ 0 ];
+    } catch (error) {
+      // fallback to in-memory filter & sort
+      console.error(error);
+      res = sortRecordings(
+        filterList(this.recordingsService.recordings(), search, r => `${r.opName} ${r.opNumber}`),
+        this.settings.recordingsSortMode
+      );
+      pages = Array.from({ length: Math.ceil(res.length / MainPage.ITEMS_PAGE_SIZE) }, (_, i) => i);
+    }
+
+    // discard outdated results
+    if (queryId !== this.itemsQueryId) {
+      return;
+    }
+
+    // close any open player to let the list update without leaving "orphaned" player IDs
+    this.clearSelection();
+    this.itemsPages = new Set(pages);
+    this.items.set(res);
+
+    // fetch the other rendered pages (if list is scrolled)
+    const range = this.scrollViewport()?.getRenderedRange();
+    if (range) {
+      this.fetchItems(range.start, range.end);
+    }
+
+  }
+
+  /**
+   * Fetch the (not yet fetched) pages of items in the given range
+   */
+  private async fetchItems(start: number, end: number) {
+
+    const queryId = this.itemsQueryId;
+    const pageSize = MainPage.ITEMS_PAGE_SIZE;
+    for (let page = Math.floor(start / pageSize); page * pageSize < Math.min(end, this.items().length); page++) {
+      if (this.itemsPages.has(page)) continue;
+      this.itemsPages.add(page);
+      try {
+        const { keys } = await this.queryItems(this.itemsSearch, page * pageSize, pageSize);
+        // discard outdated results
+        if (queryId !== this.itemsQueryId) {
+          return;
+        }
+        const recordings = this.getRecordings(keys);
+        this.items.update(items => {
+          const res = [ ...items ];
+          res.splice(page * pageSize, recordings.length, ...recordings);
+          return res;
+        });
+      } catch (error) {
+        console.error(error);
+        this.itemsPages.delete(page);
+      }
+    }
+
+  }
+
+  /**
+   * Query the native DB for a page of the keys of the recordings matching the given search string
+   */
+  private queryItems(search: string, offset?: number, limit?: number) {
+    return RecordingsDbUtils.queryRecordings({
+      directoryUri: this.settings.recordingsDirectoryUri,
+      search,
+      sortMode: this.settings.recordingsSortMode,
+      offset,
+      limit,
+    });
+  }
+
+  /**
+   * Return the recordings with the given keys
+   */
+  private getRecordings(keys: string[]): Recording[] {
+    const byKey = this.recordingsService.recordingsByKey();
+    return keys.map(k => byKey.get(k)).filter(r => r !== undefined) as Recording[];
+  }
 
   async ionViewWillEnter() {
 
     // save reference to myself
     this.recordingsService.mainPageRef = this;
 
+    // re-sort items if sort mode has been changed
+    if (this.itemsSortMode !== undefined && this.itemsSortMode !== this.settings.recordingsSortMode) {
+      this.updateItems(this.searchValue());
+    }
+
     // set audio output
-    await AudioPlayer.setConfiguration({ enableEarpiece: this.settings.enableEarpiece });
+    await AudioPlayer.setConfiguration({
+      enableEarpiece: this.settings.enableEarpiece,
+      skipInterval: this.settings.seekTime * 1000,
+      skipSilence: this.settings.skipSilence,
+    });
 
     // // subscribe
     // [
@@ -139,11 +289,10 @@ export class MainPage implements AfterViewInit {
     this.clearFilter();
     this.isMultiselect.set(false);
 
-    // find the required filename
-    const playItemIx = this.items().findIndex(i => i.audioUri === viewIntentFilename);
-    if (playItemIx >= 0) {
-
-      const playItem = this.items()[playItemIx];
+    // find the required filename (and its index in the unfiltered list)
+    const playItem = this.recordingsService.recordings().find(i => i.audioUri === viewIntentFilename);
+    const playItemIx = playItem ? await this.findItemIndex(playItem) : -1;
+    if (playItem && playItemIx >= 0) {
 
       // ensure it's visible
       this.scrollViewport()?.scrollToIndex(playItemIx);
@@ -184,6 +333,8 @@ export class MainPage implements AfterViewInit {
   }
 
   async ngAfterViewInit() {
+    // fetch items when they're rendered
+    this.scrollViewport()?.renderedRangeStream.subscribe(range => this.fetchItems(range.start, range.end));
     await this.recordingsService.initialize();
   }
 
@@ -199,7 +350,21 @@ export class MainPage implements AfterViewInit {
   }
 
   getSelectedItems(): Recording[] {
-    return this.items().filter(r => r.selected);
+    // (selection is only allowed on the filtered items, see clearSelection())
+    return this.recordingsService.recordings().filter(r => r.selected);
+  }
+
+  /**
+   * Return the index of the given recording in the unfiltered list (-1 if not found)
+   */
+  private async findItemIndex(rec: Recording) {
+    try {
+      const { keys } = await this.queryItems('');
+      return keys.indexOf(rec.audioDisplayName);
+    } catch (error) {
+      console.error(error);
+      return -1;
+    }
   }
 
   /**
@@ -332,7 +497,7 @@ export class MainPage implements AfterViewInit {
       ],
       onConfirm: async (data) => {
         rec.opName = data?.contactName?.length ? data.contactName : rec.opNumber;
-        await this.recordingsService.save();
+        await this.recordingsService.save([ rec ]);
       }
     });
 
@@ -347,11 +512,10 @@ export class MainPage implements AfterViewInit {
     if (await this.contactsService.checkPermission() !== 'granted') return;
 
     // find contact
-    const contact = await this.contactsService.getContactFromPhoneNumber(rec.opNumber);
+    const [ displayName ] = await this.contactsService.resolveContacts([ rec.opNumber ]);
 
     // contact found?
-    if (contact) {
-      const displayName = this.contactsService.getContactDisplayName(contact);
+    if (displayName) {
       // show confirm
       await this.mbs.showConfirm({
         header: this.i18n.get('HOME_EDIT_SEARCHCONTACT_FOUND_TITLE'),
@@ -407,7 +571,17 @@ export class MainPage implements AfterViewInit {
    */
   async selectAll() {
     this.isMultiselect.set(true);
-    this.items().forEach(i => i.selected = true); // select all VISIBLE items
+    // select all VISIBLE items (including the not yet fetched ones)
+    let recordings = this.items();
+    if (recordings.includes(undefined)) {
+      try {
+        recordings = this.getRecordings((await this.queryItems(this.itemsSearch)).keys);
+      } catch (error) {
+        console.error(error);
+      }
+    }
+    recordings.forEach(i => i && (i.selected = true));
+    this.cdr.markForCheck();
   }
 
   /**
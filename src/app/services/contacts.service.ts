@@ -1,7 +1,7 @@
 import { AndroidSettings, NativeSettings } from 'capacitor-native-settings';
 import { BcrGui } from 'src/plugins/bcrgui';
 import { Injectable } from '@angular/core';
-import { ContactPayload, Contacts } from '@capacitor-community/contacts';
+import { Contacts } from '@capacitor-community/contacts';
 import { PermissionState } from '@capacitor/core';
 import { I18nService } from './i18n.service';
 import { MessageBoxService } from './message-box.service';
@@ -32,44 +32,15 @@ export class ContactsService {
   }
 
   /**
-   * Search contacts for the one with the given phone number (returns only the first match)
+   * Return the display names of the contacts matching the given phone numbers
+   * (undefined for numbers without a matching contact), with a single native call
    */
-  async getContactFromPhoneNumber(phoneNumber: string): Promise<ContactPayload|undefined> {
-
-    // cleanup phonenumber
-    phoneNumber = this.cleanupPhoneNumber(phoneNumber);
-
-    // get contacts numbers
-    const res = await Contacts.getContacts({
-      projection: {
-        name: true,
-        phones: true,
-      }
+  async resolveContacts(phoneNumbers: string[]): Promise<(string|undefined)[]> {
+    const { itemsJson } = await BcrGui.resolveContacts({
+      numbers: phoneNumbers,
+      defaultCountryPrefix: this.settings.defaultCountryPrefix,
     });
-
-    // find and return the first contact match
-    for (const contact of res.contacts) {
-
-      // get defined and cleaned contact numbers
-      const numbers = contact.phones?.filter(n => n).map(p => this.cleanupPhoneNumber(p!.number!));
-      if (numbers?.length) {
-
-        // search first the plain number...
-        for (const n of numbers) {
-          if (n === phoneNumber) return contact;
-        }
-
-        // ...then tries adding the default country prefix
-        // (special numbers could not have intl prefix)
-        if (this.settings.defaultCountryPrefix) {
-          for (const n of numbers) {
-            if (n[0] !== '+' && (this.settings.defaultCountryPrefix + n === phoneNumber)) return contact;
-          }
-        }
-      }
-    }
-
-    return undefined;
+    return (JSON.parse(itemsJson) as (string|null)[]).map(n => n ?? undefined);
   }
 
   /**
@@ -85,10 +56,11 @@ export class ContactsService {
   }
 
   /**
-   * Extract the display name from the given contact
+   * Return true if Android Contacts permission has been granted (without asking for it)
    */
-  getContactDisplayName(contact: ContactPayload, defaultValue = '<none>'): string {
-    return contact?.name?.display ?? defaultValue;
+  async hasPermission(): Promise<boolean> {
+    const { contacts: perm } = await Contacts.checkPermissions();
+    return perm === 'granted';
   }
 
   /**
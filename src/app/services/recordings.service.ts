@@ -1,16 +1,20 @@
-import { AndroidSAF, AndroidSAFUtils, ErrorCode, GetFileUriOptions, ReadFileOptions } from 'src/plugins/androidsaf';
-import { Injectable, signal } from '@angular/core';
+import { AndroidSAF, AndroidSAFUtils, DeleteFileStatus, ErrorCode, GetFileUriOptions, IRecordingFiles, ReadFileOptions } from 'src/plugins/androidsaf';
+import { RecordingsDb, RecordingsDbUtils } from 'src/plugins/recordingsdb';
+import { Injectable, computed, signal } from '@angular/core';
 import { Encoding } from '@capacitor/filesystem';
 import { Platform } from '@ionic/angular';
-import { DB_FILENAME, DB_SCHEMA_VERSION, DbContent } from '../models/dbContent';
+import { BcrRecordingMetadata } from '../models/BcrRecordingMetadata';
+import { DB_FILENAME, DB_INDEX_META_KEY, DB_META_KEY, DB_SCHEMA_VERSION, DbContent } from '../models/dbContent';
 import { Recording } from '../models/recording';
 import { MainPage } from '../pages/main/main.page';
-import { replaceExtension } from '../utils/filesystem';
 import { deserializeObject, serializeObject } from '../utils/json-serializer';
 import { I18nService } from './i18n.service';
 import { MessageBoxService } from './message-box.service';
 import { SettingsService } from './settings.service';
 
+// number of metadata files read with a single native call
+const METADATA_BATCH_SIZE = 200;
+
 @Injectable({
   providedIn: 'root'
 })
@@ -21,9 +25,28 @@ export class RecordingsService {
   // recordings database
   public recordings = signal<Recording[]>([]);
 
+  // recordings keyed by audio display name (the native DB key)
+  public recordingsByKey = computed(() => new Map(this.recordings().map(r => [ r.audioDisplayName, r ])));
+
+  // incremented each time the native DB is loaded or updated (to refresh native queries)
+  public dbVersion = signal(0);
+
   // timestamp of last update, used to automatically refresh recording on app resume
   private lastUpdate: number = 0;
 
+  // generation token of the last directory scan, used to get only changes on next refresh
+  private scanGeneration?: number;
+
+  // URI of the watched recordings directory (undefined if its changes can't be watched)
+  private watchedDirectoryUri?: string;
+
+  // true if a directory change has been notified while refreshing
+  private pendingDirectoryChange = false;
+
+  // pending export of the DB to the JSON file in recordings directory (see scheduleExport())
+  private exportTimer?: ReturnType<typeof setTimeout>;
+  private static readonly EXPORT_DELAY_MS = 5000;
+
   // reference to main page (if active)
   public mainPageRef?: MainPage = undefined;
 
@@ -39,7 +62,22 @@ export class RecordingsService {
     private mbs: MessageBoxService,
     private platform: Platform,
     protected settings: SettingsService,
-  ) {}
+  ) {
+    // apply recordings directory changes as soon as they're notified
+    AndroidSAF.addListener('directoryChanged', data => {
+      if (data.directoryUri === this.settings.recordingsDirectoryUri) {
+        if (this.refreshProgress() !== undefined) {
+          this.pendingDirectoryChange = true;
+        }
+        else {
+          this.refreshContent();
+        }
+      }
+    });
+
+    // export pending DB changes before the app could be killed
+    this.platform.pause.subscribe(() => this.flushExport());
+  }
 
   /**
    * Initialize the recordings DB
@@ -60,9 +98,19 @@ export class RecordingsService {
       this.initialized = true;
     }
 
-    // refresh database when the app is resumed
+    // watch recordings directory for changes
+    await this.watchRecordingsDirectory();
+
+    // index new recordings in background while the app is closed
+    AndroidSAF.setBackgroundIndexing({
+      directoryUri: this.settings.recordingsDirectoryUri,
+      supportedTypes: this.settings.supportedTypes,
+      filenamePattern: this.settings.filenamePattern,
+    }).catch(error => console.warn('Error enabling background indexing:', error));
+
+    // refresh database when the app is resumed (only if directory changes can't be watched)
     this.platform.resume.subscribe(async () => {
-      if (await this.shallRefresh()) {
+      if (!this.watchedDirectoryUri && await this.shallRefresh()) {
         this.refreshContent();
       }
     });
@@ -95,62 +143,133 @@ export class RecordingsService {
     let currentDbObj = Object.fromEntries(this.recordings().map(i => [ i.audioDisplayName, i ]));
 
     try {
-      // keep files only (no directories)
-      const allFiles = (await AndroidSAFUtils.listFiles({ directoryUri: this.settings.recordingsDirectoryUri }))?.filter(i => !i.isDirectory);
-
-      // extract supported audio file types and metadata files
-      // (use an Object structure to speed up search)
-      const audioFilesObj = Object.fromEntries(allFiles.filter(i => this.settings.supportedTypes.includes(i.type)).map(i => [ i.displayName, i ]));
-      const metadataFilesObj = Object.fromEntries(allFiles.filter(i => i.displayName.endsWith('.json')).map(i => [ i.displayName, i ]));
+      // get recordings added/changed/removed since last scan
+      // (audio files are already paired with their metadata files)
+      const delta = await AndroidSAFUtils.scanRecordings({
+        directoryUri: this.settings.recordingsDirectoryUri,
+        supportedTypes: this.settings.supportedTypes,
+        generation: this.scanGeneration,
+        filenamePattern: this.settings.filenamePattern,
+      });
+      const scannedItems = [ ...delta.added, ...delta.changed ];
+      const changed: Recording[] = [];
+      const deleted: string[] = [];
 
       // STEP 1: remove deleted files from DB
       // ------------------------------------
-      Object.keys(currentDbObj)
-        .filter(fn => !(fn in audioFilesObj))
-        .forEach(fn => {
-          delete currentDbObj[fn];
-        }
-      );
-
-      // parse each audio file and its corresponding (optional) metadata file
-      const count = Object.keys(audioFilesObj).length;
-
-      // no files?
-      if (count > 0) {
-        let i = 0;
-        for (const file of Object.values(audioFilesObj)) {
-
-          // send progress update
-          this.refreshProgress.set(++i / count);
-
-          // compose metadata .json filename
-          const metadataFileName = replaceExtension(file.displayName, '.json');
-          const metadataFile = metadataFilesObj[metadataFileName];
-
-          // check if current audio file already exists in current DB (compare display names)
-          const dbRecord = currentDbObj[file.displayName];
-          if (dbRecord) {
-            // file already exists, update Uris (selected dir could have changed...)
-            dbRecord.audioUri = file.uri;
-            dbRecord.metadataUri = metadataFile?.uri;
-            // if file doesn't have JSON metadata and forceFilenameParse === true, then reparse filename
-            if (!dbRecord.metadataUri && options?.forceFilenameParse) {
-              dbRecord.reparseFilename(file.displayName, filenameRegExp);
-            }
-            continue;
+      // (a "reset" delta contains the whole directory content, so any other DB item has been deleted)
+      if (delta.reset) {
+        const scannedNames = new Set(scannedItems.map(i => i.audio.displayName));
+        Object.keys(currentDbObj)
+          .filter(fn => !scannedNames.has(fn))
+          .forEach(fn => {
+            delete currentDbObj[fn];
+            deleted.push(fn);
           }
-          else {
-            // add new element to DB
-            currentDbObj[file.displayName] = await Recording.createInstance(file, metadataFile, filenameRegExp);
+        );
+      }
+      delta.removed.forEach(fn => {
+        delete currentDbObj[fn];
+        deleted.push(fn);
+      });
+
+      // STEP 2: update files already in DB
+      // ---------------------------------
+      const newItems: IRecordingFiles[] = [];
+      const metadataChanged: [ Recording, IRecordingFiles ][] = [];
+      for (const item of scannedItems) {
+        // check if current audio file already exists in current DB (compare display names)
+        const dbRecord = currentDbObj[item.audio.displayName];
+        if (dbRecord) {
+          // file already exists, update Uris (selected dir could have changed...)
+          dbRecord.audioUri = item.audio.uri;
+          dbRecord.metadataUri = item.metadata?.uri;
+          changed.push(dbRecord);
+          // metadata file added (BCR writes it when the call ends), changed or removed
+          if (item.metadataChanged) {
+            metadataChanged.push([ dbRecord, item ]);
           }
+        }
+        else {
+          newItems.push(item);
+        }
+      }
 
+      // update metadata of recordings whose metadata file has changed
+      for (let i = 0; i < metadataChanged.length; i += METADATA_BATCH_SIZE) {
+        const batch = metadataChanged.slice(i, i + METADATA_BATCH_SIZE);
+        const metadataList = await AndroidSAFUtils.readMetadataBatch<Partial<BcrRecordingMetadata>>({
+          uris: batch.filter(([_, b]) => b.metadata).map(([_, b]) => b.metadata!.uri),
+        });
+        let m = 0;
+        for (const [ recording, { audio: file, metadata: metadataFile, filenameMetadata } ] of batch) {
+          const metadata = (metadataFile ? metadataList[m++] : undefined)
+            ?? filenameMetadata
+            ?? Recording.extractMetadataFromFilename(file.displayName, filenameRegExp);
+          recording.setMetadata(metadata);
         }
       }
 
+      // STEP 3: add new files to DB
+      // ---------------------------
+      // (metadata files are read in batches to reduce native calls)
+      const count = newItems.length;
+      for (let i = 0; i < count; i += METADATA_BATCH_SIZE) {
+
+        const batch = newItems.slice(i, i + METADATA_BATCH_SIZE);
+        const metadataList = await AndroidSAFUtils.readMetadataBatch<Partial<BcrRecordingMetadata>>({
+          uris: batch.filter(b => b.metadata).map(b => b.metadata!.uri),
+        });
+
+        let m = 0;
+        for (const { audio: file, metadata: metadataFile, filenameMetadata } of batch) {
+          const metadata = metadataFile ? metadataList[m++] ?? undefined : filenameMetadata;
+          const recording = Recording.createInstance(file, metadataFile, metadata, filenameRegExp);
+          currentDbObj[file.displayName] = recording;
+          changed.push(recording);
+        }
+
+        // send progress update
+        this.refreshProgress.set((i + batch.length) / count);
+
+      }
+
+      // STEP 4: reparse filename of files without JSON metadata (if forceFilenameParse === true)
+      // ---------------------------------------------------------------------------------------
+      if (options?.forceFilenameParse) {
+        const items = Object.entries(currentDbObj).filter(([_, r]) => !r.metadataUri);
+        // (fallback to JS parser if pattern is not supported by the native one)
+        let metadataList: (Partial<BcrRecordingMetadata>|null)[] = [];
+        try {
+          metadataList = await AndroidSAFUtils.parseFilenames<Partial<BcrRecordingMetadata>>({
+            filenamePattern: this.settings.filenamePattern,
+            filenames: items.map(([fn]) => fn),
+          });
+        }
+        catch (error) {
+          console.warn('Native filename parsing failed, using JS parser:', error);
+        }
+        items.forEach(([fn, r], i) => {
+          r.setMetadata(metadataList[i] ?? Recording.extractMetadataFromFilename(fn, filenameRegExp));
+          changed.push(r);
+        });
+      }
+
+      // STEP 5: probe duration of files without it (missing JSON metadata)
+      // ---------------------------------------------------------------------
+      const noDuration = changed.filter(r => !r.duration);
+      for (let i = 0; i < noDuration.length; i += METADATA_BATCH_SIZE) {
+        const batch = noDuration.slice(i, i + METADATA_BATCH_SIZE);
+        const durations = await AndroidSAFUtils.probeDurations({ uris: batch.map(r => r.audioUri) });
+        batch.forEach((r, j) => r.duration = Math.ceil(durations[j] ?? 0));
+      }
+
       // update collection & cache
       this.lastUpdate = new Date().getTime();
+      this.scanGeneration = delta.generation;
       this.recordings.set(Object.values(currentDbObj));
-      await this.save();
+      // (a file could have been removed and added again with the same name)
+      await this.save(changed, deleted.filter(fn => !(fn in currentDbObj)));
 
     }
     catch(error: any) {
@@ -169,6 +288,37 @@ export class RecordingsService {
       this.refreshProgress.set(undefined);
     }
 
+    // apply directory changes notified while refreshing
+    if (this.pendingDirectoryChange) {
+      this.pendingDirectoryChange = false;
+      this.refreshContent();
+    }
+
+  }
+
+  /**
+   * Watch the current recordings directory (replacing the previously watched one)
+   */
+  private async watchRecordingsDirectory() {
+
+    const directoryUri = this.settings.recordingsDirectoryUri;
+    if (this.watchedDirectoryUri === directoryUri) {
+      return;
+    }
+
+    if (this.watchedDirectoryUri) {
+      await AndroidSAF.unwatchDirectory({ directoryUri: this.watchedDirectoryUri });
+      this.watchedDirectoryUri = undefined;
+    }
+
+    try {
+      await AndroidSAF.watchDirectory({ directoryUri });
+      this.watchedDirectoryUri = directoryUri;
+    } catch (error) {
+      // fallback to last modified time check on resume
+      console.warn('Error watching recordings directory:', error);
+    }
+
   }
 
   /**
@@ -190,37 +340,56 @@ export class RecordingsService {
    */
   async deleteRecording(deleteItems: Recording[]) {
 
-    // shared delete function
-    const deleteFileFn = async (fileUri: string) => {
+    // shared batch delete function (returns the status of each file, keyed by URI)
+    const deleteFilesFn = async (uris: string[]) => {
+      const res = new Map<string, DeleteFileStatus>();
+      if (!uris.length) {
+        return res;
+      }
       try {
-        await AndroidSAF.deleteFile({ fileUri });
-        return true;
+        (await AndroidSAFUtils.deleteFiles({ uris })).forEach((status, i) => res.set(uris[i], status));
       }
       catch(err) {
+        uris.forEach(uri => res.set(uri, 'error'));
         this.mbs.showError({
           appErrorCode: 'ERR_OS004',
-          appErrorArgs: { filename: fileUri },
+          appErrorArgs: { filename: uris[0] },
           error: err,
         });
-        return false;
+        return res;
       }
+      // (already missing files are considered deleted)
+      res.forEach((status, uri) => {
+        if (status === 'error') {
+          this.mbs.showError({
+            appErrorCode: 'ERR_OS004',
+            appErrorArgs: { filename: uri },
+          });
+        }
+      });
+      return res;
     }
 
-    // delete all items
+    // delete audio files first (in a single parallel batch),
+    // then the metadata files of the recordings whose audio file has been deleted
+    const items = deleteItems.filter(item => item);
+    const audioStatuses = await deleteFilesFn(items.map(item => item.audioUri));
+    const audioDeleted = items.filter(item => audioStatuses.get(item.audioUri) !== 'error');
+    const metadataStatuses = await deleteFilesFn(audioDeleted.filter(item => item.metadataUri).map(item => item.metadataUri!));
+
+    // remove deleted items from DB
     let tmpDb = this.recordings();
-    for (const item of deleteItems) {
-      if (
-        item && await deleteFileFn(item.audioUri)
-        && (!item.metadataUri || (item?.metadataUri && await deleteFileFn(item.metadataUri)))
-      ) {
-        // remove item from DB
+    const deleted: string[] = [];
+    for (const item of audioDeleted) {
+      if (!item.metadataUri || metadataStatuses.get(item.metadataUri) !== 'error') {
         tmpDb = tmpDb.filter(i => i !== item);
+        deleted.push(item.audioDisplayName);
       }
     }
 
     // send update event & save DB
     this.recordings.set(tmpDb);
-    await this.save();
+    await this.save([], deleted);
 
   }
 
@@ -237,6 +406,7 @@ export class RecordingsService {
         // show directory selector
         try {
           const { selectedUri } = await AndroidSAF.selectDirectory({});
+          await this.flushExport();
           console.log('Selected directory:', this.settings.recordingsDirectoryUri);
           this.settings.recordingsDirectoryUri = selectedUri;
           this.updateDbFileUri()
@@ -265,46 +435,23 @@ export class RecordingsService {
 
     try {
 
-      // test if DB file exists, then load it
-      if (this.settings.dbFileUri) {
-        const dbContent = new DbContent();
-        try {
-          const opt: ReadFileOptions = {
-            fileUri: this.settings.dbFileUri,
-            encoding: Encoding.UTF8,
-          };
-          const { content: jsonContent } = await AndroidSAF.readFile(opt);
-          const jsonObj = JSON.parse(jsonContent);
-          deserializeObject(jsonObj, dbContent);
-
-          // check DB version
-          if (dbContent.schemaVersion < DB_SCHEMA_VERSION) {
-            this.upgradeDb(dbContent);
-            await this.save();
-          }
+      // load DB items from native DB
+      const items = await RecordingsDbUtils.query({ directoryUri: this.settings.recordingsDirectoryUri });
+      const meta = items[DB_META_KEY];
+      if (meta) {
+        delete items[DB_META_KEY];
+        delete items[DB_INDEX_META_KEY];
+        await this.setDbContent(deserializeObject({ ...meta, data: Object.values(items) }, DbContent));
+        this.dbVersion.update(v => v + 1);
+        return true;
+      }
 
-          // return DB
-          this.lastUpdate = dbContent.lastUpdate;
-          this.recordings.set(dbContent.data);
-          return true;
-        }
-        catch (error: any) {
-          if (error.code === ErrorCode.ERR_NOT_FOUND) {
-            // db file is configured but missing, maybe directory was moved
-            // let's search for it again
-            await this.updateDbFileUri();
-            if (this.settings.recordingsDirectoryUri) {
-              // recall
-              return await this.load();
-            }
-          }
-          else {
-            this.mbs.showError({
-              appErrorCode: 'ERR_DB002',
-              error,
-            });
-          }
-        }
+      // native DB is empty (e.g. app reinstalled): import the JSON DB file (if any)
+      const legacyDbContent = await this.loadLegacyDb();
+      if (legacyDbContent) {
+        await this.setDbContent(legacyDbContent);
+        await this.save();
+        return true;
       }
 
     } catch (error) {
@@ -318,13 +465,132 @@ export class RecordingsService {
   }
 
   /**
-   * Save the recordings database to storage
+   * Set the loaded DB content (upgrading it if needed)
+   */
+  private async setDbContent(dbContent: DbContent) {
+
+    this.lastUpdate = dbContent.lastUpdate;
+    this.scanGeneration = dbContent.scanGeneration;
+    this.recordings.set(dbContent.data);
+
+    // check DB version
+    if (dbContent.schemaVersion < DB_SCHEMA_VERSION) {
+      this.upgradeDb(dbContent);
+      await this.save();
+    }
+
+  }
+
+  /**
+   * Load the legacy recordings database (a JSON file stored in recordings directory)
+   */
+  private async loadLegacyDb(): Promise<DbContent|undefined> {
+
+    // test if DB file exists, then load it
+    if (this.settings.dbFileUri) {
+      const dbContent = new DbContent();
+      try {
+        const opt: ReadFileOptions = {
+          fileUri: this.settings.dbFileUri,
+          encoding: Encoding.UTF8,
+        };
+        const { content: jsonContent } = await AndroidSAF.readFile(opt);
+        const jsonObj = JSON.parse(jsonContent);
+        deserializeObject(jsonObj, dbContent);
+        return dbContent;
+      }
+      catch (error: any) {
+        if (error.code === ErrorCode.ERR_NOT_FOUND) {
+          // db file is configured but missing, maybe directory was moved
+          // let's search for it again
+          await this.updateDbFileUri();
+          if (this.settings.recordingsDirectoryUri) {
+            // recall
+            return await this.loadLegacyDb();
+          }
+        }
+        else {
+          this.mbs.showError({
+            appErrorCode: 'ERR_DB002',
+            error,
+          });
+        }
+      }
+    }
+
+    return undefined;
+  }
+
+  /**
+   * Save the given changes to the recordings database.
+   * Only the given items are written (all of the recordings if "changed" is omitted).
+   *
+   * @param changed   recordings inserted or updated
+   * @param deleted   display names of the deleted recordings
    */
-  public async save() {
+  public async save(changed: Recording[] = this.recordings(), deleted: string[] = []) {
 
+    try {
+      const directoryUri = this.settings.recordingsDirectoryUri;
+
+      // serialize DB metadata (without data)
+      const meta = serializeObject(new DbContent([], this.lastUpdate, this.scanGeneration));
+      delete meta.data;
+
+      // write changes
+      await RecordingsDb.upsert({
+        directoryUri,
+        items: [
+          { key: DB_META_KEY, value: JSON.stringify(meta) },
+          ...changed.map(r => ({ key: r.audioDisplayName, value: JSON.stringify(serializeObject(r)) })),
+        ],
+      });
+      if (deleted.length) {
+        await RecordingsDb.delete({ directoryUri, keys: deleted });
+      }
+      this.scheduleExport();
+
+    } catch (error) {
+      this.mbs.showError({
+        appErrorCode: 'ERR_DB003',
+        error,
+      });
+    }
+    finally {
+      this.dbVersion.update(v => v + 1);
+    }
+
+  }
+
+  /**
+   * Schedule the export of the whole DB to the JSON file in recordings directory.
+   * That file survives an app reinstall (it's imported when the native DB is empty), so it's kept
+   * up to date, but it's rewritten only once for a burst of saves.
+   */
+  private scheduleExport() {
+    clearTimeout(this.exportTimer);
+    this.exportTimer = setTimeout(() => this.exportDb(), RecordingsService.EXPORT_DELAY_MS);
+  }
+
+  /**
+   * Immediately export the DB if an export is pending
+   */
+  private async flushExport() {
+    if (this.exportTimer !== undefined) {
+      clearTimeout(this.exportTimer);
+      await this.exportDb();
+    }
+  }
+
+  /**
+   * Export the whole DB to the JSON file in recordings directory
+   */
+  private async exportDb() {
+
+    this.exportTimer = undefined;
     try {
       // serialize data
-      const dbContent = new DbContent(this.recordings(), this.lastUpdate);
+      const dbContent = new DbContent(this.recordings(), this.lastUpdate, this.scanGeneration);
       const jsonObj = serializeObject(dbContent);
 
       // test if file already exists
@@ -363,16 +629,24 @@ export class RecordingsService {
    * Set the given opName to all recordings with the given phone number
    */
   public async setNameByNumber(phoneNumber: string, name: string) {
+    await this.setNamesByNumber(new Map([[ phoneNumber, name ]]));
+  }
+
+  /**
+   * Set the given opNames (keyed by phone number) to all recordings with those phone numbers
+   *
+   * @param onlyUnnamed  true to keep the names of the recordings already named (i.e. not named after their phone number)
+   */
+  public async setNamesByNumber(names: Map<string, string>, onlyUnnamed = false) {
 
-    this.recordings()
-      .filter(i => i.opNumber === phoneNumber)
-      .forEach(i => i.opName = name);
+    const changed = this.recordings().filter(i => names.has(i.opNumber) && (!onlyUnnamed || i.opName === i.opNumber));
+    changed.forEach(i => i.opName = names.get(i.opNumber)!);
 
     // notify update
     this.recordings.set(this.recordings());
 
     // save DB
-    await this.save();
+    await this.save(changed);
 
   }
 
@@ -160,6 +160,12 @@ export class SettingsService {
   @JsonProperty()
   public enableEarpiece = true;
 
+  /**
+   * Skip silences while playing
+   */
+  @JsonProperty()
+  public skipSilence = false;
+
   constructor(
     private mbs: MessageBoxService,
   ) { }
@@ -1,3 +1,4 @@
+import { PluginListenerHandle } from '@capacitor/core';
 import { AndroidSAF } from './';
 
 export interface AndroidSAFPlugin {
@@ -16,11 +17,55 @@ export interface AndroidSAFPlugin {
    * Return a string containing the serialized version of IDocumentFile[].
    * This is due avoid inefficiency in speed and memory of returning a big array (in case of more then 2000 files).
    *
-   * NOTE: call AndroidSAFUtils.listFiles() to directly get IDocumentFile[]
+   * When "limit" is set, only a page of items is returned, together with the "nextOffset" and "pageToken" of the next page
+   * (undefined when this is the last page). Passing the "pageToken" to the next call reuses the same native cursor,
+   * which is kept open until then: call closeListing() if paging is abandoned (it's closed after 30s anyway).
+   *
+   * When "columns" is set, the string contains the serialized version of IDocumentColumns instead:
+   * a much smaller payload (URI prefix and MIME types are not repeated for each item), faster to parse.
+   *
+   * NOTE: call AndroidSAFUtils.listFiles() to directly get IDocumentFile[],
+   * AndroidSAFUtils.listFilesPages() to process them page by page
+   * or AndroidSAFUtils.listFilesColumns() to get IDocumentColumns
    *
    * @param options ListFilesOptions
    */
-  listFiles(options: DirectoryOptions): Promise<{ itemsJson: string }>;
+  listFiles(options: ListFilesOptions): Promise<{ itemsJson: string, nextOffset?: number, pageToken?: string }>;
+
+  /**
+   * Release the native cursor kept open for the next page of a listFiles() call
+   */
+  closeListing(options: { pageToken: string }): Promise<void>;
+
+  /**
+   * Scan the given directory for recordings (audio files paired with their optional JSON metadata file)
+   * and return a string containing the serialized version of IRecordingsDelta, with the recordings
+   * added, changed or removed since the scan that returned the given generation token.
+   * If token is missing or outdated, all of the recordings are returned as "added" and reset is true.
+   *
+   * NOTE: call AndroidSAFUtils.scanRecordings() to directly get IRecordingsDelta
+   *
+   * @param options ScanRecordingsOptions
+   */
+  scanRecordings(options: ScanRecordingsOptions): Promise<{ generation: number, reset: boolean, deltaJson: string }>;
+
+  /**
+   * Start watching the given directory content: changes are notified with (coalesced) "directoryChanged" events
+   */
+  watchDirectory(options: DirectoryOptions): Promise<void>;
+
+  /**
+   * Stop watching the given directory
+   */
+  unwatchDirectory(options: DirectoryOptions): Promise<void>;
+
+  addListener(eventName: 'directoryChanged', listenerFunc: (data: IDirectoryChanged) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Enable (or disable) background indexing of the given recordings directory: when new files appear in it,
+   * recordings are indexed in background (when device is idle) and saved to the recordings DB.
+   */
+  setBackgroundIndexing(options: BackgroundIndexingOptions): Promise<void>;
 
   /**
    * Returns the last modified time of the given directory
@@ -29,11 +74,56 @@ export interface AndroidSAFPlugin {
   getLastModified(options: DirectoryOptions): Promise<{ lastModified: number }>;
 
   /**
-   * Read file and return its content
+   * Read file (or the given range of it) and return its content, together with the total file size
+   * (undefined if unknown)
    *
    * @param options ReadFileOptions
    */
-  readFile(options: ReadFileOptions): Promise<{ content: string, encoding?: Encoding }>;
+  readFile(options: ReadFileOptions): Promise<{ content: string, encoding?: Encoding, size?: number }>;
+
+  /**
+   * Read file content in chunks, sending each of them as a "readFileChunk" event.
+   * Resolves with the total read size (bytes, or chars if "encoding" is set) when the whole file has been read.
+   * BASE64 encoded chunks can be concatenated as-is.
+   *
+   * @param options ReadFileChunksOptions
+   */
+  readFileChunks(options: ReadFileChunksOptions): Promise<{ size: number }>;
+
+  addListener(eventName: 'readFileChunk', listenerFunc: (data: IReadFileChunk) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Read a batch of BCR JSON metadata files (in parallel) and return a string containing
+   * the serialized array of their content, in the same order of the given URIs.
+   * Only the fields used by the app are returned; unreadable files return a null item.
+   *
+   * NOTE: call AndroidSAFUtils.readMetadataBatch() to directly get the array
+   *
+   * @param options ReadMetadataBatchOptions
+   */
+  readMetadataBatch(options: ReadMetadataBatchOptions): Promise<{ itemsJson: string }>;
+
+  /**
+   * Extract metadata from the given filenames (in parallel) using the given filename pattern
+   * and return a string containing the serialized array of the results (same format of readMetadataBatch()),
+   * in the same order of the given filenames.
+   *
+   * NOTE: call AndroidSAFUtils.parseFilenames() to directly get the array
+   *
+   * @param options ParseFilenamesOptions
+   */
+  parseFilenames(options: ParseFilenamesOptions): Promise<{ itemsJson: string }>;
+
+  /**
+   * Probe the durations of the given audio files (in parallel) and return a string containing
+   * the serialized array of the durations in seconds, in the same order of the given URIs.
+   * Unreadable files return a null item.
+   *
+   * NOTE: call AndroidSAFUtils.probeDurations() to directly get the array
+   *
+   * @param options ProbeDurationsOptions
+   */
+  probeDurations(options: ProbeDurationsOptions): Promise<{ itemsJson: string }>;
 
   /**
    * Search the given directory for a file with the given name (display name).
@@ -50,6 +140,16 @@ export interface AndroidSAFPlugin {
    */
   createFile(options: CreateFileOptions): Promise<{ fileUri: string }>;
 
+  /**
+   * Extract a clip of an audio file into a new file of the given directory, without re-encoding.
+   * The new file extension depends on the source codec (m4a, ogg, webm, 3gp or wav),
+   * FLAC files are not supported.
+   *
+   * @param options ExtractClipOptions
+   * @returns URI and duration (in ms) of the new file
+   */
+  extractClip(options: ExtractClipOptions): Promise<{ fileUri: string, duration: number }>;
+
   /**
    * Write file content.
    * NOTE: the file must exist!
@@ -66,11 +166,117 @@ export interface AndroidSAFPlugin {
    */
   deleteFile(options: DeleteFileOptions): Promise<void>;
 
+  /**
+   * Delete a batch of files (in parallel), sending a "deleteFilesProgress" event as each of them is deleted,
+   * and return a string containing the serialized array of their DeleteFileStatus, in the same order of the given URIs,
+   * together with the number of deleted files.
+   *
+   * NOTE: call AndroidSAFUtils.deleteFiles() to directly get the array
+   *
+   * @param options DeleteFilesOptions
+   */
+  deleteFiles(options: DeleteFilesOptions): Promise<{ itemsJson: string, deleted: number }>;
+
+  addListener(eventName: 'deleteFilesProgress', listenerFunc: (data: IDeleteFilesProgress) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
+
 }
 
+// default page size of AndroidSAFUtils.listFiles()
+const LIST_FILES_PAGE_SIZE = 1000;
+
+// MIME type of directories
+const MIME_TYPE_DIR = 'vnd.android.document/directory';
+
 export class AndroidSAFUtils {
-  static async listFiles(options: DirectoryOptions): Promise<IDocumentFile[]> {
-    const { itemsJson } = await AndroidSAF.listFiles(options);
+  /**
+   * Return the local URL serving the given SAF document to the WebView (with Range support),
+   * to be used with fetch() or as media source without reading its content through the bridge
+   */
+  static getLocalUrl(fileUri: string): string {
+    return `${window.location.origin}/_saf_?uri=${encodeURIComponent(fileUri)}`;
+  }
+  static async listFiles(options: DirectoryOptions, pageSize = LIST_FILES_PAGE_SIZE): Promise<IDocumentFile[]> {
+    const res: IDocumentFile[] = [];
+    for await (const page of AndroidSAFUtils.listFilesPages(options, pageSize)) {
+      res.push(...page);
+    }
+    return res;
+  }
+  static async *listFilesPages(options: DirectoryOptions, pageSize = LIST_FILES_PAGE_SIZE): AsyncGenerator<IDocumentFile[]> {
+    for await (const page of AndroidSAFUtils.listFilesColumnsPages(options, pageSize)) {
+      yield page.ids.map((_, i) => AndroidSAFUtils.getColumnsItem(page, i));
+    }
+  }
+  static async listFilesColumns(options: DirectoryOptions, pageSize = LIST_FILES_PAGE_SIZE): Promise<IDocumentColumns> {
+    let res: IDocumentColumns|undefined;
+    for await (const page of AndroidSAFUtils.listFilesColumnsPages(options, pageSize)) {
+      if (!res) {
+        res = page;
+        continue;
+      }
+      // each page has its own types table
+      const typeCodes = page.types.map(t => {
+        const code = res!.types.indexOf(t);
+        return code >= 0 ? code : res!.types.push(t) - 1;
+      });
+      res.ids.push(...page.ids);
+      res.names.push(...page.names);
+      res.typeCodes.push(...page.typeCodes.map(c => typeCodes[c]));
+      res.sizes.push(...page.sizes);
+      res.lastModified.push(...page.lastModified);
+    }
+    return res!;
+  }
+  static async *listFilesColumnsPages(options: DirectoryOptions, pageSize = LIST_FILES_PAGE_SIZE): AsyncGenerator<IDocumentColumns> {
+    let offset: number|undefined = 0;
+    let pageToken: string|undefined;
+    try {
+      while (offset !== undefined) {
+        const res: { itemsJson: string, nextOffset?: number, pageToken?: string } = await AndroidSAF.listFiles({ ...options, offset, limit: pageSize, columns: true, pageToken });
+        ({ nextOffset: offset, pageToken } = res);
+        yield JSON.parse(res.itemsJson);
+      }
+    }
+    finally {
+      // release the native cursor when the caller stops before the last page
+      if (pageToken) {
+        await AndroidSAF.closeListing({ pageToken });
+      }
+    }
+  }
+  /**
+   * Return the item at the given index of the given columns
+   */
+  static getColumnsItem(columns: IDocumentColumns, index: number): IDocumentFile {
+    const type = columns.types[columns.typeCodes[index]];
+    return {
+      displayName: columns.names[index],
+      uri: columns.uriPrefix + columns.ids[index],
+      type,
+      isDirectory: type === MIME_TYPE_DIR,
+      isVirtual: false,
+      size: columns.sizes[index],
+      lastModified: columns.lastModified[index],
+    };
+  }
+  static async scanRecordings(options: ScanRecordingsOptions): Promise<IRecordingsDelta> {
+    const { generation, reset, deltaJson } = await AndroidSAF.scanRecordings(options);
+    return { generation, reset, ...JSON.parse(deltaJson) };
+  }
+  static async readMetadataBatch<T = any>(options: ReadMetadataBatchOptions): Promise<(T|null)[]> {
+    const { itemsJson } = await AndroidSAF.readMetadataBatch(options);
+    return JSON.parse(itemsJson);
+  }
+  static async parseFilenames<T = any>(options: ParseFilenamesOptions): Promise<T[]> {
+    const { itemsJson } = await AndroidSAF.parseFilenames(options);
+    return JSON.parse(itemsJson);
+  }
+  static async probeDurations(options: ProbeDurationsOptions): Promise<(number|null)[]> {
+    const { itemsJson } = await AndroidSAF.probeDurations(options);
+    return JSON.parse(itemsJson);
+  }
+  static async deleteFiles(options: DeleteFilesOptions): Promise<DeleteFileStatus[]> {
+    const { itemsJson } = await AndroidSAF.deleteFiles(options);
     return JSON.parse(itemsJson);
   }
 }
@@ -108,12 +314,121 @@ export interface DirectoryOptions {
   directoryUri: string;
 }
 
+export interface ListFilesOptions extends DirectoryOptions {
+  /**
+   * Index of the first item to return (default 0)
+   */
+  offset?: number;
+  /**
+   * Max number of items to return (default 0 = no limit)
+   */
+  limit?: number;
+  /**
+   * Return items as parallel column arrays (IDocumentColumns) instead of IDocumentFile[] (default false)
+   */
+  columns?: boolean;
+  /**
+   * Page token returned with the previous page (to reuse its native cursor)
+   */
+  pageToken?: string;
+}
+
+export interface ScanRecordingsOptions extends DirectoryOptions {
+  /**
+   * MIME types of the supported audio files
+   */
+  supportedTypes: string[];
+  /**
+   * Generation token returned by the previous scan (if any)
+   */
+  generation?: number;
+  /**
+   * Filename pattern used to extract metadata of recordings without a JSON metadata file
+   * (returned as IRecordingFiles.filenameMetadata)
+   */
+  filenamePattern?: string;
+}
+
+export interface BackgroundIndexingOptions extends DirectoryOptions {
+  /**
+   * MIME types of the supported audio files
+   */
+  supportedTypes: string[];
+  /**
+   * Filename pattern used to extract metadata of recordings without a JSON metadata file
+   */
+  filenamePattern?: string;
+  /**
+   * false to disable background indexing (default true)
+   */
+  enabled?: boolean;
+}
+
+export interface ParseFilenamesOptions {
+  /**
+   * Filename pattern (see FILENAME_PATTERN_SUPPORTED_VARS)
+   */
+  filenamePattern: string;
+  /**
+   * Filenames to parse
+   */
+  filenames: string[];
+}
+
+export interface ProbeDurationsOptions {
+  /**
+   * URIs of the audio files to probe
+   */
+  uris: string[];
+}
+
 export interface ReadFileOptions extends FileOptions {
   /**
    * File content encoding.
    * If undefined then the file is read as binary and returned as BASE64 encoded string.
    */
   encoding?: Encoding,
+  /**
+   * Offset of the first byte to read (default 0)
+   */
+  offset?: number,
+  /**
+   * Number of bytes to read (default up to end of file)
+   */
+  length?: number,
+}
+
+export interface ReadFileChunksOptions extends FileOptions {
+  /**
+   * File content encoding.
+   * If undefined then the file is read as binary and chunks are returned as BASE64 encoded strings.
+   */
+  encoding?: Encoding,
+  /**
+   * Size of each chunk, in bytes (or chars if "encoding" is set)
+   */
+  chunkSize?: number,
+}
+
+export interface IDirectoryChanged {
+  directoryUri: string;
+}
+
+export interface IReadFileChunk {
+  fileUri: string;
+  encoding?: Encoding;
+  /**
+   * Offset of this chunk, in bytes (or chars if "encoding" is set)
+   */
+  offset: number;
+  content: string;
+}
+
+export interface ReadMetadataBatchOptions {
+  /**
+   * URIs of the metadata files to read
+   */
+  uris: string[];
 }
 
 interface CreateWriteFileOptionsBase {
@@ -142,10 +457,47 @@ export interface CreateFileOptions extends DirectoryOptions, CreateWriteFileOpti
   name: string;
 }
 
+export interface ExtractClipOptions extends FileOptions, DirectoryOptions {
+  /**
+   * Clip start (in ms)
+   */
+  startMs: number;
+  /**
+   * Clip end (in ms)
+   */
+  endMs: number;
+  /**
+   * Name of the new file, without extension (default: source name + clip range)
+   */
+  name?: string;
+}
+
 export interface WriteFileOptions extends FileOptions, CreateWriteFileOptionsBase { }
 
 export interface DeleteFileOptions extends FileOptions { }
 
+export interface DeleteFilesOptions {
+  /**
+   * URIs of the files to delete
+   */
+  uris: string[];
+}
+
+/**
+ * Status of a file deleted by deleteFiles()
+ */
+export type DeleteFileStatus = 'deleted' | 'notFound' | 'error';
+
+export interface IDeleteFilesProgress {
+  uri: string;
+  status: DeleteFileStatus;
+  /**
+   * Number of processed files (including this one)
+   */
+  done: number;
+  total: number;
+}
+
 export interface IDocumentFile {
   displayName: string,  // file name (SAF display name)
   uri: string,          // file URI
@@ -155,3 +507,31 @@ export interface IDocumentFile {
   size: number,
   lastModified: number,
 }
+
+/**
+ * Directory listing as parallel column arrays (one item per index)
+ */
+export interface IDocumentColumns {
+  uriPrefix: string,    // common prefix of the items URIs
+  types: string[],      // distinct MIME types
+  ids: string[],        // URI encoded document IDs (item URI = uriPrefix + id)
+  names: string[],      // file names (SAF display names)
+  typeCodes: number[],  // indexes of the items MIME types in "types"
+  sizes: number[],
+  lastModified: number[],
+}
+
+export interface IRecordingFiles {
+  audio: IDocumentFile,         // audio file
+  metadata?: IDocumentFile,     // optional JSON metadata file
+  filenameMetadata?: any,       // metadata extracted from filename (if metadata file is missing and a filename pattern was given)
+  metadataChanged?: boolean,    // true for "changed" recordings whose metadata file was added, changed or removed
+}
+
+export interface IRecordingsDelta {
+  generation: number,           // generation token to be passed to the next scan
+  reset: boolean,               // true if "added" contains the whole directory content
+  added: IRecordingFiles[],
+  changed: IRecordingFiles[],
+  removed: string[],            // display names of the removed audio files
+}
@@ -4,10 +4,15 @@ import { PluginListenerHandle } from '@capacitor/core';
 export interface AudioPlayer extends EventManagerPlugin {
 
   // Set configuration
-  setConfiguration(config: { enableEarpiece: boolean }): Promise<void>;
+  // (skipInterval: skip interval of notification/headset controls, in ms, default 10000)
+  // (skipSilence: jump over silences while playing; files are analyzed in background when loaded)
+  setConfiguration(config: { enableEarpiece: boolean, skipInterval?: number, skipSilence?: boolean }): Promise<void>;
 
-  // Initialize a new MediaPlayer instance on the given file URI
-  init(options: { fileUri: string, notificationTitle?: string, notificationText?: string }): Promise<IBaseParams>;
+  // Initialize a new MediaPlayer instance on the given file URI.
+  // The player is prepared in background and a "prepared" event is sent when it's ready
+  // (player calls made in the meantime are completed once prepared)
+  // (updateInterval: interval of "update" events while playing, in ms, default 300)
+  init(options: { fileUri: string, notificationTitle?: string, notificationText?: string, updateInterval?: number }): Promise<IBaseParams>;
 
   // Release MediaPlayer instance
   release(options: IBaseParams): Promise<void>;
@@ -17,15 +22,29 @@ export interface AudioPlayer extends EventManagerPlugin {
   pause(options: IBaseParams): Promise<void>;
   stop(options: IBaseParams): Promise<void>;
 
+  // Set playback speed (0.5 - 3, pitch is preserved), returns the applied speed.
+  // Requires Android 6+
+  setSpeed(options: ISpeedParams): Promise<{ speed: number }>;
+
+  // Move play position by the given offset (in ms, negative to skip back), returns the new position
+  skip(options: ISkipParams): Promise<{ position: number }>;
+
   // Get audio file duration (in ms)
   getDuration(options: IBaseParams): Promise<{ duration: number }>;
 
   // Get current play position (in ms)
   getCurrentTime(options: IBaseParams): Promise<{ currentTime: number }>;
 
+  // Get waveform peaks of the given audio file at several zoom levels (or only the given one).
+  // Peaks are cached, otherwise the file is decoded and base level peaks are sent with "waveformProgress" events
+  getWaveform(options: { fileUri: string, level?: number }): Promise<IWaveform>;
+
   // events
+  addListener(eventName: 'prepared', listenerFunc: (data: IPreparedData) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
+  addListener(eventName: 'playStatusChanged', listenerFunc: (data: IPlayStatusData) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
   addListener(eventName: 'playCompleted', listenerFunc: (data: IBaseParams) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
   addListener(eventName: 'update', listenerFunc: (data: IUpdateData) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
+  addListener(eventName: 'waveformProgress', listenerFunc: (data: IWaveformProgress) => void): Promise<PluginListenerHandle> & PluginListenerHandle;
 
 }
 
@@ -37,10 +56,60 @@ export interface IPlayParams extends IBaseParams {
   position?: number;  // seek position to start play from (in ms)
 }
 
-export interface IUpdateData extends IBaseParams {
+export interface IPreparedData extends IBaseParams {
+  duration: number;  // audio file duration (in ms)
+}
+
+export interface ISpeedParams extends IBaseParams {
+  speed: number;      // playback speed (1 = normal)
+}
+
+export interface ISkipParams extends IBaseParams {
+  offset: number;     // offset (in ms)
+}
+
+export interface IPlayerPosition extends IBaseParams {
   position: number;  // current play position (in ms)
 }
 
+// play status changed by transport controls (notification, lock screen, headset buttons)
+export interface IPlayStatusData extends IPlayerPosition {
+  playing: boolean;
+}
+
+// progress of the playing players (events are paused while the app is in background)
+export interface IUpdateData {
+  players: IPlayerPosition[];
+}
+
+export interface IWaveformLevel {
+  msPerPeak: number;  // duration of each peak (in ms)
+  peaks: string;      // BASE64 encoded signed 8 bit min/max pairs (see decodePeaks())
+}
+
+export interface IWaveform {
+  sampleRate: number;
+  durationMs: number;
+  levels: IWaveformLevel[];  // from the most detailed one
+}
+
+export interface IWaveformProgress extends IWaveformLevel {
+  fileUri: string;
+  offset: number;     // index of the first peak
+}
+
+/**
+ * Decode BASE64 encoded peaks to an array of min/max pairs (range -127..127)
+ */
+export function decodePeaks(peaks: string): Int8Array {
+  const bin = atob(peaks);
+  const res = new Int8Array(bin.length);
+  for (let i = 0; i < bin.length; i++) {
+    res[i] = bin.charCodeAt(i);
+  }
+  return res;
+}
+
 export enum OutputDeviceEnum {
   Auto = 0,
   Earpiece = 1,
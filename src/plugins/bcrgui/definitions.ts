@@ -6,4 +6,13 @@ export interface BcrGui {
    */
   createOrEditContact(options: { displayName?: string, phoneNumber?: string }): Promise<{ contactUri: string, displayName: string }>;
 
+  /**
+   * Return a string containing the JSON array of the display names of the contacts matching
+   * the given phone numbers (null if not found), in the same order of the given numbers.
+   * Lookups are cached and the cache is cleared on any contacts change.
+   *
+   * NOTE: requires Contacts permission
+   */
+  resolveContacts(options: { numbers: string[], defaultCountryPrefix?: string }): Promise<{ itemsJson: string }>;
+
 }
@@ -0,0 +1,53 @@
+
+/**
+ * Metrics collected by the native plugins (AndroidSAF, AudioPlayer, BcrGui, AndroidDateTimeSettings and RecordingsDb).
+ * Each method call (and each of its phases) is also marked as an android.os.Trace section,
+ * named "Plugin.method" (and "Plugin.method:phase"), visible in system traces.
+ */
+export interface MetricsPlugin {
+
+  /**
+   * Return a snapshot of the metrics collected since app start (or since the last reset)
+   */
+  getMetrics(options?: GetMetricsOptions): Promise<IMetricsSnapshot>;
+
+}
+
+export interface GetMetricsOptions {
+  // reset metrics after the snapshot
+  reset?: boolean,
+}
+
+export interface IMetricsSnapshot {
+  // start time of the collection (Unix ms)
+  since: number,
+  // metrics of each called method, sorted by name
+  methods: IMethodMetrics[],
+}
+
+export interface IMethodMetrics {
+  // "Plugin.method"
+  name: string,
+  calls: number,
+  // cursor rows (or items) read
+  rows: number,
+  // bytes (or chars) returned to JS
+  bytes: number,
+  latency: ILatencyHistogram,
+  // latency of each phase of the method, keyed by phase name
+  phases: Record<string, ILatencyHistogram>,
+}
+
+export interface ILatencyHistogram {
+  count: number,
+  totalMs: number,
+  minMs: number,
+  maxMs: number,
+  meanMs: number,
+  // percentiles, estimated as the upper bound of their bucket
+  p50Ms: number,
+  p90Ms: number,
+  p99Ms: number,
+  // non-empty buckets (leMs is null for the last, unbounded, one)
+  buckets: { leMs: number | null, count: number }[],
+}
@@ -0,0 +1,10 @@
+import { registerPlugin } from '@capacitor/core';
+
+import type { MetricsPlugin } from './definitions';
+
+const Metrics = registerPlugin<MetricsPlugin>('Metrics', {
+  // web: () => import('./web').then(m => new m.AndroidSAFWeb()),
+});
+
+export * from './definitions';
+export { Metrics };
@@ -0,0 +1,93 @@
+import { RecordingsDb } from './';
+
+/**
+ * Recordings database, stored as a native journaled key/value store (one for each recordings directory).
+ * Each mutation appends only the changed items to the journal, so the DB is never fully rewritten.
+ * Values are opaque JSON strings.
+ */
+export interface RecordingsDbPlugin {
+
+  /**
+   * Insert or update the given items
+   */
+  upsert(options: UpsertOptions): Promise<void>;
+
+  /**
+   * Delete the items with the given keys
+   */
+  delete(options: DeleteOptions): Promise<void>;
+
+  /**
+   * Return a string containing the JSON serialized object of the stored items ({ key: value, ... }).
+   *
+   * NOTE: call RecordingsDbUtils.query() to directly get the parsed object
+   */
+  query(options: QueryOptions): Promise<{ itemsJson: string }>;
+
+  /**
+   * Return a string containing the JSON serialized array of the keys of the recordings matching
+   * the given search string, sorted with the given mode, together with the total number of matches.
+   * Only the requested window (offset/limit) of keys is returned.
+   * Search and sort use native indexes, kept up to date by upsert() and delete().
+   *
+   * NOTE: call RecordingsDbUtils.queryRecordings() to directly get the parsed keys
+   */
+  queryRecordings(options: QueryRecordingsOptions): Promise<{ itemsJson: string, total: number }>;
+
+}
+
+export class RecordingsDbUtils {
+  static async query<T = any>(options: QueryOptions): Promise<Record<string, T>> {
+    const { itemsJson } = await RecordingsDb.query(options);
+    return JSON.parse(itemsJson);
+  }
+  static async queryRecordings(options: QueryRecordingsOptions): Promise<{ keys: string[], total: number }> {
+    const { itemsJson, total } = await RecordingsDb.queryRecordings(options);
+    return { keys: JSON.parse(itemsJson), total };
+  }
+}
+
+export interface DbOptions {
+  // URI of the recordings directory the DB refers to
+  directoryUri: string;
+}
+
+export interface UpsertOptions extends DbOptions {
+  /**
+   * Items to be inserted/updated (value must be a JSON string)
+   */
+  items: { key: string, value: string }[];
+}
+
+export interface DeleteOptions extends DbOptions {
+  /**
+   * Keys of the items to be deleted
+   */
+  keys: string[];
+}
+
+export interface QueryOptions extends DbOptions {
+  /**
+   * Keys of the items to be returned (all items if undefined)
+   */
+  keys?: string[];
+}
+
+export interface QueryRecordingsOptions extends DbOptions {
+  /**
+   * Whitespace separated search terms (all of them must be found in recording name or number, case insensitive)
+   */
+  search?: string;
+  /**
+   * Sort mode (see SortModeEnum)
+   */
+  sortMode: number;
+  /**
+   * Offset of the first returned key (default 0)
+   */
+  offset?: number;
+  /**
+   * Max number of returned keys (default all)
+   */
+  limit?: number;
+}
@@ -0,0 +1,10 @@
+import { registerPlugin } from '@capacitor/core';
+
+import type { RecordingsDbPlugin } from './definitions';
+
+const RecordingsDb = registerPlugin<RecordingsDbPlugin>('RecordingsDb', {
+  // web: () => import('./web').then(m => new m.AndroidSAFWeb()),
+});
+
+export * from './definitions';
+export { RecordingsDb };